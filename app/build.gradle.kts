@@ -1,6 +1,7 @@
 plugins {
     application
     id("com.github.johnrengelman.shadow") version "8.1.1"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 repositories{
@@ -9,6 +10,15 @@ repositories{
 
 dependencies {
     implementation(project(":fastcgi-lib"))
+
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
+    jvmArgs("--add-modules=jdk.incubator.vector")
 }
 
 tasks.jar {
@@ -22,4 +32,19 @@ tasks.jar {
 
 application {
     mainClass.set("ru.itmo.se.web.fastcgi.Server")
+    applicationDefaultJvmArgs = listOf("--add-modules=jdk.incubator.vector")
+}
+
+// VectorAreaEngine использует Vector API; без модуля при запуске AreaEngine берёт скалярный цикл
+tasks.withType<JavaCompile> {
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+}
+
+// Бенчмарки в src/jmh/java: ./gradlew :app:jmh, -PjmhIncludes=<regex> — только подходящие
+jmh {
+    jmhVersion.set("1.37")
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    jvmArgsAppend.add("--add-modules=jdk.incubator.vector")
+    (findProperty("jmhIncludes") as String?)?.let { includes.add(it) }
 }
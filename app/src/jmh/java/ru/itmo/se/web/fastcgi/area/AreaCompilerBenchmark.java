@@ -0,0 +1,69 @@
+package ru.itmo.se.web.fastcgi.area;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Одна и та же область: написанная вручную Area.contains против собранной AreaCompiler из описания
+ * standard в areas.properties. Операция — проверка POINTS точек по одной, как в запросах;
+ * предикат лежит в обычном поле, как у Service, а не в константе
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AreaCompilerBenchmark {
+    private static final int POINTS = 1024;
+
+    private AreaPredicate compiled;
+    private final float[] xs = new float[POINTS];
+    private final float[] ys = new float[POINTS];
+    private final float[] rs = new float[POINTS];
+
+    @Setup
+    public void setup() {
+        compiled = AreaCompiler.compile("rect 0 0 1 1; triangle 0 0 -1 0 0 1; sector 3 1");
+        // значения, которые пропускает Validator
+        Random random = new Random(42);
+        for (int i = 0; i < POINTS; i++) {
+            xs[i] = (random.nextInt(9) - 4) / 2f;
+            ys[i] = random.nextFloat() * 8 - 3;
+            rs[i] = random.nextInt(4) + 1;
+        }
+    }
+
+    @Benchmark
+    public int calculate() {
+        int hits = 0;
+        for (int i = 0; i < POINTS; i++) {
+            if (Area.contains(xs[i], ys[i], rs[i])) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public int compiled() {
+        int hits = 0;
+        for (int i = 0; i < POINTS; i++) {
+            if (compiled.contains(xs[i], ys[i], rs[i])) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,71 @@
+package ru.itmo.se.web.fastcgi.area;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверка size точек разом: скалярный цикл по Area.contains против VectorAreaEngine.
+ * Точки как в пакетном запросе: R из 1..5, половина на сетке с шагом 1/8 (много точных границ),
+ * половина случайные, так что ветвления скалярного кода плохо предсказываются
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AreaEngineBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    private final AreaEngine scalar = new ScalarAreaEngine();
+    private final AreaEngine vector = new VectorAreaEngine();
+    private float[] xs;
+    private float[] ys;
+    private float[] rs;
+    private boolean[] hits;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        xs = new float[size];
+        ys = new float[size];
+        rs = new float[size];
+        hits = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            int r = random.nextInt(5) + 1;
+            if (random.nextBoolean()) {
+                xs[i] = (random.nextInt(16 * r + 1) - 8 * r) / 8f;
+                ys[i] = (random.nextInt(16 * r + 1) - 8 * r) / 8f;
+            } else {
+                xs[i] = (random.nextFloat() * 2 - 1) * r * 1.2f;
+                ys[i] = (random.nextFloat() * 2 - 1) * r * 1.2f;
+            }
+            rs[i] = r;
+        }
+    }
+
+    @Benchmark
+    public boolean[] scalar() {
+        scalar.evaluate(xs, ys, rs, hits, size);
+        return hits;
+    }
+
+    @Benchmark
+    public boolean[] vector() {
+        vector.evaluate(xs, ys, rs, hits, size);
+        return hits;
+    }
+}
@@ -0,0 +1,89 @@
+package ru.itmo.se.web.fastcgi.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.itmo.se.web.fastcgi.exception.ValidationException;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Разбор тела POST формы: прежний Request.fromQuery (строка, split, URLDecoder, HashMap)
+ * против FormDecoder по байтам. Операция — один разбор тела, которое пришло байтами из FCGI_STDIN
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormDecoderBenchmark {
+    @Param({"form", "encoded", "extra"})
+    public String body;
+
+    private byte[] wire;
+    private byte[] scratch;
+
+    @Setup
+    public void setup() {
+        String form = switch (body) {
+            // то, что отправляет front/script/api.js
+            case "form" -> "x=-1.5&y=2.25&r=3";
+            case "encoded" -> "x=%2D1.5&y=2%2E25&r=3&comment=%D0%BF%D1%80%D0%B8%D0%B2%D0%B5%D1%82+%D0%BC%D0%B8%D1%80";
+            default -> "session=8f14e45fceea167a5a36dedd4bea2543&x=0.5&lang=ru&y=-2.718&theme=dark&r=4&ts=1729267890123";
+        };
+        wire = form.getBytes(StandardCharsets.UTF_8);
+        scratch = new byte[wire.length];
+    }
+
+    @Benchmark
+    public Request legacy() throws ValidationException {
+        return legacyFromQuery(new String(wire, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public Request decoder() throws ValidationException {
+        // декодер портит массив, поэтому каждый раз копия, как свежее тело запроса
+        System.arraycopy(wire, 0, scratch, 0, wire.length);
+        return Request.fromForm(scratch, 0, scratch.length);
+    }
+
+    /**
+     * Request.fromQuery до перехода на FormDecoder
+     */
+    static Request legacyFromQuery(String query) throws ValidationException {
+        if (query == null || query.isEmpty()) {
+            throw new ValidationException("Missing query string");
+        }
+        Map<String, String> params = Arrays.stream(query.split("&"))
+                .map(pair -> pair.split("="))
+                .collect(Collectors.toMap(
+                        pair -> URLDecoder.decode(pair[0], StandardCharsets.UTF_8),
+                        pair -> URLDecoder.decode(pair[1], StandardCharsets.UTF_8),
+                        (a, b) -> b,
+                        HashMap::new
+                ));
+        try {
+            float x = Float.parseFloat(params.get("x"));
+            float y = Float.parseFloat(params.get("y"));
+            float r = Float.parseFloat(params.get("r"));
+            return new Request(x, y, r);
+        } catch (Exception e) {
+            throw new ValidationException("Некорректные параметры! Вводите числа!");
+        }
+    }
+}
@@ -1,12 +1,44 @@
 package ru.itmo.se.web.fastcgi;
 
+import com.fastcgi.FCGILauncher;
+import com.fastcgi.FCGIServer;
+import com.fastcgi.FCGIServerConfig;
 import ru.itmo.se.web.fastcgi.controller.Controller;
+import ru.itmo.se.web.fastcgi.http.HttpServer;
+import ru.itmo.se.web.fastcgi.http.StaticFiles;
+
+import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * Главный класс веб-сервера
  */
 public class Server {
-    public static void main(String[] args) {
-        new Controller().run();
+    // Путь, по которому front/script/api.js отправляет запросы
+    private static final String API_PATH = "/fcgi-bin/server.jar";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // С FCGI_PROCESSES > 1 этот процесс только запускает рабочие процессы на том же порту
+        if (FCGILauncher.isSupervisor()) {
+            FCGILauncher.supervise(Server.class.getName(), args);
+            return;
+        }
+        FCGIServerConfig config = FCGIServerConfig.fromProperties(System.getProperties());
+        Controller controller = new Controller();
+        // С FCGI_HTTP_PORT отдаём статику и API сами, без httpd; FCGI_HTTP_ROOT — каталог статики вместо front/ из jar
+        int httpPort = Integer.getInteger("FCGI_HTTP_PORT", 0);
+        if (httpPort > 0) {
+            String httpRoot = System.getProperty("FCGI_HTTP_ROOT");
+            StaticFiles files = httpRoot != null
+                    ? StaticFiles.fromDirectory(Path.of(httpRoot))
+                    : StaticFiles.fromClasspath(Server.class.getClassLoader(), "front");
+            HttpServer http = new HttpServer(config, httpPort, controller, API_PATH, files);
+            if (config.port <= 0 && config.socketPath == null && !config.inheritSocket) {
+                http.serve();
+                return;
+            }
+            http.serveInBackground();
+        }
+        new FCGIServer(config, controller).serve();
     }
 }
\ No newline at end of file
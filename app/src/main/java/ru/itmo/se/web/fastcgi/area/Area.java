@@ -0,0 +1,17 @@
+package ru.itmo.se.web.fastcgi.area;
+
+/**
+ * Область попадания: прямоугольник в первой четверти, треугольник во второй и четверть круга в третьей,
+ * все размером R. Это эталон, с которым побитово совпадают все AreaEngine
+ */
+public final class Area {
+    private Area() {
+    }
+
+    public static boolean contains(float x, float y, float r) {
+        if (x >= 0 && y >= 0 && x <= r && y <= r) return true;
+        if (x <= 0 && y >= 0 && Math.abs(x) + y <= r) return true;
+        if (x <= 0 && y <= 0 && x * x + y * y <= r * r) return true;
+        return false;
+    }
+}
@@ -0,0 +1,242 @@
+package ru.itmo.se.web.fastcgi.area;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Переводит описание области в AreaPredicate. Описание — фигуры через ';', координаты в единицах R:
+ * <pre>
+ *   rect x0 y0 x1 y1               прямоугольник по двум углам
+ *   triangle x1 y1 x2 y2 x3 y3     треугольник
+ *   polygon x1 y1 x2 y2 ...        выпуклый многоугольник, вершины по или против часовой стрелки
+ *   sector q [k]                   четверть круга радиуса k (по умолчанию 1) в четверти q от 1 до 4
+ * </pre>
+ * Например, область из Area: {@code rect 0 0 1 1; triangle 0 0 -1 0 0 1; sector 3 1}.
+ * Границы входят в область.
+ * <p>
+ * Разбор и проверка описания делаются один раз. Каждая фигура становится одной лямбдой с коэффициентами
+ * в захваченных переменных, фигуры соединяются через || без списков и циклов, а перед ними стоит
+ * проверка общего ограничивающего прямоугольника. Для конечных R > 0, у которых r * r не переполняется
+ * (Validator пропускает только такие), описание выше даёт ровно те же ответы, что Area.contains:
+ * умножение на 0 и ±1 точное, а сравнения те же
+ */
+public final class AreaCompiler {
+    // ограничивающий прямоугольник берётся с запасом, чтобы округление на границе круга
+    // или наклонной стороны не отсекало точки, которые фигура принимает
+    private static final float BOX_MARGIN = 1f / 1024;
+
+    private AreaCompiler() {
+    }
+
+    /**
+     * @throws IllegalArgumentException если описание некорректно
+     */
+    public static AreaPredicate compile(String definition) {
+        List<AreaPredicate> shapes = new ArrayList<>();
+        float[] box = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (String part : definition.split(";")) {
+            String[] words = part.trim().split("\\s+");
+            if (words[0].isEmpty()) {
+                continue;
+            }
+            try {
+                shapes.add(shape(words, box));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("\"" + part.trim() + "\": " + e.getMessage(), e);
+            }
+        }
+        if (shapes.isEmpty()) {
+            throw new IllegalArgumentException("no shapes");
+        }
+        return withinBox(box, anyOf(shapes));
+    }
+
+    private static AreaPredicate shape(String[] words, float[] box) {
+        float[] n = numbers(words);
+        return switch (words[0].toLowerCase(Locale.ROOT)) {
+            case "rect" -> {
+                count(n, 4);
+                yield rect(Math.min(n[0], n[2]), Math.min(n[1], n[3]), Math.max(n[0], n[2]), Math.max(n[1], n[3]),
+                        box);
+            }
+            case "triangle" -> {
+                count(n, 6);
+                yield polygon(n, box);
+            }
+            case "polygon" -> {
+                if (n.length < 6 || n.length % 2 != 0) {
+                    throw new IllegalArgumentException("expected at least 3 vertices");
+                }
+                yield polygon(n, box);
+            }
+            case "sector" -> {
+                if (n.length != 1 && n.length != 2) {
+                    throw new IllegalArgumentException("expected quadrant and optional radius");
+                }
+                yield sector(n[0], n.length == 2 ? n[1] : 1, box);
+            }
+            default -> throw new IllegalArgumentException("unknown shape " + words[0]);
+        };
+    }
+
+    private static AreaPredicate rect(float x0, float y0, float x1, float y1, float[] box) {
+        if (!(x0 < x1 && y0 < y1)) {
+            throw new IllegalArgumentException("empty rectangle");
+        }
+        include(box, x0, y0);
+        include(box, x1, y1);
+        return (x, y, r) -> x >= x0 * r && x <= x1 * r && y >= y0 * r && y <= y1 * r;
+    }
+
+    /**
+     * Стороны превращаются в полуплоскости a * x + b * y <= c * r
+     */
+    private static AreaPredicate polygon(float[] v, float[] box) {
+        int count = v.length / 2;
+        float[] a = new float[count];
+        float[] b = new float[count];
+        float[] c = new float[count];
+        double area = 0;
+        for (int i = 0; i < count; i++) {
+            int j = (i + 1) % count;
+            area += (double) v[2 * i] * v[2 * j + 1] - (double) v[2 * j] * v[2 * i + 1];
+        }
+        if (area == 0) {
+            throw new IllegalArgumentException("empty polygon");
+        }
+        // внутренность слева от стороны при обходе против часовой стрелки
+        float sign = area > 0 ? 1 : -1;
+        for (int i = 0; i < count; i++) {
+            int j = (i + 1) % count;
+            float dx = v[2 * j] - v[2 * i];
+            float dy = v[2 * j + 1] - v[2 * i + 1];
+            a[i] = sign * dy;
+            b[i] = -sign * dx;
+            c[i] = sign * (dy * v[2 * i] - dx * v[2 * i + 1]);
+            include(box, v[2 * i], v[2 * i + 1]);
+        }
+        for (int i = 0; i < count; i++) {
+            for (int k = 0; k < count; k++) {
+                double outside = (double) a[i] * v[2 * k] + (double) b[i] * v[2 * k + 1] - c[i];
+                if (outside > 1e-6 * (Math.abs(c[i]) + 1)) {
+                    throw new IllegalArgumentException("polygon is not convex");
+                }
+            }
+        }
+        if (count == 3) {
+            float a0 = a[0], b0 = b[0], c0 = c[0];
+            float a1 = a[1], b1 = b[1], c1 = c[1];
+            float a2 = a[2], b2 = b[2], c2 = c[2];
+            return (x, y, r) -> a0 * x + b0 * y <= c0 * r
+                    && a1 * x + b1 * y <= c1 * r
+                    && a2 * x + b2 * y <= c2 * r;
+        }
+        if (count == 4) {
+            float a0 = a[0], b0 = b[0], c0 = c[0];
+            float a1 = a[1], b1 = b[1], c1 = c[1];
+            float a2 = a[2], b2 = b[2], c2 = c[2];
+            float a3 = a[3], b3 = b[3], c3 = c[3];
+            return (x, y, r) -> a0 * x + b0 * y <= c0 * r
+                    && a1 * x + b1 * y <= c1 * r
+                    && a2 * x + b2 * y <= c2 * r
+                    && a3 * x + b3 * y <= c3 * r;
+        }
+        return (x, y, r) -> {
+            for (int i = 0; i < a.length; i++) {
+                if (!(a[i] * x + b[i] * y <= c[i] * r)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Четверть круга с центром в начале координат; знаки sx, sy выбирают четверть
+     */
+    private static AreaPredicate sector(float quadrant, float k, float[] box) {
+        float sx;
+        float sy;
+        if (quadrant == 1) {
+            sx = 1;
+            sy = 1;
+        } else if (quadrant == 2) {
+            sx = -1;
+            sy = 1;
+        } else if (quadrant == 3) {
+            sx = -1;
+            sy = -1;
+        } else if (quadrant == 4) {
+            sx = 1;
+            sy = -1;
+        } else {
+            throw new IllegalArgumentException("quadrant must be 1, 2, 3 or 4");
+        }
+        if (!(k > 0) || k == Float.POSITIVE_INFINITY) {
+            throw new IllegalArgumentException("radius must be positive");
+        }
+        include(box, 0, 0);
+        include(box, sx * k, sy * k);
+        return (x, y, r) -> sx * x >= 0 && sy * y >= 0 && x * x + y * y <= (k * r) * (k * r);
+    }
+
+    /**
+     * До трёх фигур подряд в одной лямбде, остальные — следующим звеном
+     */
+    private static AreaPredicate anyOf(List<AreaPredicate> shapes) {
+        AreaPredicate a = shapes.get(0);
+        if (shapes.size() == 1) {
+            return a;
+        }
+        AreaPredicate b = shapes.get(1);
+        if (shapes.size() == 2) {
+            return (x, y, r) -> a.contains(x, y, r) || b.contains(x, y, r);
+        }
+        AreaPredicate c = shapes.get(2);
+        if (shapes.size() == 3) {
+            return (x, y, r) -> a.contains(x, y, r) || b.contains(x, y, r) || c.contains(x, y, r);
+        }
+        AreaPredicate rest = anyOf(shapes.subList(3, shapes.size()));
+        return (x, y, r) -> a.contains(x, y, r) || b.contains(x, y, r) || c.contains(x, y, r)
+                || rest.contains(x, y, r);
+    }
+
+    private static AreaPredicate withinBox(float[] box, AreaPredicate shapes) {
+        float margin = Math.max(box[2] - box[0], box[3] - box[1]) * BOX_MARGIN;
+        float x0 = box[0] - margin;
+        float y0 = box[1] - margin;
+        float x1 = box[2] + margin;
+        float y1 = box[3] + margin;
+        return (x, y, r) -> x >= x0 * r && x <= x1 * r && y >= y0 * r && y <= y1 * r && shapes.contains(x, y, r);
+    }
+
+    private static void include(float[] box, float x, float y) {
+        box[0] = Math.min(box[0], x);
+        box[1] = Math.min(box[1], y);
+        box[2] = Math.max(box[2], x);
+        box[3] = Math.max(box[3], y);
+    }
+
+    private static float[] numbers(String[] words) {
+        float[] n = new float[words.length - 1];
+        for (int i = 0; i < n.length; i++) {
+            try {
+                n[i] = Float.parseFloat(words[i + 1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: " + words[i + 1]);
+            }
+            if (!Float.isFinite(n[i])) {
+                throw new IllegalArgumentException("not a finite number: " + words[i + 1]);
+            }
+        }
+        return n;
+    }
+
+    private static void count(float[] n, int expected) {
+        if (n.length != expected) {
+            throw new IllegalArgumentException("expected " + expected + " numbers");
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package ru.itmo.se.web.fastcgi.area;
+
+/**
+ * Проверка многих точек разом по массивам координат: пакеты точек, пересчёт истории, отрисовка сетки.
+ * Результат всегда тот же, что у Area.contains для каждой точки
+ */
+public interface AreaEngine {
+    /**
+     * hits[i] = Area.contains(xs[i], ys[i], rs[i]) для i от 0 до n
+     */
+    void evaluate(float[] xs, float[] ys, float[] rs, boolean[] hits, int n);
+
+    String name();
+
+    /**
+     * Векторный вариант, если JVM запущена с --add-modules jdk.incubator.vector, иначе скалярный.
+     * -DAREA_ENGINE=scalar или vector выбирает явно
+     */
+    static AreaEngine best() {
+        String wanted = System.getProperty("AREA_ENGINE", "");
+        if (!wanted.equalsIgnoreCase("scalar") && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // класс грузится только здесь: без модуля он и не нужен, и не загрузится
+                return (AreaEngine) Class.forName("ru.itmo.se.web.fastcgi.area.VectorAreaEngine")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("AreaEngine: Vector API is not usable, using the scalar loop: " + e);
+            }
+        } else if (wanted.equalsIgnoreCase("vector")) {
+            System.err.println("AreaEngine: jdk.incubator.vector is not enabled, using the scalar loop");
+        }
+        return new ScalarAreaEngine();
+    }
+}
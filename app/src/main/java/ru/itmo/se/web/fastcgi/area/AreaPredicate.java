@@ -0,0 +1,18 @@
+package ru.itmo.se.web.fastcgi.area;
+
+/**
+ * Попадание точки в область варианта. Реализации строит AreaCompiler
+ */
+@FunctionalInterface
+public interface AreaPredicate {
+    boolean contains(float x, float y, float r);
+
+    /**
+     * hits[i] = contains(xs[i], ys[i], rs[i]) для i от 0 до n
+     */
+    default void evaluate(float[] xs, float[] ys, float[] rs, boolean[] hits, int n) {
+        for (int i = 0; i < n; i++) {
+            hits[i] = contains(xs[i], ys[i], rs[i]);
+        }
+    }
+}
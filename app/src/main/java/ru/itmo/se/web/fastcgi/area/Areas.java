@@ -0,0 +1,81 @@
+package ru.itmo.se.web.fastcgi.area;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Области вариантов задания, собранные при запуске: имя варианта — AreaPredicate.
+ * Описания берутся из файла -DAREAS=path, иначе из areas.properties в jar, формат описан в AreaCompiler.
+ * Без имени варианта действует встроенная область Area
+ */
+public final class Areas {
+    public static final AreaPredicate BUILTIN = Area::contains;
+    private static final String RESOURCE = "areas.properties";
+
+    private final Map<String, AreaPredicate> variants;
+
+    private Areas(Map<String, AreaPredicate> variants) {
+        this.variants = variants;
+    }
+
+    /**
+     * @throws IllegalStateException если файл не читается или описание области некорректно
+     */
+    public static Areas load() {
+        Properties props = new Properties();
+        String path = System.getProperty("AREAS");
+        try {
+            if (path != null) {
+                try (Reader in = Files.newBufferedReader(Path.of(path), StandardCharsets.UTF_8)) {
+                    props.load(in);
+                }
+            } else {
+                InputStream in = Areas.class.getClassLoader().getResourceAsStream(RESOURCE);
+                if (in != null) {
+                    try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                        props.load(reader);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read areas from " + (path != null ? path : RESOURCE), e);
+        }
+        return fromProperties(props);
+    }
+
+    public static Areas fromProperties(Properties props) {
+        Map<String, AreaPredicate> variants = new HashMap<>();
+        for (String name : props.stringPropertyNames()) {
+            try {
+                variants.put(name, AreaCompiler.compile(props.getProperty(name)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalStateException("Area " + name + ": " + e.getMessage(), e);
+            }
+        }
+        return new Areas(variants);
+    }
+
+    /**
+     * Область варианта name; пустое имя или null — BUILTIN, неизвестное — null
+     */
+    public AreaPredicate get(String name) {
+        if (name == null || name.isEmpty()) {
+            return BUILTIN;
+        }
+        return variants.get(name);
+    }
+
+    public Set<String> names() {
+        return Collections.unmodifiableSet(variants.keySet());
+    }
+}
@@ -0,0 +1,18 @@
+package ru.itmo.se.web.fastcgi.area;
+
+/**
+ * Обычный цикл по Area.contains
+ */
+public final class ScalarAreaEngine implements AreaEngine {
+    @Override
+    public void evaluate(float[] xs, float[] ys, float[] rs, boolean[] hits, int n) {
+        for (int i = 0; i < n; i++) {
+            hits[i] = Area.contains(xs[i], ys[i], rs[i]);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -1,71 +1,156 @@
 package ru.itmo.se.web.fastcgi.controller;
 
-import com.fastcgi.FCGIInterface;
+import com.fastcgi.FCGIExchange;
+import com.fastcgi.FCGIHandler;
+import ru.itmo.se.web.fastcgi.exception.RequestCancelledException;
 import ru.itmo.se.web.fastcgi.exception.ValidationException;
+import ru.itmo.se.web.fastcgi.model.BatchDecoder;
+import ru.itmo.se.web.fastcgi.model.BatchResponse;
+import ru.itmo.se.web.fastcgi.model.FormDecoder;
 import ru.itmo.se.web.fastcgi.model.Request;
 import ru.itmo.se.web.fastcgi.model.Response;
 import ru.itmo.se.web.fastcgi.service.Service;
+import ru.itmo.se.web.fastcgi.util.CachedClock;
+import ru.itmo.se.web.fastcgi.util.JsonWriter;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.time.LocalDateTime;
-import java.util.Properties;
+import java.util.List;
 
 /**
- * Только маршруты и делегирование
+ * Только маршруты и делегирование. Вызывается параллельно из потоков FCGIServer,
+ * поэтому всё состояние запроса берётся из FCGIExchange.
+ * Маршрут выбирается по PATH_INFO: пусто — одна точка, /batch — пакет точек.
+ * Вариант области в обоих случаях — параметр area в строке запроса
  */
-public class Controller {
+public class Controller implements FCGIHandler {
     private final Service service = new Service();
+    private static final int MAX_BODY_LENGTH = 1 << 20;
+    private static final String BATCH_PATH = "/batch";
+    private static final String FORM = "application/x-www-form-urlencoded";
+    private static final String JSON = "application/json";
+    private static final String AREA = "area";
 
+    @Override
+    public void handle(FCGIExchange exchange) throws IOException {
+        OutputStream out = exchange.getOutputStream();
+        try {
+            String pathInfo = exchange.getParam("PATH_INFO", "");
+            JsonWriter json = JsonWriter.local();
+            if (pathInfo.isEmpty() || pathInfo.equals("/")) {
+                point(exchange, json);
+            } else if (pathInfo.equals(BATCH_PATH)) {
+                batch(exchange, json);
+            } else {
+                writeError(out, HttpResponseWriter.NOT_FOUND, "Неизвестный путь " + pathInfo);
+                out.flush();
+                return;
+            }
+            HttpResponseWriter.OK.write(out, json.array(), 0, json.length());
+        } catch (ValidationException e) {
+            writeError(out, HttpResponseWriter.BAD_REQUEST, e.getMessage());
+        } catch (RequestCancelledException e) {
+            // клиент ушёл или истёк срок: вывод всё равно отбрасывается
+            exchange.setAppStatus(1);
+            return;
+        } catch (RuntimeException e) {
+            // в FCGI_STDERR запроса, веб-сервер запишет его в свой журнал
+            e.printStackTrace(new PrintStream(exchange.getErrorStream(), true, StandardCharsets.UTF_8));
+            writeError(out, HttpResponseWriter.INTERNAL_ERROR, "Внутренняя ошибка сервера");
+        }
+        out.flush();
+    }
+
+    /**
+     * Одна точка: из тела формы POST или из строки запроса
+     */
+    private void point(FCGIExchange exchange, JsonWriter json)
+            throws IOException, ValidationException, RequestCancelledException {
+        Request request;
+        if ("POST".equalsIgnoreCase(exchange.getParam("REQUEST_METHOD", ""))) {
+            if (!exchange.getParam("CONTENT_TYPE", "").startsWith(FORM)) {
+                throw new ValidationException("Missing query string");
+            }
+            ByteBuffer body = readBody(exchange);
+            request = Request.fromForm(body.array(), 0, body.position());
+        } else {
+            request = Request.fromQuery(exchange.getParam("QUERY_STRING"));
+        }
 
-    private static final String HTTP_RESPONSE = """
-            HTTP/1.1 200 OK
-            Content-Type: application/json
-            Content-Length: %d
+        String area = FormDecoder.param(exchange.getParam("QUERY_STRING"), AREA);
+        Response response = service.process(request, area, exchange::isCancelled);
 
-            %s
-            """;
-    private static final String HTTP_ERROR = """
-            HTTP/1.1 400 Bad Request
-            Content-Type: application/json
-            Content-Length: %d
+        // преобразуем наш ответ в json
+        response.writeJson(json);
+    }
 
-            %s
-            """;
+    /**
+     * Пакет точек одним POST: JSON-массив или форма points=x,y,r;x,y,r
+     */
+    private void batch(FCGIExchange exchange, JsonWriter json)
+            throws IOException, ValidationException, RequestCancelledException {
+        if (!"POST".equalsIgnoreCase(exchange.getParam("REQUEST_METHOD", ""))) {
+            throw new ValidationException("Пакет точек отправляется методом POST");
+        }
+        String contentType = exchange.getParam("CONTENT_TYPE", "");
+        List<Request> points;
+        if (contentType.startsWith(JSON)) {
+            ByteBuffer body = readBody(exchange);
+            points = BatchDecoder.fromJson(body.array(), 0, body.position());
+        } else if (contentType.startsWith(FORM)) {
+            ByteBuffer body = readBody(exchange);
+            points = BatchDecoder.fromForm(body.array(), 0, body.position());
+        } else {
+            throw new ValidationException("Тело пакета должно быть " + JSON + " или " + FORM);
+        }
 
-    public void run() {
-        var fcgi = new FCGIInterface();
-        while (fcgi.FCGIaccept() >= 0) {
-            try {
-                Properties props = System.getProperties();
-                String requestMethod = props.getProperty("REQUEST_METHOD", "");
-                String rawQuery;
+        String area = FormDecoder.param(exchange.getParam("QUERY_STRING"), AREA);
+        BatchResponse response = service.processBatch(points, area, exchange::isCancelled);
+        response.writeJson(json);
+    }
 
-                if ("POST".equalsIgnoreCase(requestMethod)) {
-                    String contentType = props.getProperty("CONTENT_TYPE", "");
-                    int contentLength = Integer.parseInt(props.getProperty("CONTENT_LENGTH", "0"));
-                    if (contentLength <= 0 || !contentType.startsWith("application/x-www-form-urlencoded")) {
-                        throw new ValidationException("Missing query string");
-                    }
-                    byte[] bodyBytes = System.in.readNBytes(contentLength);
-                    rawQuery = new String(bodyBytes, StandardCharsets.UTF_8);
-                } else {
-                    rawQuery = props.getProperty("QUERY_STRING");
-                }
+    /**
+     * Сервер перегружен: сразу отвечаем 503, чтобы веб-сервер не ждал обработки
+     */
+    @Override
+    public boolean overloaded(FCGIExchange exchange) throws IOException {
+        OutputStream out = exchange.getOutputStream();
+        writeError(out, HttpResponseWriter.UNAVAILABLE, "Сервер перегружен, повторите позже");
+        out.flush();
+        return true;
+    }
 
-                Request request = Request.fromQuery(rawQuery);
-                Response response = service.process(request);
+    private static void writeError(OutputStream out, HttpResponseWriter status, String reason) throws IOException {
+        JsonWriter json = JsonWriter.local();
+        Response.writeErrorJson(json, CachedClock.now(), reason);
+        status.write(out, json.array(), 0, json.length());
+    }
 
-                String json = response.toJson(); // преобразуем наш ответ в json
-                String http = String.format(HTTP_RESPONSE, json.getBytes(StandardCharsets.UTF_8).length + 2, json);
-                System.out.println(http);
-            } catch (ValidationException e) {
-                String json = Response.errorJson(LocalDateTime.now(), e.getMessage());
-                String http = String.format(HTTP_ERROR, json.getBytes(StandardCharsets.UTF_8).length + 2, json);
-                System.out.println(http);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+    /**
+     * Читает тело запроса одним буфером: большие записи FCGI_STDIN попадают в него напрямую из соединения
+     */
+    private static ByteBuffer readBody(FCGIExchange exchange) throws IOException, ValidationException {
+        int contentLength;
+        try {
+            contentLength = Integer.parseInt(exchange.getParam("CONTENT_LENGTH", "0"));
+        } catch (NumberFormatException e) {
+            throw new ValidationException("Некорректный Content-Length");
+        }
+        if (contentLength <= 0) {
+            throw new ValidationException("Missing query string");
+        }
+        if (contentLength > MAX_BODY_LENGTH) {
+            throw new ValidationException("Слишком большое тело запроса");
+        }
+        ReadableByteChannel stdin = exchange.getInputChannel();
+        ByteBuffer body = ByteBuffer.allocate(contentLength);
+        while (body.hasRemaining() && stdin.read(body) >= 0) {
+            // читаем до конца тела
         }
+        return body;
     }
 }
@@ -0,0 +1,93 @@
+package ru.itmo.se.web.fastcgi.controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Заготовка nph-ответа: строка статуса и постоянные заголовки закодированы в байты один раз,
+ * при ответе дописываются только цифры Content-Length и тело
+ */
+public final class HttpResponseWriter {
+    private static final String JSON = "Content-Type: application/json";
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    // цифры длины (не больше 10) и два CRLF
+    private static final int TAIL_MAX = 14;
+    // заголовок с цифрами собирается здесь, чтобы уйти одной записью и без выделений на ответ
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+    public static final HttpResponseWriter OK = new HttpResponseWriter(200, "OK", JSON);
+    public static final HttpResponseWriter BAD_REQUEST = new HttpResponseWriter(400, "Bad Request", JSON);
+    public static final HttpResponseWriter NOT_FOUND = new HttpResponseWriter(404, "Not Found", JSON);
+    public static final HttpResponseWriter INTERNAL_ERROR =
+            new HttpResponseWriter(500, "Internal Server Error", JSON);
+    public static final HttpResponseWriter UNAVAILABLE =
+            new HttpResponseWriter(503, "Service Unavailable", JSON, "Retry-After: 1");
+
+    /**
+     * Строка статуса и заголовки, заканчивается на "Content-Length: "
+     */
+    private final byte[] head;
+
+    public HttpResponseWriter(int status, String reason, String... headers) {
+        StringBuilder sb = new StringBuilder("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        for (String header : headers) {
+            sb.append(header).append("\r\n");
+        }
+        this.head = concat(ascii(sb.toString()), CONTENT_LENGTH);
+    }
+
+    private HttpResponseWriter(byte[] head) {
+        this.head = head;
+    }
+
+    /**
+     * Та же заготовка с ещё одним заголовком
+     */
+    public HttpResponseWriter withHeader(String name, String value) {
+        byte[] prefix = Arrays.copyOf(head, head.length - CONTENT_LENGTH.length);
+        return new HttpResponseWriter(concat(concat(prefix, ascii(name + ": " + value + "\r\n")), CONTENT_LENGTH));
+    }
+
+    public void write(OutputStream out, byte[] body) throws IOException {
+        write(out, body, 0, body.length);
+    }
+
+    public void write(OutputStream out, byte[] body, int off, int len) throws IOException {
+        byte[] scratch = SCRATCH.get();
+        if (scratch.length < head.length + TAIL_MAX) {
+            scratch = new byte[head.length + TAIL_MAX];
+            SCRATCH.set(scratch);
+        }
+        System.arraycopy(head, 0, scratch, 0, head.length);
+        // цифры длины пишутся сразу на место, затем пустая строка после заголовков
+        int digits = 1;
+        for (int n = len; n >= 10; n /= 10) {
+            digits++;
+        }
+        int p = head.length + digits;
+        int n = len;
+        do {
+            scratch[--p] = (byte) ('0' + n % 10);
+            n /= 10;
+        } while (n > 0);
+        p = head.length + digits;
+        scratch[p++] = '\r';
+        scratch[p++] = '\n';
+        scratch[p++] = '\r';
+        scratch[p++] = '\n';
+        out.write(scratch, 0, p);
+        out.write(body, off, len);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] r = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, r, a.length, b.length);
+        return r;
+    }
+}
@@ -0,0 +1,10 @@
+package ru.itmo.se.web.fastcgi.exception;
+
+/**
+ * Класс ошибки отменённого запроса: клиент ушёл или истёк срок обработки
+ */
+public class RequestCancelledException extends Exception {
+    public RequestCancelledException(String message) {
+        super(message);
+    }
+}
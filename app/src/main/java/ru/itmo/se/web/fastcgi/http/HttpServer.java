@@ -0,0 +1,751 @@
+package ru.itmo.se.web.fastcgi.http;
+
+import com.fastcgi.FCGIExchange;
+import com.fastcgi.FCGIHandler;
+import com.fastcgi.FCGIParams;
+import com.fastcgi.FCGIRequest;
+import com.fastcgi.FCGIRunner;
+import com.fastcgi.FCGIServerConfig;
+import com.fastcgi.FCGIStats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Небольшой HTTP/1.1-сервер для установки на одном хосте без httpd перед приложением.
+ * Запросы к scriptName (и ниже него, как PATH_INFO) получает FCGIHandler с теми же CGI-параметрами,
+ * что передал бы веб-сервер, остальное — GET и HEAD статики из StaticFiles.
+ * Ответ обработчика (заголовки CGI с необязательным Status или целый nph-ответ со строкой статуса)
+ * собирается целиком и уходит со своим Content-Length, поэтому соединение остаётся открытым.
+ * Лимиты очереди и сроки запросов — те же, что у FCGIServer с этим же FCGIServerConfig (FCGIRunner).
+ * На каждое соединение свой поток (виртуальный в режиме THREADS_VIRTUAL), он же вызывает обработчик;
+ * ответы на конвейерные запросы идут по порядку и как можно меньшим числом записей.
+ * Не поддерживаются тела chunked (411 Length Required, браузеры шлют Content-Length) и Range
+ */
+public class HttpServer {
+    static final int MAX_HEAD = 16 * 1024;
+    static final int MAX_BODY = 16 * 1024 * 1024;
+    static final int OUTPUT_BUFFER = 16 * 1024;
+    // Сколько держать простаивающее соединение без FCGI_IDLE_TIMEOUT, как KeepAliveTimeout у httpd
+    static final int DEFAULT_IDLE_TIMEOUT = 5000;
+
+    private static final String SERVER_SOFTWARE = "fastcgi-server";
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] CONTINUE = ascii("HTTP/1.1 100 Continue\r\n\r\n");
+    private static final byte[] CONNECTION_CLOSE = ascii("Connection: close\r\n");
+    private static final byte[] CONNECTION_KEEP_ALIVE = ascii("Connection: keep-alive\r\n");
+
+    private final FCGIServerConfig config;
+    private final int port;
+    private final FCGIHandler handler;
+    private final String scriptName;
+    private final StaticFiles files;
+    private final FCGIRunner runner;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private ExecutorService connections;
+    private ServerSocketChannel srvChannel;
+    private volatile boolean running;
+
+    /**
+     * port 0 — любой свободный, files может быть null, тогда отдаётся только обработчик
+     */
+    public HttpServer(FCGIServerConfig config, int port, FCGIHandler handler,
+                      String scriptName, StaticFiles files) {
+        this.config = config;
+        this.port = port;
+        this.handler = handler;
+        this.scriptName = scriptName;
+        this.files = files;
+        this.runner = new FCGIRunner(config, handler);
+    }
+
+    /**
+     * Занимает порт, с SO_REUSEPORT при config.reusePort: рабочие процессы FCGILauncher делят его
+     */
+    public void start() throws IOException {
+        srvChannel = ServerSocketChannel.open();
+        srvChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        if (config.reusePort
+                && srvChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            srvChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        srvChannel.bind(new InetSocketAddress(port), config.backlog);
+        connections = FCGIRunner.newConnectionExecutor(config, "http-");
+        running = true;
+    }
+
+    /**
+     * Принимает соединения до close(), при необходимости сначала вызывает start()
+     */
+    public void serve() throws IOException {
+        if (!running) {
+            start();
+        }
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = srvChannel.accept();
+            } catch (IOException e) {
+                if (!running) {
+                    break;
+                }
+                throw e;
+            }
+            if (config.maxConnections > 0 && openConnections.get() >= config.maxConnections) {
+                channel.close();
+                continue;
+            }
+            openConnections.incrementAndGet();
+            connections.execute(new Connection(channel));
+        }
+    }
+
+    /**
+     * start() и приём соединений в фоновом потоке, чтобы рядом работал FCGIServer
+     */
+    public void serveInBackground() throws IOException {
+        start();
+        Thread t = new Thread(() -> {
+            try {
+                serve();
+            } catch (IOException e) {
+                System.err.println("HttpServer: listener failed: " + e);
+            }
+        }, "http-accept");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Перестаёт принимать соединения, открытые закрываются после текущего запроса
+     */
+    public void close() throws IOException {
+        running = false;
+        if (srvChannel != null) {
+            srvChannel.close();
+        }
+        if (connections != null) {
+            connections.shutdown();
+        }
+    }
+
+    public int getLocalPort() {
+        try {
+            SocketAddress address = srvChannel == null ? null : srvChannel.getLocalAddress();
+            return address instanceof InetSocketAddress inet ? inet.getPort() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Счётчики допуска запросов к обработчику, см. FCGIStats
+     */
+    public FCGIStats getStats() {
+        return runner.getStats();
+    }
+
+    /**
+     * Вывод обработчика. После отмены запроса записи отбрасываются, как в FCGIOutputStream
+     */
+    private static final class ResponseBuffer extends ByteArrayOutputStream {
+        volatile boolean discard;
+
+        ResponseBuffer() {
+            super(1024);
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (!discard) {
+                super.write(b);
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            if (!discard) {
+                super.write(b, off, len);
+            }
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * Обмен без записей FastCGI: stdin — заранее прочитанное тело, stdout собирается в ResponseBuffer,
+     * stderr — собственный поток ошибок сервера
+     */
+    private static final class HttpExchange extends FCGIExchange {
+        private final InputStream in;
+        private final ReadableByteChannel inChannel;
+        private final ResponseBuffer out;
+
+        HttpExchange(FCGIRequest request, byte[] body, ResponseBuffer out) {
+            super(request);
+            this.in = new ByteArrayInputStream(body);
+            this.inChannel = Channels.newChannel(in);
+            this.out = out;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public ReadableByteChannel getInputChannel() {
+            return inChannel;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public OutputStream getErrorStream() {
+            return System.err;
+        }
+
+        @Override
+        public void cancel(String reason) {
+            super.cancel(reason);
+            if (isCancelled()) {
+                out.discard = true;
+            }
+        }
+    }
+
+    private final class Connection implements Runnable {
+        private final SocketChannel channel;
+        private InputStream in;
+        // прочитанные, но ещё не разобранные байты запросов — buf[pos, lim)
+        private final byte[] buf = new byte[MAX_HEAD];
+        private int pos;
+        private int lim;
+        // ещё не записанные ответы
+        private final ByteBuffer outBuf = ByteBuffer.allocateDirect(OUTPUT_BUFFER);
+        private final ResponseBuffer response = new ResponseBuffer();
+        private String remoteAddr = "";
+        private String remotePort = "";
+        private String serverAddr = "";
+        private String serverPort = "";
+
+        // текущий запрос
+        private boolean http11;
+        private boolean keepAlive;
+        private boolean isHead;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, config.tcpNoDelay);
+                channel.socket().setSoTimeout(config.idleTimeout > 0
+                        ? config.idleTimeout : DEFAULT_IDLE_TIMEOUT);
+                in = channel.socket().getInputStream();
+                addresses();
+                while (running && serveRequest()) {
+                    // следующий запрос на том же соединении
+                }
+                flush();
+            } catch (SocketTimeoutException e) {
+                // простой дольше idleTimeout
+            } catch (IOException e) {
+                // клиент ушёл
+            } finally {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // уже закрыто
+                }
+                openConnections.decrementAndGet();
+            }
+        }
+
+        private void addresses() throws IOException {
+            if (channel.getRemoteAddress() instanceof InetSocketAddress remote) {
+                remoteAddr = remote.getAddress().getHostAddress();
+                remotePort = Integer.toString(remote.getPort());
+            }
+            if (channel.getLocalAddress() instanceof InetSocketAddress local) {
+                serverAddr = local.getAddress().getHostAddress();
+                serverPort = Integer.toString(local.getPort());
+            }
+        }
+
+        /**
+         * Читает и отвечает на один запрос; false — соединение надо закрыть
+         */
+        private boolean serveRequest() throws IOException {
+            int bodyStart = readHead();
+            if (bodyStart < 0) {
+                return false;
+            }
+            int headStart = pos;
+            // заголовок съеден при любом ответе, иначе ответ об ошибке оставил бы его в buf на повторный разбор
+            pos = bodyStart;
+            int lineEnd = indexOf(buf, headStart, bodyStart, '\n');
+            String[] requestLine = ascii(buf, headStart, trimEnd(buf, headStart, lineEnd)).split(" ");
+            keepAlive = false;
+            isHead = false;
+            if (requestLine.length != 3 || !requestLine[1].startsWith("/")) {
+                return error(400, "Bad Request");
+            }
+            String method = requestLine[0];
+            String target = requestLine[1];
+            String protocol = requestLine[2];
+            if (protocol.equals("HTTP/1.1")) {
+                http11 = true;
+            } else if (protocol.equals("HTTP/1.0")) {
+                http11 = false;
+            } else {
+                return error(505, "HTTP Version Not Supported");
+            }
+            keepAlive = http11;
+            isHead = method.equals("HEAD");
+
+            int query = target.indexOf('?');
+            String path = query < 0 ? target : target.substring(0, query);
+            boolean script = scriptName != null
+                    && (path.equals(scriptName) || path.startsWith(scriptName + "/"));
+            FCGIRequest request = script ? FCGIRunner.newRequest(config) : null;
+
+            // заголовки; для обработчика они ещё и параметры HTTP_*
+            int contentLength = 0;
+            boolean chunked = false;
+            boolean expectContinue = false;
+            String ifNoneMatch = null;
+            String contentType = null;
+            String host = null;
+            for (int s = lineEnd + 1; s < bodyStart; ) {
+                int e = indexOf(buf, s, bodyStart, '\n');
+                int end = trimEnd(buf, s, e);
+                int colon = indexOf(buf, s, end, ':');
+                int start = s;
+                s = e + 1;
+                if (colon >= end) {
+                    continue;
+                }
+                String name = ascii(buf, start, colon).trim();
+                String value = ascii(buf, colon + 1, end).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    try {
+                        contentLength = Integer.parseInt(value);
+                    } catch (NumberFormatException ex) {
+                        contentLength = -1;
+                    }
+                    if (contentLength < 0) {
+                        // где кончается тело, неизвестно: следующего запроса не будет
+                        keepAlive = false;
+                        return error(400, "Bad Request");
+                    }
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = !value.equalsIgnoreCase("identity");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    if (value.equalsIgnoreCase("close")) {
+                        keepAlive = false;
+                    } else if (value.equalsIgnoreCase("keep-alive")) {
+                        keepAlive = true;
+                    }
+                } else if (name.equalsIgnoreCase("Expect")) {
+                    expectContinue = value.equalsIgnoreCase("100-continue");
+                } else if (name.equalsIgnoreCase("If-None-Match")) {
+                    ifNoneMatch = value;
+                } else if (name.equalsIgnoreCase("Content-Type")) {
+                    contentType = value;
+                } else if (name.equalsIgnoreCase("Host")) {
+                    host = value;
+                }
+                if (request != null && !name.equalsIgnoreCase("Content-Length")
+                        && !name.equalsIgnoreCase("Content-Type")) {
+                    request.params.put(paramName(name), value);
+                }
+            }
+            if (chunked) {
+                keepAlive = false;
+                return error(411, "Length Required");
+            }
+            if (contentLength > MAX_BODY) {
+                keepAlive = false;
+                return error(413, "Payload Too Large");
+            }
+            byte[] body = readBody(contentLength, expectContinue);
+            if (!running) {
+                keepAlive = false;
+            }
+
+            if (!script) {
+                return serveFile(method, path, ifNoneMatch);
+            }
+            FCGIParams params = request.params;
+            params.put("GATEWAY_INTERFACE", "CGI/1.1");
+            params.put("SERVER_SOFTWARE", SERVER_SOFTWARE);
+            params.put("SERVER_PROTOCOL", protocol);
+            params.put("SERVER_NAME", serverName(host));
+            params.put("SERVER_ADDR", serverAddr);
+            params.put("SERVER_PORT", serverPort);
+            params.put("REMOTE_ADDR", remoteAddr);
+            params.put("REMOTE_PORT", remotePort);
+            params.put("REQUEST_SCHEME", "http");
+            params.put("REQUEST_METHOD", method);
+            params.put("REQUEST_URI", target);
+            params.put("SCRIPT_NAME", scriptName);
+            if (path.length() > scriptName.length()) {
+                params.put("PATH_INFO", path.substring(scriptName.length()));
+            }
+            params.put("QUERY_STRING", query < 0 ? "" : target.substring(query + 1));
+            if (contentType != null) {
+                params.put("CONTENT_TYPE", contentType);
+            }
+            if (contentLength > 0 || method.equals("POST") || method.equals("PUT")) {
+                params.put("CONTENT_LENGTH", Integer.toString(contentLength));
+            }
+            return serveScript(request, body);
+        }
+
+        /**
+         * Дочитывает заголовок запроса в buf и возвращает начало тела, или -1, если соединение
+         * закрыто между запросами. Перед блокировкой на чтении отправляет накопленные ответы,
+         * так ответы на конвейерные запросы уходят вместе
+         */
+        private int readHead() throws IOException {
+            int scanned = pos;
+            for (;;) {
+                // пустые строки перед запросом допустимы
+                while (pos < lim && (buf[pos] == '\r' || buf[pos] == '\n')) {
+                    pos++;
+                }
+                for (int i = Math.max(scanned, pos + 1); i < lim; i++) {
+                    if (buf[i] == '\n' && (buf[i - 1] == '\n'
+                            || (buf[i - 1] == '\r' && i - 2 >= pos && buf[i - 2] == '\n'))) {
+                        return i + 1;
+                    }
+                }
+                scanned = lim;
+                if (pos > 0) {
+                    System.arraycopy(buf, pos, buf, 0, lim - pos);
+                    scanned -= pos;
+                    lim -= pos;
+                    pos = 0;
+                }
+                if (lim == buf.length) {
+                    http11 = true;
+                    keepAlive = false;
+                    isHead = false;
+                    error(431, "Request Header Fields Too Large");
+                    return -1;
+                }
+                flush();
+                int n = in.read(buf, lim, buf.length - lim);
+                if (n < 0) {
+                    if (lim > pos) {
+                        throw new EOFException("connection closed inside a request");
+                    }
+                    return -1;
+                }
+                lim += n;
+            }
+        }
+
+        private byte[] readBody(int contentLength, boolean expectContinue) throws IOException {
+            byte[] body = new byte[contentLength];
+            int n = Math.min(contentLength, lim - pos);
+            System.arraycopy(buf, pos, body, 0, n);
+            pos += n;
+            if (n < contentLength) {
+                if (expectContinue) {
+                    put(CONTINUE, 0, CONTINUE.length);
+                    flush();
+                }
+                if (in.readNBytes(body, n, contentLength - n) < contentLength - n) {
+                    throw new EOFException("connection closed inside a request body");
+                }
+            }
+            return body;
+        }
+
+        private boolean serveFile(String method, String path, String ifNoneMatch) throws IOException {
+            if (!method.equals("GET") && !isHead) {
+                return error(405, "Method Not Allowed", "Allow: GET, HEAD\r\n");
+            }
+            path = decodePath(path);
+            StaticFiles.Entry entry = path == null || files == null ? null : files.lookup(path);
+            if (entry == null) {
+                return error(404, "Not Found");
+            }
+            if (ifNoneMatch != null && (ifNoneMatch.equals("*") || ifNoneMatch.contains(entry.etag))) {
+                putAscii("HTTP/1.1 304 Not Modified\r\nETag: " + entry.etag + "\r\n");
+                endHead();
+                return keepAlive;
+            }
+            put(entry.head, 0, entry.head.length);
+            endHead();
+            if (!isHead) {
+                putBody(entry.body);
+            }
+            return keepAlive;
+        }
+
+        private boolean serveScript(FCGIRequest request, byte[] body) throws IOException {
+            response.reset();
+            response.discard = false;
+            HttpExchange exchange = new HttpExchange(request, body, response);
+            if (runner.run(exchange)) {
+                exchange.finish();
+                if (exchange.isCancelled()) {
+                    return error(503, "Service Unavailable");
+                }
+                if (request.appStatus != 0) {
+                    return error(500, "Internal Server Error");
+                }
+                return relay();
+            }
+            boolean answered;
+            try {
+                answered = handler.overloaded(exchange);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                answered = false;
+            }
+            exchange.finish();
+            return answered ? relay() : error(503, "Service Unavailable");
+        }
+
+        /**
+         * Вывод обработчика как ответ: его строки заголовка, кроме задающих границы сообщения, — их ставим сами
+         */
+        private boolean relay() throws IOException {
+            byte[] b = response.array();
+            int n = response.size();
+            int bodyStart = -1;
+            for (int i = 1; i < n; i++) {
+                if (b[i] == '\n' && (b[i - 1] == '\n'
+                        || (b[i - 1] == '\r' && i >= 2 && b[i - 2] == '\n'))) {
+                    bodyStart = i + 1;
+                    break;
+                }
+            }
+            if (bodyStart < 0) {
+                System.err.println("HttpServer: no response headers from the handler");
+                return error(500, "Internal Server Error");
+            }
+            String status = null;
+            boolean location = false;
+            for (int s = 0; s < bodyStart; ) {
+                int e = indexOf(b, s, bodyStart, '\n');
+                int end = trimEnd(b, s, e);
+                if (s == 0 && startsWith(b, s, end, "HTTP/")) {
+                    int space = indexOf(b, s, end, ' ');
+                    status = ascii(b, Math.min(space + 1, end), end);
+                } else if (startsWith(b, s, end, "Status:")) {
+                    status = ascii(b, s + 7, end).trim();
+                } else if (startsWith(b, s, end, "Location:")) {
+                    location = true;
+                }
+                s = e + 1;
+            }
+            if (status == null || status.isEmpty()) {
+                status = location ? "302 Found" : "200 OK";
+            }
+            putAscii("HTTP/1.1 " + status + "\r\n");
+            for (int s = 0; s < bodyStart; ) {
+                int e = indexOf(b, s, bodyStart, '\n');
+                int end = trimEnd(b, s, e);
+                if (end > s && !(s == 0 && startsWith(b, s, end, "HTTP/"))
+                        && !startsWith(b, s, end, "Status:")
+                        && !startsWith(b, s, end, "Content-Length:")
+                        && !startsWith(b, s, end, "Connection:")
+                        && !startsWith(b, s, end, "Keep-Alive:")
+                        && !startsWith(b, s, end, "Transfer-Encoding:")) {
+                    put(b, s, end - s);
+                    put(CRLF, 0, 2);
+                }
+                s = e + 1;
+            }
+            putAscii("Content-Length: " + (n - bodyStart) + "\r\n");
+            endHead();
+            if (!isHead) {
+                put(b, bodyStart, n - bodyStart);
+            }
+            return keepAlive;
+        }
+
+        private boolean error(int status, String reason) throws IOException {
+            return error(status, reason, "");
+        }
+
+        /**
+         * Короткий текстовый ответ; возвращает, остаётся ли соединение открытым
+         */
+        private boolean error(int status, String reason, String headers) throws IOException {
+            String body = status + " " + reason + "\n";
+            putAscii("HTTP/1.1 " + status + " " + reason + "\r\n" + headers
+                    + "Content-Type: text/plain; charset=utf-8\r\n"
+                    + "Content-Length: " + body.length() + "\r\n");
+            endHead();
+            if (!isHead) {
+                putAscii(body);
+            }
+            return keepAlive;
+        }
+
+        // заголовок Connection, если он нужен, и пустая строка
+        private void endHead() throws IOException {
+            if (!keepAlive) {
+                put(CONNECTION_CLOSE, 0, CONNECTION_CLOSE.length);
+            } else if (!http11) {
+                put(CONNECTION_KEEP_ALIVE, 0, CONNECTION_KEEP_ALIVE.length);
+            }
+            put(CRLF, 0, 2);
+        }
+
+        private String serverName(String host) {
+            if (host == null || host.isEmpty()) {
+                return serverAddr;
+            }
+            int colon = host.lastIndexOf(':');
+            return colon > host.lastIndexOf(']') ? host.substring(0, colon) : host;
+        }
+
+        private void putAscii(String s) throws IOException {
+            byte[] b = ascii(s);
+            put(b, 0, b.length);
+        }
+
+        private void put(byte[] b, int off, int len) throws IOException {
+            if (len > outBuf.remaining()) {
+                flush();
+                if (len > outBuf.capacity()) {
+                    writeFully(ByteBuffer.wrap(b, off, len));
+                    return;
+                }
+            }
+            outBuf.put(b, off, len);
+        }
+
+        // большие тела, особенно отображённые в память, пишутся из своего буфера без копирования
+        private void putBody(ByteBuffer body) throws IOException {
+            ByteBuffer src = body.duplicate();
+            if (src.remaining() > outBuf.remaining()) {
+                flush();
+                if (src.remaining() > outBuf.capacity() / 2) {
+                    writeFully(src);
+                    return;
+                }
+            }
+            outBuf.put(src);
+        }
+
+        private void flush() throws IOException {
+            if (outBuf.position() > 0) {
+                outBuf.flip();
+                writeFully(outBuf);
+                outBuf.clear();
+            }
+        }
+
+        private void writeFully(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        }
+    }
+
+    /**
+     * HTTP_ACCEPT_LANGUAGE для Accept-Language
+     */
+    static String paramName(String header) {
+        char[] name = new char[5 + header.length()];
+        "HTTP_".getChars(0, 5, name, 0);
+        for (int i = 0; i < header.length(); i++) {
+            char c = header.charAt(i);
+            name[5 + i] = c == '-' ? '_' : Character.toUpperCase(c);
+        }
+        return new String(name);
+    }
+
+    /**
+     * Раскодирует %-последовательности пути как UTF-8; null для испорченного пути
+     */
+    static String decodePath(String path) {
+        if (path.indexOf('%') < 0) {
+            return path;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c != '%') {
+                out.write(c);
+                continue;
+            }
+            if (i + 2 >= path.length()) {
+                return null;
+            }
+            int hi = Character.digit(path.charAt(i + 1), 16);
+            int lo = Character.digit(path.charAt(i + 2), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            out.write(hi << 4 | lo);
+            i += 2;
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(byte[] b, int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    // end без CR перед ним
+    private static int trimEnd(byte[] b, int from, int end) {
+        return end > from && b[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    private static boolean startsWith(byte[] b, int from, int end, String prefix) {
+        if (end - from < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase((char) b[from + i]) != Character.toLowerCase(prefix.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String ascii(byte[] b, int from, int to) {
+        return new String(b, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
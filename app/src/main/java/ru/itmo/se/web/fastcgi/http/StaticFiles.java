@@ -0,0 +1,168 @@
+package ru.itmo.se.web.fastcgi.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Статика для HttpServer: из каталога или из ресурсов class path (front/ внутри server.jar).
+ * Файл читается при первом запросе и остаётся в памяти вместе с готовыми заголовками ответа,
+ * файлы каталога больше MAP_THRESHOLD отображаются в память, а не копируются в кучу.
+ * Изменения файлов видны только после перезапуска
+ */
+public final class StaticFiles {
+    static final int MAP_THRESHOLD = 64 * 1024;
+
+    private final ClassLoader loader;
+    private final String prefix;
+    private final Path root;
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    private StaticFiles(ClassLoader loader, String prefix, Path root) {
+        this.loader = loader;
+        this.prefix = prefix;
+        this.root = root;
+    }
+
+    /**
+     * Ресурсы под prefix, например "front" для front/index.html
+     */
+    public static StaticFiles fromClasspath(ClassLoader loader, String prefix) {
+        return new StaticFiles(loader, prefix, null);
+    }
+
+    public static StaticFiles fromDirectory(Path root) {
+        return new StaticFiles(null, null, root.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Файл в кэше: строки заголовка ответа 200 (без Connection и пустой строки), тело и ETag
+     */
+    static final class Entry {
+        final byte[] head;
+        final ByteBuffer body;
+        final String etag;
+
+        Entry(byte[] head, ByteBuffer body, String etag) {
+            this.head = head;
+            this.body = body;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * Файл по раскодированному пути вида /style/base.css или null; путь на / — его index.html
+     */
+    Entry lookup(String path) throws IOException {
+        if (path.endsWith("/")) {
+            path += "index.html";
+        }
+        Entry entry = cache.get(path);
+        if (entry != null) {
+            return entry;
+        }
+        if (!isSafe(path)) {
+            return null;
+        }
+        ByteBuffer body = root != null ? readFile(path) : readResource(path);
+        if (body == null) {
+            return null;
+        }
+        entry = newEntry(path, body);
+        Entry raced = cache.putIfAbsent(path, entry);
+        return raced != null ? raced : entry;
+    }
+
+    // Наружу из корня не выйти: ни сегментов .., ни обратных слэшей, ни NUL
+    private static boolean isSafe(String path) {
+        if (!path.startsWith("/") || path.indexOf('\\') >= 0 || path.indexOf('\0') >= 0) {
+            return false;
+        }
+        for (String segment : path.split("/")) {
+            if (segment.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer readFile(String path) throws IOException {
+        Path file = root.resolve(path.substring(1)).normalize();
+        if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > MAP_THRESHOLD) {
+                return ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer body = ByteBuffer.allocate((int) size);
+            while (body.hasRemaining() && ch.read(body) >= 0) {
+                // читаем файл целиком
+            }
+            body.flip();
+            return body;
+        }
+    }
+
+    private ByteBuffer readResource(String path) throws IOException {
+        URL url = loader.getResource(prefix + path);
+        if (url == null || url.getPath().endsWith("/")) {
+            return null;
+        }
+        // из распакованного class path каталог читается как список файлов
+        if (url.getProtocol().equals("file")) {
+            try {
+                if (Files.isDirectory(Path.of(url.toURI()))) {
+                    return null;
+                }
+            } catch (URISyntaxException e) {
+                return null;
+            }
+        }
+        try (InputStream in = url.openStream()) {
+            return ByteBuffer.wrap(in.readAllBytes());
+        }
+    }
+
+    private static Entry newEntry(String path, ByteBuffer body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        String etag = "\"" + Integer.toHexString(body.remaining()) + "-"
+                + Long.toHexString(crc.getValue()) + "\"";
+        String head = "HTTP/1.1 200 OK\r\n"
+                + "Content-Type: " + contentType(path) + "\r\n"
+                + "Content-Length: " + body.remaining() + "\r\n"
+                + "ETag: " + etag + "\r\n"
+                + "Cache-Control: no-cache\r\n";
+        return new Entry(head.getBytes(StandardCharsets.ISO_8859_1), body.asReadOnlyBuffer(), etag);
+    }
+
+    static String contentType(String path) {
+        String ext = path.substring(path.lastIndexOf('.') + 1).toLowerCase();
+        return switch (ext) {
+            case "html", "htm" -> "text/html; charset=utf-8";
+            case "css" -> "text/css; charset=utf-8";
+            case "js", "mjs" -> "text/javascript; charset=utf-8";
+            case "json" -> "application/json";
+            case "txt" -> "text/plain; charset=utf-8";
+            case "svg" -> "image/svg+xml";
+            case "png" -> "image/png";
+            case "jpg", "jpeg" -> "image/jpeg";
+            case "gif" -> "image/gif";
+            case "ico" -> "image/x-icon";
+            case "woff2" -> "font/woff2";
+            default -> "application/octet-stream";
+        };
+    }
+}
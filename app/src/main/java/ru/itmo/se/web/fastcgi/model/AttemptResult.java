@@ -1,6 +1,6 @@
 package ru.itmo.se.web.fastcgi.model;
 
-import java.time.LocalDateTime;
+import ru.itmo.se.web.fastcgi.util.CachedClock;
 
 /**
  * Класс для хранения попытки
@@ -10,10 +10,10 @@ public class AttemptResult {
     private final float y;
     private final float r;
     private final long execTimeNanos;
-    private final LocalDateTime now;
+    private final CachedClock.Stamp now;
     private final boolean result;
 
-    public AttemptResult(float x, float y, float r, long execTimeNanos, LocalDateTime now, boolean result) {
+    public AttemptResult(float x, float y, float r, long execTimeNanos, CachedClock.Stamp now, boolean result) {
         this.x = x;
         this.y = y;
         this.r = r;
@@ -26,7 +26,7 @@ public class AttemptResult {
     public float getY() { return y; }
     public float getR() { return r; }
     public long getExecTimeNanos() { return execTimeNanos; }
-    public LocalDateTime getNow() { return now; }
+    public CachedClock.Stamp getNow() { return now; }
     public boolean isResult() { return result; }
 
     @Override
@@ -0,0 +1,297 @@
+package ru.itmo.se.web.fastcgi.model;
+
+import ru.itmo.se.web.fastcgi.exception.ValidationException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Разбор тела пакетного запроса — списка точек (x, y, r), в одном из двух видов:
+ * <pre>
+ *   application/json                   [{"x": 1, "y": -2.5, "r": 3}, [0.5, 1, 2], ...]
+ *   application/x-www-form-urlencoded  points=1,-2.5,3;0.5,1,2
+ * </pre>
+ * Числа в JSON можно передавать и строками. Точки здесь только читаются,
+ * проверяет их Validator
+ */
+public final class BatchDecoder {
+    public static final int MAX_POINTS = 10_000;
+    private static final int MAX_DEPTH = 16;
+
+    private final byte[] b;
+    private final int off;
+    private final int end;
+    private int pos;
+
+    private BatchDecoder(byte[] b, int off, int len) {
+        this.b = b;
+        this.off = off;
+        this.pos = off;
+        this.end = off + len;
+    }
+
+    public static List<Request> fromJson(byte[] b, int off, int len) throws ValidationException {
+        BatchDecoder decoder = new BatchDecoder(b, off, len);
+        List<Request> points = decoder.points();
+        decoder.skipSpace();
+        if (decoder.pos != decoder.end) {
+            throw decoder.error();
+        }
+        return points;
+    }
+
+    /**
+     * Параметр points: точки через ';', координаты через ','. Массив портится декодированием на месте
+     */
+    public static List<Request> fromForm(byte[] b, int off, int len) throws ValidationException {
+        int end = off + len;
+        for (int p = off; p < end; ) {
+            int pairEnd = FormDecoder.indexOf(b, p, end, '&');
+            int eq = FormDecoder.indexOf(b, p, pairEnd, '=');
+            int keyEnd;
+            try {
+                keyEnd = FormDecoder.percentDecode(b, p, eq, off);
+            } catch (ValidationException e) {
+                // чужой параметр с некорректным ключом не мешает
+                keyEnd = p;
+            }
+            if (isPoints(b, p, keyEnd) && eq < pairEnd) {
+                int valueEnd = FormDecoder.percentDecode(b, eq + 1, pairEnd, off);
+                return triples(b, eq + 1, valueEnd);
+            }
+            p = pairEnd + 1;
+        }
+        throw new ValidationException("Не задан параметр points");
+    }
+
+    private static boolean isPoints(byte[] b, int from, int to) {
+        String key = "points";
+        if (to - from != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (b[from + i] != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Request> triples(byte[] b, int from, int to) throws ValidationException {
+        List<Request> points = new ArrayList<>();
+        for (int p = from; p < to; ) {
+            int pointEnd = FormDecoder.indexOf(b, p, to, ';');
+            if (pointEnd > p) {
+                float[] xyr = new float[3];
+                int q = p;
+                for (int i = 0; i < 3; i++) {
+                    int numEnd = i < 2 ? FormDecoder.indexOf(b, q, pointEnd, ',') : pointEnd;
+                    if (numEnd == q || (i < 2 && numEnd == pointEnd)) {
+                        throw new ValidationException("Точка " + points.size() + ": нужно три числа x,y,r");
+                    }
+                    xyr[i] = FormDecoder.parseFloat(b, q, numEnd, "xyr".charAt(i));
+                    q = numEnd + 1;
+                }
+                add(points, new Request(xyr[0], xyr[1], xyr[2]));
+            }
+            p = pointEnd + 1;
+        }
+        if (points.isEmpty()) {
+            throw new ValidationException("Пустой список точек");
+        }
+        return points;
+    }
+
+    private static void add(List<Request> points, Request point) throws ValidationException {
+        if (points.size() == MAX_POINTS) {
+            throw new ValidationException("Не больше " + MAX_POINTS + " точек в одном запросе");
+        }
+        points.add(point);
+    }
+
+    private List<Request> points() throws ValidationException {
+        expect('[');
+        List<Request> points = new ArrayList<>();
+        skipSpace();
+        if (peek() == ']') {
+            pos++;
+            throw new ValidationException("Пустой список точек");
+        }
+        for (;;) {
+            skipSpace();
+            add(points, peek() == '[' ? tuple(points.size()) : object(points.size()));
+            skipSpace();
+            if (peek() == ']') {
+                pos++;
+                return points;
+            }
+            expect(',');
+        }
+    }
+
+    /**
+     * [x, y, r]
+     */
+    private Request tuple(int index) throws ValidationException {
+        expect('[');
+        float[] xyr = new float[3];
+        for (int i = 0; i < 3; i++) {
+            if (i > 0) {
+                expect(',');
+            }
+            xyr[i] = number("xyr".charAt(i));
+        }
+        skipSpace();
+        if (peek() != ']') {
+            throw new ValidationException("Точка " + index + ": нужно три числа x,y,r");
+        }
+        pos++;
+        return new Request(xyr[0], xyr[1], xyr[2]);
+    }
+
+    /**
+     * {"x": .., "y": .., "r": ..}; другие поля пропускаются
+     */
+    private Request object(int index) throws ValidationException {
+        expect('{');
+        float[] xyr = new float[3];
+        int found = 0;
+        skipSpace();
+        if (peek() == '}') {
+            pos++;
+        } else {
+            for (;;) {
+                skipSpace();
+                int keyStart = pos + 1;
+                skipString();
+                int keyLen = pos - 1 - keyStart;
+                int key = keyLen == 1 ? "xyr".indexOf(b[keyStart]) : -1;
+                expect(':');
+                if (key >= 0) {
+                    xyr[key] = number("xyr".charAt(key));
+                    found |= 1 << key;
+                } else {
+                    skipValue(0);
+                }
+                skipSpace();
+                if (peek() == '}') {
+                    pos++;
+                    break;
+                }
+                expect(',');
+            }
+        }
+        for (int key = 0; key < 3; key++) {
+            if ((found & 1 << key) == 0) {
+                throw new ValidationException("Точка " + index + ": не задан параметр " + "xyr".charAt(key));
+            }
+        }
+        return new Request(xyr[0], xyr[1], xyr[2]);
+    }
+
+    /**
+     * Число или строка с числом
+     */
+    private float number(char name) throws ValidationException {
+        skipSpace();
+        if (peek() == '"') {
+            int start = pos + 1;
+            skipString();
+            return FormDecoder.parseFloat(b, start, pos - 1, name);
+        }
+        int start = pos;
+        while (pos < end && isNumberChar(b[pos])) {
+            pos++;
+        }
+        if (pos == start) {
+            throw error();
+        }
+        return FormDecoder.parseFloat(b, start, pos, name);
+    }
+
+    private void skipValue(int depth) throws ValidationException {
+        if (depth > MAX_DEPTH) {
+            throw new ValidationException("Слишком глубокая вложенность JSON");
+        }
+        skipSpace();
+        int c = peek();
+        if (c == '"') {
+            skipString();
+        } else if (c == '[' || c == '{') {
+            int close = c == '[' ? ']' : '}';
+            pos++;
+            skipSpace();
+            if (peek() == close) {
+                pos++;
+                return;
+            }
+            for (;;) {
+                if (close == '}') {
+                    skipSpace();
+                    skipString();
+                    expect(':');
+                }
+                skipValue(depth + 1);
+                skipSpace();
+                if (peek() == close) {
+                    pos++;
+                    return;
+                }
+                expect(',');
+            }
+        } else {
+            // число, true, false или null
+            int start = pos;
+            while (pos < end && (isNumberChar(b[pos]) || (b[pos] >= 'a' && b[pos] <= 'z'))) {
+                pos++;
+            }
+            if (pos == start) {
+                throw error();
+            }
+        }
+    }
+
+    /**
+     * Пропускает строку в кавычках вместе с экранированными символами
+     */
+    private void skipString() throws ValidationException {
+        if (peek() != '"') {
+            throw error();
+        }
+        for (pos++; pos < end; pos++) {
+            if (b[pos] == '\\') {
+                pos++;
+            } else if (b[pos] == '"') {
+                pos++;
+                return;
+            }
+        }
+        throw error();
+    }
+
+    private void expect(char c) throws ValidationException {
+        skipSpace();
+        if (peek() != c) {
+            throw error();
+        }
+        pos++;
+    }
+
+    private int peek() {
+        return pos < end ? b[pos] : -1;
+    }
+
+    private void skipSpace() {
+        while (pos < end && (b[pos] == ' ' || b[pos] == '\n' || b[pos] == '\r' || b[pos] == '\t')) {
+            pos++;
+        }
+    }
+
+    private static boolean isNumberChar(byte c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+    }
+
+    private ValidationException error() {
+        return new ValidationException("Некорректный JSON в позиции " + (pos - off));
+    }
+}
@@ -0,0 +1,51 @@
+package ru.itmo.se.web.fastcgi.model;
+
+import ru.itmo.se.web.fastcgi.util.CachedClock;
+import ru.itmo.se.web.fastcgi.util.JsonWriter;
+
+/**
+ * Ответ на пакетный запрос: одно время на все точки и результат каждой точки по порядку.
+ * Для точки, не прошедшей проверку, в results стоит null, а причина — в errors
+ */
+public class BatchResponse {
+    /**
+     * Время проверки всех точек вместе
+     */
+    private final long time;
+    private final CachedClock.Stamp now;
+    private final boolean[] results;
+    private final String[] errors;
+
+    public BatchResponse(long time, CachedClock.Stamp now, boolean[] results, String[] errors) {
+        this.time = time;
+        this.now = now;
+        this.results = results;
+        this.errors = errors;
+    }
+
+    public void writeJson(JsonWriter json) {
+        int hits = 0;
+        json.beginObject()
+                .name("time").quoted(time)
+                .name("now").value(now)
+                .name("count").value(results.length)
+                .name("results").beginArray();
+        for (int i = 0; i < results.length; i++) {
+            if (errors[i] != null) {
+                json.value((String) null);
+            } else {
+                json.value(results[i]);
+                hits += results[i] ? 1 : 0;
+            }
+        }
+        json.endArray()
+                .name("hits").value(hits)
+                .name("errors").beginArray();
+        for (int i = 0; i < errors.length; i++) {
+            if (errors[i] != null) {
+                json.beginObject().name("index").value(i).name("reason").value(errors[i]).endObject();
+            }
+        }
+        json.endArray().endObject();
+    }
+}
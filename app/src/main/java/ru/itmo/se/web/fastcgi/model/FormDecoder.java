@@ -0,0 +1,230 @@
+package ru.itmo.se.web.fastcgi.model;
+
+import ru.itmo.se.web.fastcgi.exception.ValidationException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Разбор application/x-www-form-urlencoded (тела POST или QUERY_STRING) за один проход по байтам:
+ * %-последовательности и '+' декодируются на месте, из пар берутся только x, y и r,
+ * числа читаются прямо из байтов. Остальные параметры пропускаются не декодируя.
+ * Если параметр повторяется, действует последнее значение, как раньше, и ошибки
+ * в перекрытых значениях не важны
+ */
+public final class FormDecoder {
+    private static final float[] POW10 = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+    // столько значащих цифр float представляет точно
+    private static final int MAX_FAST_DIGITS = 7;
+    private static final String NAMES = "xyr";
+
+    private FormDecoder() {
+    }
+
+    /**
+     * Разбирает b[off, off + len); содержимое массива при этом портится декодированием на месте
+     */
+    public static Request decode(byte[] b, int off, int len) throws ValidationException {
+        if (len <= 0) {
+            throw new ValidationException("Missing query string");
+        }
+        // где лежит последнее значение каждого параметра, ещё не декодированное; -1 — параметра не было
+        int[] starts = {-1, -1, -1};
+        int[] ends = new int[3];
+        int end = off + len;
+        for (int p = off; p < end; ) {
+            int pairEnd = indexOf(b, p, end, '&');
+            int eq = indexOf(b, p, pairEnd, '=');
+            int key = key(b, p, eq);
+            if (key >= 0) {
+                // как и раньше, значение кончается на следующем '='
+                int valueStart = Math.min(eq + 1, pairEnd);
+                starts[key] = valueStart;
+                ends[key] = indexOf(b, valueStart, pairEnd, '=');
+            }
+            p = pairEnd + 1;
+        }
+        // декодируются только действующие значения: ошибки в перекрытых и чужих параметрах не важны
+        for (int key = 0; key < 3; key++) {
+            if (starts[key] >= 0) {
+                ends[key] = percentDecode(b, starts[key], ends[key], off);
+            }
+        }
+        float[] values = new float[3];
+        for (int key = 0; key < 3; key++) {
+            char name = NAMES.charAt(key);
+            if (starts[key] < 0) {
+                throw new ValidationException("Не задан параметр " + name);
+            }
+            if (ends[key] == starts[key]) {
+                throw new ValidationException("Параметр " + name + " задан без значения");
+            }
+            values[key] = parseFloat(b, starts[key], ends[key], name);
+        }
+        return new Request(values[0], values[1], values[2]);
+    }
+
+    /**
+     * Последнее значение параметра name из строки запроса или null. Для редких строковых параметров
+     * вроде area, которые decode пропускает
+     */
+    public static String param(String query, String name) throws ValidationException {
+        if (query == null) {
+            return null;
+        }
+        String value = null;
+        for (int p = 0; p < query.length(); ) {
+            int pairEnd = query.indexOf('&', p);
+            if (pairEnd < 0) {
+                pairEnd = query.length();
+            }
+            int valueStart = p + name.length() + 1;
+            if (valueStart <= pairEnd && query.startsWith(name, p) && query.charAt(valueStart - 1) == '=') {
+                byte[] b = query.substring(valueStart, pairEnd).getBytes(StandardCharsets.UTF_8);
+                value = new String(b, 0, percentDecode(b, 0, b.length, -valueStart), StandardCharsets.UTF_8);
+            }
+            p = pairEnd + 1;
+        }
+        return value;
+    }
+
+    /**
+     * Какой из x, y, r называет ключ b[from, to), или -1. Ключ не декодируется: одну букву дают
+     * только сама буква или %-последовательность из трёх байт, а в остальных ключах
+     * некорректные %-последовательности ни на что не влияют
+     */
+    private static int key(byte[] b, int from, int to) {
+        if (to - from == 1) {
+            return NAMES.indexOf(b[from]);
+        }
+        if (to - from == 3 && b[from] == '%') {
+            int hi = Character.digit(b[from + 1], 16);
+            int lo = Character.digit(b[from + 2], 16);
+            return hi < 0 || lo < 0 ? -1 : NAMES.indexOf(hi << 4 | lo);
+        }
+        return -1;
+    }
+
+    /**
+     * Декодирует b[from, to) на месте и возвращает новый конец
+     */
+    static int percentDecode(byte[] b, int from, int to, int base) throws ValidationException {
+        int w = from;
+        for (int i = from; i < to; i++) {
+            byte c = b[i];
+            if (c == '+') {
+                c = ' ';
+            } else if (c == '%') {
+                int hi = i + 2 < to ? Character.digit(b[i + 1], 16) : -1;
+                int lo = hi >= 0 ? Character.digit(b[i + 2], 16) : -1;
+                if (lo < 0) {
+                    throw new ValidationException("Некорректная %-последовательность в позиции " + (i - base));
+                }
+                c = (byte) (hi << 4 | lo);
+                i += 2;
+            }
+            b[w++] = c;
+        }
+        return w;
+    }
+
+    /**
+     * Обычные десятичные записи до 7 значащих цифр и порядка 10 считаются одним умножением
+     * или делением float, что даёт то же округление, что и Float.parseFloat.
+     * Всё остальное (пробелы, экспоненты побольше, NaN, суффиксы f/d) разбирает сам Float.parseFloat
+     */
+    static float parseFloat(byte[] b, int from, int to, char name) throws ValidationException {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (b[i] == '-' || b[i] == '+')) {
+            negative = b[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exp = 0;
+        boolean anyDigit = false;
+        boolean dot = false;
+        boolean fast = true;
+        for (; i < to; i++) {
+            int c = b[i];
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (mantissa == 0 && c == '0') {
+                    // ведущие нули не значащие
+                    if (dot) {
+                        exp--;
+                    }
+                    continue;
+                }
+                if (++digits > MAX_FAST_DIGITS) {
+                    fast = false;
+                    break;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (dot) {
+                    exp--;
+                }
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else if ((c == 'e' || c == 'E') && anyDigit) {
+                int e = parseExponent(b, i + 1, to);
+                if (e == Integer.MIN_VALUE) {
+                    fast = false;
+                } else {
+                    exp += e;
+                    i = to;
+                }
+                break;
+            } else {
+                fast = false;
+                break;
+            }
+        }
+        if (fast && anyDigit) {
+            if (mantissa == 0) {
+                return negative ? -0.0f : 0.0f;
+            }
+            if (exp >= -10 && exp <= 10) {
+                float value = exp >= 0 ? (float) mantissa * POW10[exp] : (float) mantissa / POW10[-exp];
+                return negative ? -value : value;
+            }
+        }
+        try {
+            return Float.parseFloat(new String(b, from, to - from, StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            throw new ValidationException("Параметр " + name + " должен быть числом");
+        }
+    }
+
+    /**
+     * Порядок после e: знак и цифры до конца; Integer.MIN_VALUE, если запись другая или слишком длинная
+     */
+    private static int parseExponent(byte[] b, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (b[i] == '-' || b[i] == '+')) {
+            negative = b[i] == '-';
+            i++;
+        }
+        if (i == to || to - i > 3) {
+            return Integer.MIN_VALUE;
+        }
+        int e = 0;
+        for (; i < to; i++) {
+            if (b[i] < '0' || b[i] > '9') {
+                return Integer.MIN_VALUE;
+            }
+            e = e * 10 + (b[i] - '0');
+        }
+        return negative ? -e : e;
+    }
+
+    static int indexOf(byte[] b, int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+}
@@ -2,12 +2,7 @@ package ru.itmo.se.web.fastcgi.model;
 
 import ru.itmo.se.web.fastcgi.exception.ValidationException;
 
-import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.HashMap;
 
 /**
  * Класс получения и обработки запроса
@@ -31,21 +26,14 @@ public class Request {
         if (query == null || query.isEmpty()) {
             throw new ValidationException("Missing query string");
         }
-        Map<String, String> params = Arrays.stream(query.split("&"))
-                .map(pair -> pair.split("="))
-                .collect(Collectors.toMap(
-                        pair -> URLDecoder.decode(pair[0], StandardCharsets.UTF_8),
-                        pair -> URLDecoder.decode(pair[1], StandardCharsets.UTF_8),
-                        (a, b) -> b,
-                        HashMap::new
-                ));
-        try {
-            float x = Float.parseFloat(params.get("x"));
-            float y = Float.parseFloat(params.get("y"));
-            float r = Float.parseFloat(params.get("r"));
-            return new Request(x, y, r);
-        } catch (Exception e) {
-            throw new ValidationException("Некорректные параметры! Вводите числа!");
-        }
+        byte[] bytes = query.getBytes(StandardCharsets.UTF_8);
+        return FormDecoder.decode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Тело application/x-www-form-urlencoded как есть, без перевода в строку; массив портится
+     */
+    public static Request fromForm(byte[] body, int off, int len) throws ValidationException {
+        return FormDecoder.decode(body, off, len);
     }
 }
@@ -1,6 +1,7 @@
 package ru.itmo.se.web.fastcgi.model;
 
-import java.time.LocalDateTime;
+import ru.itmo.se.web.fastcgi.util.CachedClock;
+import ru.itmo.se.web.fastcgi.util.JsonWriter;
 
 /**
  * Класс для формирования ответа
@@ -10,10 +11,10 @@ public class Response {
      * Это время выполнения обработки
      */
     private final long time;
-    private final LocalDateTime now;
+    private final CachedClock.Stamp now;
     private final boolean result;
 
-    public Response(long time, LocalDateTime now, boolean result) {
+    public Response(long time, CachedClock.Stamp now, boolean result) {
         this.time = time;
         this.now = now;
         this.result = result;
@@ -23,22 +24,18 @@ public class Response {
         return new Response(attempt.getExecTimeNanos(), attempt.getNow(), attempt.isResult());
     }
 
-    public String toJson() {
-        return String.format("""
-                {
-                    "time": "%d",
-                    "now": "%s",
-                    "result": %b
-                }
-                """, time, now, result);
+    public void writeJson(JsonWriter json) {
+        json.beginObject()
+                .name("time").quoted(time)
+                .name("now").value(now)
+                .name("result").value(result)
+                .endObject();
     }
 
-    public static String errorJson(LocalDateTime now, String reason) {
-        return String.format("""
-                {
-                    "now": "%s",
-                    "reason": "%s"
-                }
-                """, now, reason.replace("\"", "\\\""));
+    public static void writeErrorJson(JsonWriter json, CachedClock.Stamp now, String reason) {
+        json.beginObject()
+                .name("now").value(now)
+                .name("reason").value(reason)
+                .endObject();
     }
 }
@@ -7,12 +7,20 @@ import java.util.Collections;
 import java.util.List;
 
 /**
- * Класс для базы данных, пока не нужен, но пусть будет
+ * Класс для базы данных, пока не нужен, но пусть будет.
+ * Запросы обрабатываются параллельно, поэтому список синхронизированный
  */
 public class Repository {
-    private final List<AttemptResult> attempts = new ArrayList<>();
+    private final List<AttemptResult> attempts = Collections.synchronizedList(new ArrayList<>());
 
     public void save(AttemptResult attempt) {
         attempts.add(attempt);
     }
+
+    /**
+     * Все попытки пакета разом, под одной блокировкой
+     */
+    public void saveAll(List<AttemptResult> batch) {
+        attempts.addAll(batch);
+    }
 }
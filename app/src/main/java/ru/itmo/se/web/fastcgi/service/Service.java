@@ -1,15 +1,23 @@
 package ru.itmo.se.web.fastcgi.service;
 
+import ru.itmo.se.web.fastcgi.area.AreaEngine;
+import ru.itmo.se.web.fastcgi.area.AreaPredicate;
+import ru.itmo.se.web.fastcgi.area.Areas;
+import ru.itmo.se.web.fastcgi.exception.RequestCancelledException;
 import ru.itmo.se.web.fastcgi.exception.ValidationException;
 import ru.itmo.se.web.fastcgi.model.AttemptResult;
+import ru.itmo.se.web.fastcgi.model.BatchResponse;
 import ru.itmo.se.web.fastcgi.model.Request;
 import ru.itmo.se.web.fastcgi.model.Response;
 import ru.itmo.se.web.fastcgi.model.repository.Repository;
+import ru.itmo.se.web.fastcgi.util.CachedClock;
 import ru.itmo.se.web.fastcgi.validation.Validator;
 
 import java.time.Instant;
-import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
 
 /**
  * Основная логика
@@ -17,18 +25,28 @@ import java.time.temporal.ChronoUnit;
 public class    Service {
     private final Repository repository = new Repository();
     private final Validator validator = new Validator();
+    private final AreaEngine engine = AreaEngine.best();
+    private final Areas areas = Areas.load();
 
-    public Response process(Request request) throws ValidationException {
+    /**
+     * Проверка одной точки с проверкой отмены между шагами: отменённый запрос не считается и не сохраняется.
+     * area — имя варианта из Areas, null — встроенная область
+     */
+    public Response process(Request request, String area, BooleanSupplier cancelled)
+            throws ValidationException, RequestCancelledException {
+        AreaPredicate predicate = predicate(area);
         validator.validate(request);
+        checkCancelled(cancelled);
 
         Instant start = Instant.now();
-        boolean result = calculate(request.getX(), request.getY(), request.getR());
+        boolean result = predicate.contains(request.getX(), request.getY(), request.getR());
         Instant end = Instant.now();
+        checkCancelled(cancelled);
 
         AttemptResult attempt = new AttemptResult(
                 request.getX(), request.getY(), request.getR(),
                 ChronoUnit.NANOS.between(start, end),
-                LocalDateTime.now(),
+                CachedClock.now(),
                 result
         );
 
@@ -37,10 +55,82 @@ public class    Service {
         return Response.fromAttempt(attempt);
     }
 
-    private boolean calculate(float x, float y, float r) {
-        if (x >= 0 && y >= 0 && x <= r && y <= r) return true;
-        if (x <= 0 && y >= 0 && Math.abs(x) + y <= r) return true;
-        if (x <= 0 && y <= 0 && x * x + y * y <= r * r) return true;
-        return false;
+    /**
+     * Пакет точек: каждая проверяется отдельно, непрошедшие проверку не считаются и не сохраняются,
+     * время меряется одно на весь пакет, а попытки сохраняются одним вызовом
+     */
+    public BatchResponse processBatch(List<Request> requests, String area, BooleanSupplier cancelled)
+            throws ValidationException, RequestCancelledException {
+        AreaPredicate predicate = predicate(area);
+        int n = requests.size();
+        boolean[] results = new boolean[n];
+        String[] errors = new String[n];
+        int valid = 0;
+        for (int i = 0; i < n; i++) {
+            try {
+                validator.validate(requests.get(i));
+                valid++;
+            } catch (ValidationException e) {
+                errors[i] = e.getMessage();
+            }
+        }
+        checkCancelled(cancelled);
+
+        // прошедшие проверку точки подряд в массивах, чтобы engine считал их целыми векторами
+        float[] xs = new float[valid];
+        float[] ys = new float[valid];
+        float[] rs = new float[valid];
+        boolean[] hits = new boolean[valid];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (errors[i] == null) {
+                Request request = requests.get(i);
+                xs[j] = request.getX();
+                ys[j] = request.getY();
+                rs[j++] = request.getR();
+            }
+        }
+
+        long start = System.nanoTime();
+        if (predicate == Areas.BUILTIN) {
+            engine.evaluate(xs, ys, rs, hits, valid);
+        } else {
+            predicate.evaluate(xs, ys, rs, hits, valid);
+        }
+        long time = System.nanoTime() - start;
+        for (int i = 0, j = 0; i < n; i++) {
+            if (errors[i] == null) {
+                results[i] = hits[j++];
+            }
+        }
+        checkCancelled(cancelled);
+
+        CachedClock.Stamp now = CachedClock.now();
+        // у каждой попытки пакета своя доля общего времени
+        long share = valid == 0 ? 0 : time / valid;
+        List<AttemptResult> attempts = new ArrayList<>(valid);
+        for (int i = 0; i < n; i++) {
+            if (errors[i] == null) {
+                Request request = requests.get(i);
+                attempts.add(new AttemptResult(request.getX(), request.getY(), request.getR(),
+                        share, now, results[i]));
+            }
+        }
+        repository.saveAll(attempts);
+
+        return new BatchResponse(time, now, results, errors);
+    }
+
+    private static void checkCancelled(BooleanSupplier cancelled) throws RequestCancelledException {
+        if (cancelled.getAsBoolean()) {
+            throw new RequestCancelledException("Request cancelled");
+        }
+    }
+
+    private AreaPredicate predicate(String area) throws ValidationException {
+        AreaPredicate predicate = areas.get(area);
+        if (predicate == null) {
+            throw new ValidationException("Неизвестная область " + area + ", есть: " + areas.names());
+        }
+        return predicate;
     }
 }
@@ -0,0 +1,82 @@
+package ru.itmo.se.web.fastcgi.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+
+/**
+ * Часы с точностью до миллисекунды: текст ISO-8601 (локальное время, как LocalDateTime.toString())
+ * строится не чаще раза в миллисекунду, все запросы этой миллисекунды получают одну и ту же метку
+ */
+public final class CachedClock {
+    private static final ZoneRules RULES = ZoneId.systemDefault().getRules();
+
+    private static volatile Stamp last = render(System.currentTimeMillis());
+
+    private CachedClock() {
+    }
+
+    /**
+     * Метка времени: миллисекунды эпохи и их текст вида 2024-10-18T17:33:10.890
+     */
+    public static final class Stamp {
+        private final long millis;
+        final byte[] iso;
+
+        private Stamp(long millis, byte[] iso) {
+            this.millis = millis;
+            this.iso = iso;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return new String(iso, StandardCharsets.US_ASCII);
+        }
+    }
+
+    public static Stamp now() {
+        long millis = System.currentTimeMillis();
+        Stamp stamp = last;
+        if (stamp.millis != millis) {
+            // гонка двух потоков безвредна: оба построят одинаковый текст
+            stamp = render(millis);
+            last = stamp;
+        }
+        return stamp;
+    }
+
+    private static Stamp render(long millis) {
+        ZoneOffset offset = RULES.getOffset(Instant.ofEpochMilli(millis));
+        LocalDateTime t = LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000),
+                Math.floorMod(millis, 1000) * 1_000_000, offset);
+        byte[] iso = new byte[23];
+        digits(iso, 0, t.getYear(), 4);
+        iso[4] = '-';
+        digits(iso, 5, t.getMonthValue(), 2);
+        iso[7] = '-';
+        digits(iso, 8, t.getDayOfMonth(), 2);
+        iso[10] = 'T';
+        digits(iso, 11, t.getHour(), 2);
+        iso[13] = ':';
+        digits(iso, 14, t.getMinute(), 2);
+        iso[16] = ':';
+        digits(iso, 17, t.getSecond(), 2);
+        iso[19] = '.';
+        digits(iso, 20, Math.floorMod(millis, 1000), 3);
+        return new Stamp(millis, iso);
+    }
+
+    private static void digits(byte[] b, int off, int value, int width) {
+        for (int i = off + width - 1; i >= off; i--) {
+            b[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package ru.itmo.se.web.fastcgi.util;
+
+import java.util.Arrays;
+
+/**
+ * Потоковая запись JSON сразу в байты UTF-8, без промежуточных строк.
+ * Буфер переиспользуется: local() отдаёт очищенный писатель текущего потока,
+ * готовый текст берётся из array() и length()
+ */
+public final class JsonWriter {
+    private static final int INITIAL_SIZE = 512;
+    // больше этого буфер между запросами не держим
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final ThreadLocal<JsonWriter> LOCAL = ThreadLocal.withInitial(JsonWriter::new);
+
+    private byte[] buf = new byte[INITIAL_SIZE];
+    private int count;
+    // бит на уровень вложенности: в этом объекте/массиве уже есть элемент, нужна запятая
+    private long hasElement;
+    private int depth;
+
+    public static JsonWriter local() {
+        JsonWriter writer = LOCAL.get();
+        writer.reset();
+        return writer;
+    }
+
+    public void reset() {
+        if (buf.length > MAX_RETAINED_SIZE) {
+            buf = new byte[INITIAL_SIZE];
+        }
+        count = 0;
+        hasElement = 0;
+        depth = 0;
+    }
+
+    public byte[] array() {
+        return buf;
+    }
+
+    public int length() {
+        return count;
+    }
+
+    public JsonWriter beginObject() {
+        return open('{');
+    }
+
+    public JsonWriter endObject() {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() {
+        return open('[');
+    }
+
+    public JsonWriter endArray() {
+        return close(']');
+    }
+
+    /**
+     * Имя поля; за ним должно идти значение
+     */
+    public JsonWriter name(String name) {
+        separator();
+        string(name);
+        put((byte) ':');
+        // значение после имени не отделяется запятой
+        hasElement &= ~(1L << depth);
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        separator();
+        if (value == null) {
+            ascii("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        separator();
+        number(value);
+        return this;
+    }
+
+    /**
+     * Число в кавычках, как поле time в ответе
+     */
+    public JsonWriter quoted(long value) {
+        separator();
+        put((byte) '"');
+        number(value);
+        put((byte) '"');
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        separator();
+        ascii(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter value(float value) {
+        separator();
+        if (Float.isFinite(value)) {
+            ascii(Float.toString(value));
+        } else {
+            ascii("null");
+        }
+        return this;
+    }
+
+    public JsonWriter value(CachedClock.Stamp stamp) {
+        separator();
+        put((byte) '"');
+        put(stamp.iso, 0, stamp.iso.length);
+        put((byte) '"');
+        return this;
+    }
+
+    private JsonWriter open(char bracket) {
+        separator();
+        put((byte) bracket);
+        depth++;
+        hasElement &= ~(1L << depth);
+        return this;
+    }
+
+    private JsonWriter close(char bracket) {
+        depth--;
+        put((byte) bracket);
+        return this;
+    }
+
+    private void separator() {
+        long bit = 1L << depth;
+        if ((hasElement & bit) != 0) {
+            put((byte) ',');
+        }
+        hasElement |= bit;
+    }
+
+    private void number(long value) {
+        if (value == Long.MIN_VALUE) {
+            ascii("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            put((byte) '-');
+            value = -value;
+        }
+        int len = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            len++;
+        }
+        ensure(len);
+        for (int i = count + len - 1; i >= count; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        count += len;
+    }
+
+    /**
+     * Строка в кавычках, с экранированием и кодированием в UTF-8 на лету
+     */
+    private void string(String s) {
+        ensure(s.length() + 2);
+        buf[count++] = '"';
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                ensure(1);
+                buf[count++] = (byte) c;
+            } else if (c == '"' || c == '\\') {
+                ensure(2);
+                buf[count++] = '\\';
+                buf[count++] = (byte) c;
+            } else if (c < 0x20) {
+                escapeControl(c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buf[count++] = (byte) (0xc0 | c >> 6);
+                buf[count++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensure(4);
+                buf[count++] = (byte) (0xf0 | cp >> 18);
+                buf[count++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                buf[count++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                buf[count++] = (byte) (0x80 | cp & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                // одиночная половина суррогатной пары, как String.getBytes()
+                ensure(1);
+                buf[count++] = '?';
+            } else {
+                ensure(3);
+                buf[count++] = (byte) (0xe0 | c >> 12);
+                buf[count++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buf[count++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        ensure(1);
+        buf[count++] = '"';
+    }
+
+    private void escapeControl(char c) {
+        ensure(6);
+        buf[count++] = '\\';
+        switch (c) {
+            case '\n' -> buf[count++] = 'n';
+            case '\r' -> buf[count++] = 'r';
+            case '\t' -> buf[count++] = 't';
+            case '\b' -> buf[count++] = 'b';
+            case '\f' -> buf[count++] = 'f';
+            default -> {
+                buf[count++] = 'u';
+                buf[count++] = '0';
+                buf[count++] = '0';
+                buf[count++] = HEX[c >> 4];
+                buf[count++] = HEX[c & 0xf];
+            }
+        }
+    }
+
+    private void ascii(String s) {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        buf[count++] = b;
+    }
+
+    private void put(byte[] b, int off, int len) {
+        ensure(len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    private void ensure(int n) {
+        if (count + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+        }
+    }
+}
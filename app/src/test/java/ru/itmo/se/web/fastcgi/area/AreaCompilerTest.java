@@ -0,0 +1,290 @@
+package ru.itmo.se.web.fastcgi.area;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Разбор описаний AreaCompiler, каждая фигура по отдельности, запас ограничивающего прямоугольника,
+ * ошибки при некорректном описании и совпадение варианта standard из areas.properties с Area.contains
+ */
+class AreaCompilerTest {
+    private static final long SEED = 20261019L;
+    private static final float[] RADII = {1, 1.5f, 2, 2.5f, 3, 3.5f, 4, 0.1f, 0.7f, 1.1f, 3.3f, 1e-3f, 1e6f};
+
+    private final Areas areas = Areas.load();
+    private final AreaPredicate standard = areas.get("standard");
+
+    @Test
+    void areasPropertiesDefinesTheVariants() {
+        assertTrue(areas.names().containsAll(List.of("standard", "v2", "v3")));
+        assertSame(Areas.BUILTIN, areas.get(null));
+        assertSame(Areas.BUILTIN, areas.get(""));
+        assertNull(areas.get("v99"));
+    }
+
+    @Test
+    void standardMatchesAreaOnAGrid() {
+        for (float r : RADII) {
+            for (int i = -48; i <= 48; i++) {
+                for (int j = -48; j <= 48; j++) {
+                    check(i / 32f * r, j / 32f * r, r);
+                    check(i / 10f, j / 10f, r);
+                }
+            }
+        }
+    }
+
+    @Test
+    void standardMatchesAreaOnTheCircle() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < 500_000; i++) {
+            float r = radius(random);
+            double angle = random.nextDouble() * 2 * Math.PI;
+            float x = (float) (r * Math.cos(angle));
+            float y = (float) (r * Math.sin(angle));
+            checkAround(x, y, r);
+        }
+    }
+
+    @Test
+    void standardMatchesAreaOnTheEdges() {
+        Random random = new Random(SEED + 1);
+        for (int i = 0; i < 500_000; i++) {
+            float r = radius(random);
+            float t = random.nextFloat() * 1.2f - 0.1f;
+            switch (random.nextInt(5)) {
+                // стороны квадрата
+                case 0 -> checkAround(r, t * r, r);
+                case 1 -> checkAround(t * r, r, r);
+                // гипотенуза треугольника |x| + y = r
+                case 2 -> checkAround(-t * r, r - t * r, r);
+                // оси
+                case 3 -> checkAround(0f, (t * 2 - 1) * r, r);
+                default -> checkAround((t * 2 - 1) * r, 0f, r);
+            }
+        }
+    }
+
+    @Test
+    void standardMatchesAreaOnSpecialValues() {
+        float[] values = {0f, -0f, Float.MIN_VALUE, -Float.MIN_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE,
+                Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NaN, 1f, -1f, Math.nextUp(1f),
+                Math.nextDown(-1f)};
+        for (float r : RADII) {
+            for (float x : values) {
+                for (float y : values) {
+                    check(x, y, r);
+                }
+            }
+        }
+    }
+
+    @Test
+    void rect() {
+        AreaPredicate p = AreaCompiler.compile("rect 2 1 0 0");
+        assertTrue(p.contains(1, 0.5f, 1));
+        assertTrue(p.contains(0, 0, 1));
+        assertTrue(p.contains(2, 1, 1));
+        assertTrue(p.contains(4, 2, 2));
+        assertFalse(p.contains(2.01f, 0.5f, 1));
+        assertFalse(p.contains(1, -0.01f, 1));
+        assertFalse(p.contains(4.01f, 2, 2));
+    }
+
+    @Test
+    void triangleInEitherVertexOrder() {
+        for (String definition : new String[]{"triangle 0 0 1 0 0 1", "triangle 0 0 0 1 1 0"}) {
+            AreaPredicate p = AreaCompiler.compile(definition);
+            assertTrue(p.contains(0.25f, 0.25f, 1), definition);
+            assertTrue(p.contains(0.5f, 0.5f, 1), definition);
+            assertTrue(p.contains(1, 1, 2), definition);
+            assertFalse(p.contains(0.51f, 0.5f, 1), definition);
+            assertFalse(p.contains(-0.01f, 0.5f, 1), definition);
+            assertFalse(p.contains(0.5f, -0.01f, 1), definition);
+        }
+    }
+
+    @Test
+    void polygonWithFourAndMoreVertices() {
+        AreaPredicate diamond = AreaCompiler.compile("polygon 1 0 0 1 -1 0 0 -1");
+        assertTrue(diamond.contains(0, 0, 1));
+        assertTrue(diamond.contains(0.5f, 0.5f, 1));
+        assertTrue(diamond.contains(-0.5f, -0.5f, 1));
+        assertFalse(diamond.contains(0.6f, 0.5f, 1));
+        assertFalse(diamond.contains(-0.5f, 0.6f, 1));
+
+        // шестиугольник идёт через цикл по сторонам, а не развёрнутую лямбду
+        AreaPredicate hexagon = AreaCompiler.compile("polygon 2 0 1 1.5 -1 1.5 -2 0 -1 -1.5 1 -1.5");
+        assertTrue(hexagon.contains(0, 0, 1));
+        assertTrue(hexagon.contains(0, 1.5f, 1));
+        assertTrue(hexagon.contains(1.5f, 0.75f, 1));
+        assertTrue(hexagon.contains(-2, 0, 1));
+        assertFalse(hexagon.contains(0, 1.51f, 1));
+        assertFalse(hexagon.contains(1.6f, 0.75f, 1));
+        assertFalse(hexagon.contains(-2.01f, 0, 1));
+    }
+
+    @Test
+    void sectorInEachQuadrant() {
+        float[][] signs = {{1, 1}, {-1, 1}, {-1, -1}, {1, -1}};
+        for (int q = 1; q <= 4; q++) {
+            float sx = signs[q - 1][0];
+            float sy = signs[q - 1][1];
+            AreaPredicate p = AreaCompiler.compile("sector " + q + " 2");
+            String s = "sector " + q;
+            assertTrue(p.contains(sx * 2, 0, 1), s);
+            assertTrue(p.contains(0, sy * 2, 1), s);
+            assertTrue(p.contains(sx * 1.4f, sy * 1.4f, 1), s);
+            assertTrue(p.contains(sx * 2.8f, sy * 2.8f, 2), s);
+            assertFalse(p.contains(sx * 1.5f, sy * 1.5f, 1), s);
+            assertFalse(p.contains(-sx * 0.1f, sy * 0.1f, 1), s);
+            assertFalse(p.contains(sx * 0.1f, -sy * 0.1f, 1), s);
+        }
+        AreaPredicate unit = AreaCompiler.compile("sector 1");
+        assertTrue(unit.contains(1, 0, 1));
+        assertFalse(unit.contains(1.01f, 0, 1));
+    }
+
+    @Test
+    void moreThanThreeShapes() {
+        AreaPredicate p = AreaCompiler.compile("rect 0 0 1 1; rect 2 0 3 1; rect 4 0 5 1; rect 6 0 7 1; rect 8 0 9 1");
+        for (int i = 0; i < 5; i++) {
+            assertTrue(p.contains(2 * i + 0.5f, 0.5f, 1), "rect " + i);
+            assertFalse(p.contains(2 * i + 1.5f, 0.5f, 1), "gap " + i);
+        }
+    }
+
+    /**
+     * Точки на границах фигур лежат на краю ограничивающего прямоугольника и не должны им отсекаться;
+     * точки за запасом в 1/1024 размера отсекаются
+     */
+    @Test
+    void boundingBoxKeepsBoundaryPoints() {
+        AreaPredicate p = AreaCompiler.compile("rect 0 0 1 1; sector 3 1");
+        for (float r : RADII) {
+            assertTrue(p.contains(r, r, r), "corner, r=" + r);
+            assertTrue(p.contains(-r, -0f, r), "circle on x, r=" + r);
+            assertTrue(p.contains(0f, -r, r), "circle on y, r=" + r);
+            assertFalse(p.contains(r * 1.01f, r, r), "past the box, r=" + r);
+        }
+        AreaPredicate far = AreaCompiler.compile("rect 100 100 101 101");
+        assertTrue(far.contains(101, 101, 1));
+        assertFalse(far.contains(101.01f, 101, 1));
+        assertFalse(far.contains(0, 0, 1));
+    }
+
+    /**
+     * Вершины, не представимые точно во float: полуплоскости принимают точки на ulp за вершиной,
+     * и без запаса ограничивающий прямоугольник их бы отсекал. Та же фигура рядом с двумя далёкими
+     * прямоугольниками получает огромный прямоугольник и служит эталоном
+     */
+    @Test
+    void boundingBoxKeepsWhatTheShapeAccepts() {
+        String[] definitions = {"triangle 0 0 0.3 0.1 0.1 0.7", "triangle -0.3 -0.7 0.9 -0.1 0.2 0.3",
+                "polygon 0.1 0 0.7 0.3 0.3 0.9 -0.3 0.6", "sector 3 0.3"};
+        Random random = new Random(SEED + 2);
+        for (String definition : definitions) {
+            AreaPredicate boxed = AreaCompiler.compile(definition);
+            AreaPredicate unboxed = AreaCompiler.compile(
+                    definition + "; rect -1001 -1001 -1000 -1000; rect 1000 1000 1001 1001");
+            String[] words = definition.split(" ");
+            for (int i = 0; i < 200_000; i++) {
+                float r = radius(random);
+                float x;
+                float y;
+                if (words[0].equals("sector")) {
+                    x = -0.3f * r;
+                    y = random.nextBoolean() ? 0f : -0f;
+                } else {
+                    int v = random.nextInt((words.length - 1) / 2);
+                    x = Float.parseFloat(words[1 + 2 * v]) * r;
+                    y = Float.parseFloat(words[2 + 2 * v]) * r;
+                }
+                for (int s = random.nextInt(4); s > 0; s--) {
+                    x = random.nextBoolean() ? Math.nextUp(x) : Math.nextDown(x);
+                }
+                for (int s = random.nextInt(4); s > 0; s--) {
+                    y = random.nextBoolean() ? Math.nextUp(y) : Math.nextDown(y);
+                }
+                if (boxed.contains(x, y, r) != unboxed.contains(x, y, r)) {
+                    fail(definition + " at x=" + x + " y=" + y + " r=" + r);
+                }
+            }
+        }
+    }
+
+    @Test
+    void blankShapesAreSkipped() {
+        AreaPredicate p = AreaCompiler.compile(" ; RECT 0 0 1 1 ;; ");
+        assertTrue(p.contains(0.5f, 0.5f, 1));
+    }
+
+    @Test
+    void malformedDefinitions() {
+        assertError("", "no shapes");
+        assertError(" ; ", "no shapes");
+        assertError("circle 1", "unknown shape circle");
+        assertError("rect 0 0 1", "expected 4 numbers");
+        assertError("rect 0 0 1 one", "not a number: one");
+        assertError("rect 0 0 1 Infinity", "not a finite number: Infinity");
+        assertError("rect 0 0 0 1", "empty rectangle");
+        assertError("triangle 0 0 1 1 2 2", "empty polygon");
+        assertError("polygon 0 0 1 0", "expected at least 3 vertices");
+        assertError("polygon 0 0 2 0 1 0.5 2 2 0 2", "polygon is not convex");
+        assertError("sector 5", "quadrant must be 1, 2, 3 or 4");
+        assertError("sector 1 -1", "radius must be positive");
+        assertError("sector", "expected quadrant and optional radius");
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> AreaCompiler.compile("rect 0 0 1 1; sector 7"));
+        assertEquals("\"sector 7\": quadrant must be 1, 2, 3 or 4", e.getMessage());
+    }
+
+    @Test
+    void malformedLineFailsAtStartup() {
+        Properties props = new Properties();
+        props.setProperty("ok", "rect 0 0 1 1");
+        props.setProperty("broken", "rect 0 0 1 1; triangle 0 0 1");
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> Areas.fromProperties(props));
+        assertEquals("Area broken: \"triangle 0 0 1\": expected 6 numbers", e.getMessage());
+    }
+
+    private static void assertError(String definition, String message) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> AreaCompiler.compile(definition), definition);
+        assertTrue(e.getMessage().endsWith(message), definition + " gave " + e.getMessage());
+    }
+
+    private static float radius(Random random) {
+        return random.nextInt(4) == 0 ? random.nextFloat() * 10 + 1e-3f : (random.nextInt(7) + 2) / 2f;
+    }
+
+    /**
+     * Точка и соседние float по обе стороны от неё
+     */
+    private void checkAround(float x, float y, float r) {
+        check(x, y, r);
+        check(Math.nextUp(x), y, r);
+        check(Math.nextDown(x), y, r);
+        check(x, Math.nextUp(y), r);
+        check(x, Math.nextDown(y), r);
+    }
+
+    private void check(float x, float y, float r) {
+        boolean expected = Area.contains(x, y, r);
+        if (standard.contains(x, y, r) != expected) {
+            fail("standard at x=" + x + " y=" + y + " r=" + r + " gave " + !expected);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ru.itmo.se.web.fastcgi.area;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * VectorAreaEngine и ScalarAreaEngine против Area.contains точка в точку: случайные точки,
+ * точки на дуге, сторонах и осях, особые значения float, длины не кратные ширине вектора.
+ * Тесты запускаются с --add-modules jdk.incubator.vector (см. app/build.gradle.kts)
+ */
+class AreaEngineTest {
+    private static final long SEED = 20261018L;
+    private static final float[] SPECIAL = {
+            0f, -0f, 1f, -1f, 0.5f, -0.5f, 2f, -2f, 3f, -3f, 1.5f, -1.5f, 0.1f, -0.1f,
+            0.70710677f, -0.70710677f, 0.7071068f, -0.7071068f,
+            Math.nextUp(1f), Math.nextDown(1f), Math.nextUp(-1f), Math.nextDown(-1f),
+            Float.MIN_VALUE, -Float.MIN_VALUE, Float.MIN_NORMAL, -Float.MIN_NORMAL,
+            Float.MAX_VALUE, -Float.MAX_VALUE, 1e20f, -1e20f, 1e-20f, -1e-20f,
+            Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NaN};
+
+    private final List<AreaEngine> engines = List.of(new ScalarAreaEngine(), new VectorAreaEngine());
+
+    @Test
+    void bestIsTheVectorEngineWhenTheModuleIsThere() {
+        assertEquals(VectorAreaEngine.class, AreaEngine.best().getClass());
+    }
+
+    @Test
+    void specialValuesInEveryCombination() {
+        int n = SPECIAL.length * SPECIAL.length * SPECIAL.length;
+        Points points = new Points(n);
+        for (float x : SPECIAL) {
+            for (float y : SPECIAL) {
+                for (float r : SPECIAL) {
+                    points.add(x, y, r);
+                }
+            }
+        }
+        check(points);
+    }
+
+    @Test
+    void boundaryPoints() {
+        Random random = new Random(SEED);
+        Points points = new Points(400_000);
+        while (points.size < 400_000) {
+            float r = random.nextInt(8) == 0 ? random.nextFloat() * 5 + 1e-3f : random.nextInt(4) + 1;
+            float t = random.nextFloat();
+            float x;
+            float y;
+            switch (random.nextInt(6)) {
+                // дуга в третьей четверти и рядом с ней
+                case 0 -> {
+                    double angle = Math.PI + random.nextDouble() * Math.PI / 2;
+                    x = (float) (r * Math.cos(angle));
+                    y = (float) (r * Math.sin(angle));
+                }
+                // стороны квадрата x = r, y = r
+                case 1 -> {
+                    x = r;
+                    y = t * r;
+                }
+                case 2 -> {
+                    x = t * r;
+                    y = r;
+                }
+                // гипотенуза треугольника |x| + y = r
+                case 3 -> {
+                    x = -t * r;
+                    y = r - t * r;
+                }
+                // оси, в том числе -0.0
+                case 4 -> {
+                    x = random.nextBoolean() ? 0f : -0f;
+                    y = (t * 2 - 1) * r;
+                }
+                default -> {
+                    x = (t * 2 - 1) * r;
+                    y = random.nextBoolean() ? 0f : -0f;
+                }
+            }
+            // соседние float по обе стороны границы
+            switch (random.nextInt(3)) {
+                case 0 -> x = Math.nextUp(x);
+                case 1 -> y = Math.nextDown(y);
+                default -> {
+                }
+            }
+            points.add(x, y, r);
+        }
+        check(points);
+    }
+
+    @Test
+    void randomPointsOnAGrid() {
+        Random random = new Random(SEED + 1);
+        Points points = new Points(1_000_000);
+        while (points.size < 1_000_000) {
+            int r = random.nextInt(5) + 1;
+            if (random.nextBoolean()) {
+                points.add((random.nextInt(16 * r + 1) - 8 * r) / 8f, (random.nextInt(16 * r + 1) - 8 * r) / 8f, r);
+            } else {
+                points.add((random.nextFloat() * 2 - 1) * r * 1.2f, (random.nextFloat() * 2 - 1) * r * 1.2f,
+                        random.nextInt(10) == 0 ? random.nextFloat() * 5 : r);
+            }
+        }
+        check(points);
+    }
+
+    @Test
+    void lengthsThatAreNotAMultipleOfTheVector() {
+        Random random = new Random(SEED + 2);
+        for (int n = 0; n <= 200; n++) {
+            Points points = new Points(n);
+            for (int i = 0; i < n; i++) {
+                points.add(random.nextFloat() * 6 - 3, random.nextFloat() * 6 - 3, random.nextInt(4) + 1);
+            }
+            check(points);
+        }
+    }
+
+    /**
+     * Все движки дают то же, что Area.contains, и не трогают hits после n
+     */
+    private void check(Points points) {
+        int n = points.size;
+        for (AreaEngine engine : engines) {
+            boolean[] hits = new boolean[n + 3];
+            hits[n] = true;
+            hits[n + 2] = true;
+            engine.evaluate(points.xs, points.ys, points.rs, hits, n);
+            for (int i = 0; i < n; i++) {
+                boolean expected = Area.contains(points.xs[i], points.ys[i], points.rs[i]);
+                if (hits[i] != expected) {
+                    fail(engine.name() + " at " + i + " of " + n + ": x=" + points.xs[i] + " y=" + points.ys[i]
+                            + " r=" + points.rs[i] + " gave " + hits[i]);
+                }
+            }
+            if (!hits[n] || hits[n + 1] || !hits[n + 2]) {
+                fail(engine.name() + " wrote past n=" + n);
+            }
+        }
+    }
+
+    private static final class Points {
+        final float[] xs;
+        final float[] ys;
+        final float[] rs;
+        int size;
+
+        Points(int capacity) {
+            xs = new float[capacity];
+            ys = new float[capacity];
+            rs = new float[capacity];
+        }
+
+        void add(float x, float y, float r) {
+            xs[size] = x;
+            ys[size] = y;
+            rs[size++] = r;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package ru.itmo.se.web.fastcgi.http;
+
+import com.fastcgi.FCGIServerConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * HttpServer на настоящем сокете: ответы на испорченные запросы, keep-alive и конвейер.
+ * Обработчик возвращает PATH_INFO и длину тела
+ */
+class HttpServerTest {
+    private static final String SCRIPT = "/app";
+    private static final int TIMEOUT = 5000;
+
+    private HttpServer server;
+    private int port;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new HttpServer(new FCGIServerConfig(), 0, exchange -> {
+            byte[] body = exchange.getInputStream().readAllBytes();
+            String text = exchange.getParam("PATH_INFO", "") + " " + body.length;
+            exchange.getOutputStream().write(("Content-Type: text/plain\r\n\r\n"
+                    + text).getBytes(StandardCharsets.US_ASCII));
+        }, SCRIPT, null);
+        server.serveInBackground();
+        port = server.getLocalPort();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        server.close();
+    }
+
+    @Test
+    void malformedContentLengthIsAnsweredOnceAndCloses() throws IOException {
+        assertSingleErrorAndClose("GET /app HTTP/1.1\r\nHost: t\r\n"
+                + "Content-Length: abc\r\n\r\n");
+    }
+
+    @Test
+    void negativeContentLengthIsAnsweredOnceAndCloses() throws IOException {
+        assertSingleErrorAndClose("POST /app HTTP/1.1\r\nHost: t\r\n"
+                + "Content-Length: -5\r\n\r\nhello");
+    }
+
+    private void assertSingleErrorAndClose(String request) throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, request);
+            // сервер закрывает соединение после одного ответа, а не повторяет его
+            String all = readToEnd(socket, 64 * 1024);
+            List<String> responses = split(all);
+            assertEquals(1, responses.size(), all);
+            assertTrue(responses.get(0).startsWith("HTTP/1.1 400 "), all);
+            assertTrue(responses.get(0).contains("Connection: close\r\n"), all);
+        }
+    }
+
+    @Test
+    void keepAliveServesRequestsOneAfterAnother() throws IOException {
+        try (Socket socket = connect()) {
+            InputStream in = socket.getInputStream();
+            send(socket, "GET /app/one HTTP/1.1\r\nHost: t\r\n\r\n");
+            assertEquals("/one 0", body(readResponse(in)));
+            send(socket, "POST /app/two HTTP/1.1\r\nHost: t\r\n"
+                    + "Content-Length: 3\r\n\r\nabc");
+            assertEquals("/two 3", body(readResponse(in)));
+            send(socket, "GET /app/three HTTP/1.1\r\nHost: t\r\n"
+                    + "Connection: close\r\n\r\n");
+            String last = readResponse(in);
+            assertEquals("/three 0", body(last));
+            assertTrue(last.contains("Connection: close\r\n"), last);
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void http10ClosesUnlessKeepAliveIsAsked() throws IOException {
+        try (Socket socket = connect()) {
+            InputStream in = socket.getInputStream();
+            send(socket, "GET /app/a HTTP/1.0\r\nConnection: keep-alive\r\n\r\n");
+            String first = readResponse(in);
+            assertTrue(first.contains("Connection: keep-alive\r\n"), first);
+            send(socket, "GET /app/b HTTP/1.0\r\n\r\n");
+            assertEquals("/b 0", body(readResponse(in)));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void pipelinedRequestsAreAnsweredInOrder() throws IOException {
+        StringBuilder requests = new StringBuilder();
+        int count = 20;
+        for (int i = 0; i < count; i++) {
+            requests.append(i % 2 == 0
+                    ? "GET /app/" + i + " HTTP/1.1\r\nHost: t\r\n\r\n"
+                    : "POST /app/" + i + " HTTP/1.1\r\nHost: t\r\n"
+                            + "Content-Length: " + i + "\r\n\r\n" + "x".repeat(i));
+        }
+        requests.append("GET /app/last HTTP/1.1\r\nHost: t\r\n"
+                + "Connection: close\r\n\r\n");
+        try (Socket socket = connect()) {
+            send(socket, requests.toString());
+            List<String> responses = split(readToEnd(socket, 1024 * 1024));
+            assertEquals(count + 1, responses.size());
+            for (int i = 0; i < count; i++) {
+                assertTrue(responses.get(i).startsWith("HTTP/1.1 200 "),
+                        responses.get(i));
+                assertEquals("/" + i + " " + (i % 2 == 0 ? 0 : i),
+                        body(responses.get(i)));
+            }
+            assertEquals("/last 0", body(responses.get(count)));
+        }
+    }
+
+    @Test
+    void badRequestBetweenPipelinedOnesDoesNotLoop() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, "GET /app/a HTTP/1.1\r\nHost: t\r\n\r\n"
+                    + "GET /app/b HTTP/1.1\r\nContent-Length: 1x\r\n\r\n"
+                    + "GET /app/c HTTP/1.1\r\nHost: t\r\n\r\n");
+            List<String> responses = split(readToEnd(socket, 64 * 1024));
+            assertEquals(2, responses.size());
+            assertEquals("/a 0", body(responses.get(0)));
+            assertTrue(responses.get(1).startsWith("HTTP/1.1 400 "));
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout(TIMEOUT);
+        return socket;
+    }
+
+    private static void send(Socket socket, String request) throws IOException {
+        socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+    }
+
+    /**
+     * Всё до закрытия соединения сервером; больше limit байт — ошибка, чтобы зациклившийся сервер не повесил тест
+     */
+    private static String readToEnd(Socket socket, int limit) throws IOException {
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int n;
+        try {
+            while ((n = in.read(chunk)) >= 0) {
+                all.write(chunk, 0, n);
+                assertTrue(all.size() <= limit, "server sent more than "
+                        + limit + " bytes without closing");
+            }
+        } catch (SocketTimeoutException e) {
+            throw new AssertionError("server did not close the connection", e);
+        }
+        return all.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Один ответ: заголовок до пустой строки и Content-Length байт тела
+     */
+    private static String readResponse(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            int c = in.read();
+            if (c < 0) {
+                throw new AssertionError("connection closed in head: " + head);
+            }
+            head.append((char) c);
+        }
+        byte[] body = in.readNBytes(contentLength(head.toString()));
+        return head + new String(body, StandardCharsets.US_ASCII);
+    }
+
+    private static List<String> split(String all) {
+        List<String> responses = new ArrayList<>();
+        int p = 0;
+        while (p < all.length()) {
+            int headEnd = all.indexOf("\r\n\r\n", p);
+            assertTrue(headEnd >= 0, "incomplete response: " + all.substring(p));
+            int end = headEnd + 4 + contentLength(all.substring(p, headEnd + 4));
+            responses.add(all.substring(p, end));
+            p = end;
+        }
+        return responses;
+    }
+
+    private static int contentLength(String head) {
+        for (String line : head.split("\r\n")) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                return Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        throw new AssertionError("no Content-Length: " + head);
+    }
+
+    private static String body(String response) {
+        return response.substring(response.indexOf("\r\n\r\n") + 4);
+    }
+}
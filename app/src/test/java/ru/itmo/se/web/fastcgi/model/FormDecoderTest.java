@@ -0,0 +1,201 @@
+package ru.itmo.se.web.fastcgi.model;
+
+import org.junit.jupiter.api.Test;
+import ru.itmo.se.web.fastcgi.exception.ValidationException;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * FormDecoder против прежнего Request.fromQuery на случайных и испорченных строках запроса
+ */
+class FormDecoderTest {
+    private static final long SEED = 20261018L;
+    private static final int RANDOM_QUERIES = 300_000;
+    private static final int MUTATED_QUERIES = 300_000;
+    private static final String[] ATOMS = {
+            "x", "y", "r", "=", "&", "%", "+", ".", "-", "0", "1", "2", "5", "9", "e", "E", "f", " ", "z",
+            "%2", "%3D", "%26", "%78", "%79", "%72", "%2B", "%2e", "%zz", "%+9",
+            "12", "0.5", "-1.25", "3e2", "1e-3", "1234567", "123456789", "0.000001234",
+            "NaN", "Infinity", "0x1p3", "1f", "2d"};
+    // %-последовательность со знаком: старый URLDecoder через Integer.parseInt её пропускал
+    private static final Pattern SIGNED_ESCAPE = Pattern.compile("%[+-]");
+
+    @Test
+    void matchesLegacyOnRandomQueries() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < RANDOM_QUERIES; i++) {
+            compare(random.nextInt(3) > 0 ? structured(random) : atoms(random, random.nextInt(20)));
+        }
+    }
+
+    @Test
+    void matchesLegacyOnMutatedQueries() {
+        Random random = new Random(SEED + 1);
+        for (int i = 0; i < MUTATED_QUERIES; i++) {
+            StringBuilder q = new StringBuilder(structured(random));
+            for (int m = random.nextInt(3) + 1; m > 0; m--) {
+                int at = q.length() == 0 ? 0 : random.nextInt(q.length());
+                switch (random.nextInt(3)) {
+                    case 0 -> q.insert(at, ATOMS[random.nextInt(ATOMS.length)]);
+                    case 1 -> {
+                        if (q.length() > 0) {
+                            q.deleteCharAt(at);
+                        }
+                    }
+                    default -> {
+                        if (q.length() > 0) {
+                            q.setCharAt(at, "xyr=&%+.-019eE ".charAt(random.nextInt(15)));
+                        }
+                    }
+                }
+            }
+            compare(q.toString());
+        }
+    }
+
+    @Test
+    void ignoresMalformedPairsThatAreNotXyr() throws ValidationException {
+        String[] junk = {"foo=%zz", "f%zz=1", "%zz", "%zz=1", "%", "a=b=c", "", "=", "=1", "xx=%", "%7=1", "%GG=2"};
+        Random random = new Random(SEED + 2);
+        for (int i = 0; i < 10_000; i++) {
+            String[] pairs = {"x=" + (random.nextInt(9) - 4) / 2f, "y=" + (random.nextFloat() * 8 - 3),
+                    "r=" + (random.nextInt(4) + 1)};
+            Request expected = Request.fromQuery(String.join("&", pairs));
+            StringBuilder q = new StringBuilder();
+            for (String pair : pairs) {
+                if (random.nextBoolean()) {
+                    q.append(junk[random.nextInt(junk.length)]).append('&');
+                }
+                q.append(pair).append('&');
+            }
+            q.append(junk[random.nextInt(junk.length)]);
+            assertSame(expected, Request.fromQuery(q.toString()), q.toString());
+        }
+    }
+
+    @Test
+    void lastValueWinsEvenIfEarlierOnesAreMalformed() throws ValidationException {
+        assertSame(new Request(1, 2, 3), Request.fromQuery("x=%zz&x=1&y=abc&y=2&r=&r=3"), "overridden");
+        assertSame(new Request(-1, 2, 3), Request.fromQuery("%78=-1&%79=2&%72=3"), "encoded keys");
+        assertSame(new Request(1, 2, 3), Request.fromQuery("x=1=5&y=2&r=3"), "value ends at '='");
+    }
+
+    @Test
+    void reportsWhatIsWrong() {
+        assertEquals("Не задан параметр y", message("x=1&r=2"));
+        assertEquals("Параметр x задан без значения", message("x=&y=1&r=2"));
+        assertEquals("Параметр r должен быть числом", message("x=1&y=1&r=abc"));
+        assertEquals("Некорректная %-последовательность в позиции 2", message("x=%zz&y=1&r=2"));
+        assertEquals("Missing query string", message(""));
+    }
+
+    /**
+     * Если старый разбор принял строку, новый даёт те же значения бит в бит (кроме %-последовательностей
+     * со знаком). Если старый отверг её своей проверкой, новый тоже отвергает. Если старый падал
+     * ArrayIndexOutOfBoundsException или IllegalArgumentException, новый может принять строку или отвергнуть,
+     * но только через ValidationException
+     */
+    private static void compare(String query) {
+        Request legacy = null;
+        Throwable legacyError = null;
+        try {
+            legacy = legacyFromQuery(query);
+        } catch (ValidationException | RuntimeException e) {
+            legacyError = e;
+        }
+        Request decoded = null;
+        try {
+            decoded = Request.fromQuery(query);
+        } catch (ValidationException e) {
+            // ожидаемый вид отказа
+        } catch (RuntimeException e) {
+            fail("\"" + query + "\" threw " + e);
+        }
+
+        if (legacy != null) {
+            if (decoded == null && !SIGNED_ESCAPE.matcher(query).find()) {
+                fail("\"" + query + "\" was accepted before and is rejected now");
+            }
+            if (decoded != null) {
+                assertSame(legacy, decoded, query);
+            }
+        } else if (legacyError instanceof ValidationException && decoded != null) {
+            fail("\"" + query + "\" was rejected before and is accepted now");
+        }
+    }
+
+    private static void assertSame(Request expected, Request actual, String query) {
+        assertEquals(Float.floatToIntBits(expected.getX()), Float.floatToIntBits(actual.getX()), () -> query + ": x");
+        assertEquals(Float.floatToIntBits(expected.getY()), Float.floatToIntBits(actual.getY()), () -> query + ": y");
+        assertEquals(Float.floatToIntBits(expected.getR()), Float.floatToIntBits(actual.getR()), () -> query + ": r");
+    }
+
+    private static String message(String query) {
+        return assertThrows(ValidationException.class, () -> Request.fromQuery(query)).getMessage();
+    }
+
+    /**
+     * Похоже на то, что шлёт форма: x, y, r по порядку, иногда другой ключ, значения из цифр и обломков
+     */
+    private static String structured(Random random) {
+        StringBuilder q = new StringBuilder();
+        int pairs = 3 + random.nextInt(2);
+        for (int k = 0; k < pairs; k++) {
+            if (k > 0) {
+                q.append('&');
+            }
+            q.append(random.nextInt(10) == 0 ? ATOMS[random.nextInt(ATOMS.length)] : "xyr".charAt(k % 3)).append('=');
+            for (int j = random.nextInt(4) + 1; j > 0; j--) {
+                q.append(random.nextInt(3) == 0 ? ATOMS[random.nextInt(ATOMS.length)] : random.nextInt(10));
+            }
+            if (random.nextInt(3) == 0) {
+                q.append('.').append(random.nextInt(100_000));
+            }
+        }
+        return q.toString();
+    }
+
+    private static String atoms(Random random, int count) {
+        StringBuilder q = new StringBuilder();
+        for (int j = 0; j < count; j++) {
+            q.append(ATOMS[random.nextInt(ATOMS.length)]);
+        }
+        return q.toString();
+    }
+
+    /**
+     * Request.fromQuery до перехода на FormDecoder
+     */
+    private static Request legacyFromQuery(String query) throws ValidationException {
+        if (query == null || query.isEmpty()) {
+            throw new ValidationException("Missing query string");
+        }
+        Map<String, String> params = Arrays.stream(query.split("&"))
+                .map(pair -> pair.split("="))
+                .collect(Collectors.toMap(
+                        pair -> URLDecoder.decode(pair[0], StandardCharsets.UTF_8),
+                        pair -> URLDecoder.decode(pair[1], StandardCharsets.UTF_8),
+                        (a, b) -> b,
+                        HashMap::new
+                ));
+        try {
+            float x = Float.parseFloat(params.get("x"));
+            float y = Float.parseFloat(params.get("y"));
+            float r = Float.parseFloat(params.get("r"));
+            return new Request(x, y, r);
+        } catch (Exception e) {
+            throw new ValidationException("Некорректные параметры! Вводите числа!");
+        }
+    }
+}
@@ -9,6 +9,7 @@
 
 plugins {
     java
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 repositories {
@@ -16,6 +17,26 @@ repositories {
     mavenCentral()
 }
 
+dependencies {
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
 tasks.jar {
     archiveFileName.set("fastcgi-lib.jar")
 }
+
+// Benchmarks of the protocol layer in src/jmh/java: ./gradlew :fastcgi-lib:jmh
+// -PjmhIncludes=<regex> runs only the matching ones
+jmh {
+    jmhVersion.set("1.37")
+    // ops/s plus allocation rate and bytes per operation
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    (findProperty("jmhIncludes") as String?)?.let { includes.add(it) }
+}
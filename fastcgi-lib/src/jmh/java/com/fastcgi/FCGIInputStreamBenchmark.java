@@ -0,0 +1,108 @@
+/*
+ * @(#)FCGIInputStreamBenchmark.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * FCGI_STDIN of one request read through FCGIInputStream, from records
+ * in memory: bodySize bytes in records of recordLen bytes (httpd sends
+ * 8K ones). One operation reads the whole stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FCGIInputStreamBenchmark
+{
+    @Param({"128", "16384", "262144"})
+    public int bodySize;
+
+    @Param({"8192"})
+    public int recordLen;
+
+    private ByteArrayInputStream wire;
+    private FCGIInputStream in;
+    private final byte[] chunk = new byte[4096];
+
+    @Setup
+    public void setup() {
+        byte[] body = new byte[bodySize];
+        new Random(1).nextBytes(body);
+        wire = new ByteArrayInputStream(FCGIRecords.stream(
+            FCGIGlobalDefs.def_FCGIStdin, 1, body, recordLen));
+        FCGIRequest request = new FCGIRequest();
+        request.requestID = 1;
+        request.isBeginProcessed = true;
+        in = new FCGIInputStream(wire, 8192, FCGIGlobalDefs.def_FCGIStdin, request);
+    }
+
+    /*
+     * Back to the first record, as if the next request came in on a kept
+     * connection.
+     */
+    private void rewind() {
+        wire.reset();
+        in.rdNext = in.stop = in.buffStop = 0;
+        in.setReaderType(FCGIGlobalDefs.def_FCGIStdin);
+    }
+
+    /*
+     * fill() alone: the record framing, without copying content out.
+     */
+    @Benchmark
+    public int fill() throws IOException {
+        rewind();
+        int fills = 0;
+        for (;;) {
+            in.fill();
+            if (in.rdNext == in.stop) {
+                return fills;
+            }
+            fills++;
+            in.rdNext = in.stop;
+        }
+    }
+
+    @Benchmark
+    public int readChunks() throws IOException {
+        rewind();
+        int total = 0;
+        int n;
+        while ((n = in.read(chunk, 0, chunk.length)) > 0) {
+            total += n;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int readBytes() throws IOException {
+        rewind();
+        int sum = 0;
+        int c;
+        while ((c = in.read()) >= 0) {
+            sum += c;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * @(#)FCGIOutputStreamBenchmark.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * FCGI_STDOUT of one request written through FCGIOutputStream to a
+ * connection that drops the bytes, with plain writes or, with
+ * gathering, through the channel as FCGIServer does. Each operation
+ * starts from reset(), as for the next request on a kept connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FCGIOutputStreamBenchmark
+{
+    @Param({"64", "4096", "131072"})
+    public int payloadSize;
+
+    @Param({"false", "true"})
+    public boolean gathering;
+
+    private FCGIRequest request;
+    private FCGIOutputStream out;
+    private byte[] payload;
+
+    @Setup
+    public void setup() {
+        payload = new byte[payloadSize];
+        Arrays.fill(payload, (byte) 'x');
+        FCGIRecords.Sink sink = new FCGIRecords.Sink();
+        request = new FCGIRequest();
+        request.requestID = 1;
+        out = new FCGIOutputStream(sink, 8192, FCGIGlobalDefs.def_FCGIStdout, request);
+        if (gathering) {
+            out.channel = sink;
+        }
+    }
+
+    /*
+     * Buffered writes; what is still buffered at the end is dropped by
+     * the next reset().
+     */
+    @Benchmark
+    public FCGIOutputStream write() throws IOException {
+        out.reset(request);
+        out.write(payload);
+        return out;
+    }
+
+    /*
+     * The same, written out as records.
+     */
+    @Benchmark
+    public FCGIOutputStream empty() throws IOException {
+        out.reset(request);
+        out.write(payload);
+        out.empty(false);
+        return out;
+    }
+
+    /*
+     * A whole response: the content, the empty STDOUT record and
+     * FCGI_END_REQUEST.
+     */
+    @Benchmark
+    public FCGIOutputStream close() throws IOException {
+        out.reset(request);
+        request.numWriters = 1;
+        out.write(payload);
+        out.close();
+        return out;
+    }
+}
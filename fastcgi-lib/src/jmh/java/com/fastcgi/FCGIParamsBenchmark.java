@@ -0,0 +1,82 @@
+/*
+ * @(#)FCGIParamsBenchmark.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * FCGIMessage.readParams over the params httpd sends with a form POST
+ * (FCGIRecords.httpdParams), in one record or split into recordLen byte
+ * records. One operation decodes the whole table.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FCGIParamsBenchmark
+{
+    @Param({"65535", "256"})
+    public int recordLen;
+
+    private ByteArrayInputStream wire;
+    private FCGIInputStream in;
+
+    @Setup
+    public void setup() {
+        byte[] nameValues = FCGIRecords.nameValues(FCGIRecords.httpdParams(11));
+        wire = new ByteArrayInputStream(FCGIRecords.stream(
+            FCGIGlobalDefs.def_FCGIParams, 1, nameValues, recordLen));
+        FCGIRequest request = new FCGIRequest();
+        request.requestID = 1;
+        request.isBeginProcessed = true;
+        in = new FCGIInputStream(wire, 8192, FCGIGlobalDefs.def_FCGIParams, request);
+    }
+
+    private void rewind() {
+        wire.reset();
+        in.rdNext = in.stop = in.buffStop = 0;
+        in.setReaderType(FCGIGlobalDefs.def_FCGIParams);
+    }
+
+    /*
+     * What FCGIServer does for every request.
+     */
+    @Benchmark
+    public FCGIParams readParams() throws IOException {
+        rewind();
+        FCGIParams params = new FCGIParams();
+        new FCGIMessage(in).readParams(params);
+        return params;
+    }
+
+    /*
+     * What FCGIInterface does, into Properties.
+     */
+    @Benchmark
+    public Properties readProperties() throws IOException {
+        rewind();
+        Properties props = new Properties();
+        new FCGIMessage(in).readParams(props);
+        return props;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * @(#)FCGIRecords.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Record streams, as a web server would send them, for the benchmarks.
+ */
+final class FCGIRecords
+{
+    private FCGIRecords() {
+    }
+
+    /*
+     * A connection that drops everything written to it, as a stream and
+     * as a gathering channel, and counts the bytes.
+     */
+    static class Sink extends OutputStream implements GatheringByteChannel
+    {
+        long written;
+
+        public void write(int b) {
+            written++;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            written += len;
+        }
+
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            written += n;
+            return n;
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long n = 0;
+            for (int i = offset; i < offset + length; i++) {
+                n += write(srcs[i]);
+            }
+            return n;
+        }
+
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+
+    /*
+     * The params mod_fastcgi passes for a POST of the area form, about
+     * 1.3K of name-value pairs.
+     */
+    static Map<String, String> httpdParams(int contentLength) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("CONTENT_TYPE", "application/x-www-form-urlencoded");
+        params.put("CONTENT_LENGTH", Integer.toString(contentLength));
+        params.put("HTTP_HOST", "localhost:8080");
+        params.put("HTTP_CONNECTION", "keep-alive");
+        params.put("HTTP_USER_AGENT", "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36"
+            + " (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36");
+        params.put("HTTP_ACCEPT", "application/json, text/javascript, */*; q=0.01");
+        params.put("HTTP_ACCEPT_ENCODING", "gzip, deflate, br");
+        params.put("HTTP_ACCEPT_LANGUAGE", "ru-RU,ru;q=0.9,en-US;q=0.8,en;q=0.7");
+        params.put("HTTP_ORIGIN", "http://localhost:8080");
+        params.put("HTTP_REFERER", "http://localhost:8080/index.html");
+        params.put("HTTP_X_REQUESTED_WITH", "XMLHttpRequest");
+        params.put("PATH", "/usr/local/sbin:/usr/local/bin:/usr/sbin:/usr/bin:/sbin:/bin");
+        params.put("SERVER_SIGNATURE", "");
+        params.put("SERVER_SOFTWARE", "Apache/2.4.58 (Unix)");
+        params.put("SERVER_NAME", "localhost");
+        params.put("SERVER_ADDR", "127.0.0.1");
+        params.put("SERVER_PORT", "8080");
+        params.put("REMOTE_ADDR", "127.0.0.1");
+        params.put("DOCUMENT_ROOT", "/usr/local/apache2/htdocs");
+        params.put("REQUEST_SCHEME", "http");
+        params.put("CONTEXT_PREFIX", "/fcgi-bin/");
+        params.put("CONTEXT_DOCUMENT_ROOT", "/usr/local/apache2/fcgi-bin/");
+        params.put("SERVER_ADMIN", "you@example.com");
+        params.put("SCRIPT_FILENAME", "/usr/local/apache2/fcgi-bin/server.jar");
+        params.put("REMOTE_PORT", "53124");
+        params.put("GATEWAY_INTERFACE", "CGI/1.1");
+        params.put("SERVER_PROTOCOL", "HTTP/1.1");
+        params.put("REQUEST_METHOD", "POST");
+        params.put("QUERY_STRING", "");
+        params.put("REQUEST_URI", "/fcgi-bin/server.jar");
+        params.put("SCRIPT_NAME", "/fcgi-bin/server.jar");
+        return params;
+    }
+
+    static byte[] beginRequest(int requestID, boolean keepConn) {
+        byte[] rec = new byte[FCGIGlobalDefs.def_FCGIHeaderLen
+            + FCGIGlobalDefs.def_FCGIBeginReqBodyLen];
+        FCGIRecordCodec.encodeHeader(rec, 0, FCGIGlobalDefs.def_FCGIBeginRequest,
+            requestID, FCGIGlobalDefs.def_FCGIBeginReqBodyLen, 0);
+        FCGIRecordCodec.encodeBeginRequestBody(rec, FCGIGlobalDefs.def_FCGIHeaderLen,
+            FCGIGlobalDefs.def_FCGIResponder,
+            keepConn ? FCGIGlobalDefs.def_FCGIKeepConn : 0);
+        return rec;
+    }
+
+    /*
+     * The name-value pairs of params, as PARAMS record content.
+     */
+    static byte[] nameValues(Map<String, String> params) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> e : params.entrySet()) {
+            byte[] name = e.getKey().getBytes(StandardCharsets.ISO_8859_1);
+            byte[] value = e.getValue().getBytes(StandardCharsets.ISO_8859_1);
+            putLength(out, name.length);
+            putLength(out, value.length);
+            out.write(name, 0, name.length);
+            out.write(value, 0, value.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static void putLength(ByteArrayOutputStream out, int len) {
+        if (len < 0x80) {
+            out.write(len);
+            return;
+        }
+        out.write((len >>> 24) | 0x80);
+        out.write(len >>> 16);
+        out.write(len >>> 8);
+        out.write(len);
+    }
+
+    /*
+     * content as a stream of records of type, at most recordLen bytes of
+     * content each and padded to 8 bytes like httpd does, ended by the
+     * empty record.
+     */
+    static byte[] stream(int type, int requestID, byte[] content, int recordLen) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] header = new byte[FCGIGlobalDefs.def_FCGIHeaderLen];
+        for (int off = 0; off < content.length; off += recordLen) {
+            int len = Math.min(recordLen, content.length - off);
+            int padding = -len & 7;
+            FCGIRecordCodec.encodeHeader(header, 0, type, requestID, len, padding);
+            out.write(header, 0, header.length);
+            out.write(content, off, len);
+            out.write(new byte[padding], 0, padding);
+        }
+        FCGIRecordCodec.encodeHeader(header, 0, type, requestID, 0, 0);
+        out.write(header, 0, header.length);
+        return out.toByteArray();
+    }
+
+    /*
+     * A whole request: BEGIN_REQUEST, PARAMS and STDIN.
+     */
+    static byte[] request(int requestID, Map<String, String> params, byte[] stdin,
+        boolean keepConn) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(beginRequest(requestID, keepConn));
+        out.writeBytes(stream(FCGIGlobalDefs.def_FCGIParams, requestID,
+            nameValues(params), FCGIGlobalDefs.def_FCGIMaxLen));
+        out.writeBytes(stream(FCGIGlobalDefs.def_FCGIStdin, requestID, stdin,
+            FCGIGlobalDefs.def_FCGIMaxLen));
+        return out.toByteArray();
+    }
+}
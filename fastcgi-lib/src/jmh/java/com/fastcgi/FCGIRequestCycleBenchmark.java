@@ -0,0 +1,111 @@
+/*
+ * @(#)FCGIRequestCycleBenchmark.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * A whole request, from FCGI_BEGIN_REQUEST to FCGI_END_REQUEST, through
+ * the FCGIDemultiplexer that the multiplexed and selector engines use,
+ * without sockets: the records of a form POST are fed in from memory,
+ * the handler reads the body and writes a small JSON response, and the
+ * records go to a connection that drops them. The worker task runs on
+ * the benchmark thread once all records are in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FCGIRequestCycleBenchmark
+{
+    static final byte[] BODY = "x=1.5&y=-2&r=3".getBytes(StandardCharsets.ISO_8859_1);
+    static final byte[] RESPONSE = ("HTTP/1.1 200 OK\r\n"
+        + "Content-Type: application/json\r\n"
+        + "Content-Length: 89\r\n\r\n"
+        + "{\"x\":1.5,\"y\":-2.0,\"r\":3.0,\"result\":true,"
+        + "\"time\":\"2024-01-01T12:00:00\",\"execution\":1200}\r\n")
+        .getBytes(StandardCharsets.ISO_8859_1);
+
+    /*
+     * Reads the form and answers, like the application's controller
+     * minus the application.
+     */
+    static final FCGIHandler HANDLER = exchange -> {
+        int length = Integer.parseInt(exchange.getParam("CONTENT_LENGTH", "0"));
+        byte[] body = new byte[length];
+        InputStream in = exchange.getInputStream();
+        int n = 0;
+        while (n < length) {
+            int r = in.read(body, n, length - n);
+            if (r < 0) {
+                break;
+            }
+            n += r;
+        }
+        exchange.getOutputStream().write(RESPONSE);
+    };
+
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final FCGIRecords.Sink sink = new FCGIRecords.Sink();
+    private byte[] begin;
+    private byte[] params;
+    private FCGIDemultiplexer demux;
+
+    @Setup
+    public void setup() {
+        FCGIServerConfig config = new FCGIServerConfig();
+        FCGIStats stats = new FCGIStats();
+        FCGIKeepAlive.Connection conn = new FCGIKeepAlive.Connection() {
+            boolean isIdle() {
+                return true;
+            }
+
+            boolean isReceiving() {
+                return false;
+            }
+
+            void expire() {
+            }
+        };
+        demux = new FCGIDemultiplexer(config, HANDLER, tasks::add,
+            new FCGIAdmission(config, stats), sink, null, () -> { }, conn);
+        begin = FCGIRecords.beginRequest(1, true);
+        params = FCGIRecords.nameValues(FCGIRecords.httpdParams(BODY.length));
+    }
+
+    @Benchmark
+    public long demultiplexed() throws IOException {
+        int offset = FCGIGlobalDefs.def_FCGIHeaderLen;
+        demux.record(FCGIGlobalDefs.def_FCGIBeginRequest, 1, begin, offset,
+            begin.length - offset);
+        demux.record(FCGIGlobalDefs.def_FCGIParams, 1, params, 0, params.length);
+        demux.record(FCGIGlobalDefs.def_FCGIParams, 1, params, 0, 0);
+        demux.record(FCGIGlobalDefs.def_FCGIStdin, 1, BODY, 0, BODY.length);
+        demux.record(FCGIGlobalDefs.def_FCGIStdin, 1, BODY, 0, 0);
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+        return sink.written;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * @(#)FCGIServerBenchmark.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The full accept-respond cycle of an FCGIServer over loopback TCP: one
+ * kept connection sends the form POST of FCGIRequestCycleBenchmark and
+ * waits for FCGI_END_REQUEST. The client side allocates nothing per
+ * request, so -prof gc shows what the server allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FCGIServerBenchmark
+{
+    @Param({FCGIServerConfig.ENGINE_BLOCKING, FCGIServerConfig.ENGINE_NIO})
+    public String engine;
+
+    @Param({"false", "true"})
+    public boolean multiplex;
+
+    private FCGIServer server;
+    private Socket socket;
+    private OutputStream out;
+    private DataInputStream in;
+    private byte[] request;
+    private final byte[] content = new byte[FCGIGlobalDefs.def_FCGIMaxLen + 255];
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        FCGIServerConfig config = new FCGIServerConfig();
+        try (ServerSocket probe = new ServerSocket(0)) {
+            config.port = probe.getLocalPort();
+        }
+        config.engine = engine;
+        config.multiplex = multiplex;
+        server = new FCGIServer(config, FCGIRequestCycleBenchmark.HANDLER);
+        server.start();
+        Thread t = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                /* closed by tearDown() */
+            }
+        }, "fcgi-benchmark-server");
+        t.setDaemon(true);
+        t.start();
+        socket = new Socket("127.0.0.1", config.port);
+        socket.setTcpNoDelay(true);
+        out = socket.getOutputStream();
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 16384));
+        byte[] body = FCGIRequestCycleBenchmark.BODY;
+        request = FCGIRecords.request(1,
+            FCGIRecords.httpdParams(body.length), body, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        socket.close();
+        server.close();
+    }
+
+    /*
+     * Returns the number of STDOUT bytes received.
+     */
+    @Benchmark
+    public int request() throws IOException {
+        out.write(request);
+        out.flush();
+        int stdout = 0;
+        for (;;) {
+            in.readFully(content, 0, FCGIGlobalDefs.def_FCGIHeaderLen);
+            int type = FCGIRecordCodec.type(content, 0);
+            int contentLen = FCGIRecordCodec.contentLength(content, 0);
+            in.readFully(content, 0,
+                contentLen + FCGIRecordCodec.paddingLength(content, 0));
+            if (type == FCGIGlobalDefs.def_FCGIStdout) {
+                stdout += contentLen;
+            } else if (type == FCGIGlobalDefs.def_FCGIEndRequest) {
+                return stdout;
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * @(#)FCGIAdmission.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Admission control of an FCGIServer. A request whose params are
+ * complete arrives(); it is then queued until it can start() on a
+ * worker, and finish()es after its handler. A request is rejected
+ * instead of being run when
+ *
+ *   - maxQueue requests are already waiting when it arrives, or
+ *   - it waited more than maxQueueWait for one of the maxRequests
+ *     in-flight slots (or, without that limit, for a worker).
+ *
+ * Rejected requests get FCGI_OVERLOAD right away, so the web server can
+ * try another backend instead of waiting. Limits of 0 are off.
+ */
+class FCGIAdmission
+{
+    private final int maxRequests;
+    private final int maxQueue;
+    private final long maxQueueWaitNanos;
+    private final FCGIStats stats;
+    private int inFlight;
+    private int queued;
+
+    FCGIAdmission(FCGIServerConfig config, FCGIStats stats) {
+        this.maxRequests = config.maxRequests;
+        this.maxQueue = config.maxQueue;
+        this.maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(config.maxQueueWait);
+        this.stats = stats;
+    }
+
+    /*
+     * Called when a request is ready to be run. Returns false if it is to
+     * be rejected; otherwise start() must follow.
+     */
+    synchronized boolean arrive() {
+        if (maxQueue > 0 && queued >= maxQueue) {
+            stats.rejected.increment();
+            return false;
+        }
+        stats.queued = ++queued;
+        return true;
+    }
+
+    /*
+     * Called on the worker that is to run the request, which arrived at
+     * queuedAt (System.nanoTime()). Waits for an in-flight slot; returns
+     * false if the request is to be rejected, otherwise finish() must
+     * follow.
+     */
+    synchronized boolean start(long queuedAt) {
+        long deadline = queuedAt + maxQueueWaitNanos;
+        try {
+            while (maxRequests > 0 && inFlight >= maxRequests) {
+                if (maxQueueWaitNanos == 0) {
+                    wait();
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return reject();
+        }
+        long waited = System.nanoTime() - queuedAt;
+        if ((maxRequests > 0 && inFlight >= maxRequests)
+            || (maxQueueWaitNanos > 0 && waited > maxQueueWaitNanos)) {
+            return reject();
+        }
+        stats.queued = --queued;
+        stats.inFlight = ++inFlight;
+        stats.admitted.increment();
+        stats.queueTime(waited);
+        return true;
+    }
+
+    private boolean reject() {
+        stats.queued = --queued;
+        stats.rejected.increment();
+        /*
+         * finish() wakes one waiter; if that was this one, past its
+         * deadline, hand the free slot on to the next instead of leaving
+         * it idle until their own timeouts.
+         */
+        if (inFlight < maxRequests) {
+            notify();
+        }
+        return false;
+    }
+
+    synchronized void finish() {
+        stats.inFlight = --inFlight;
+        notify();
+    }
+}
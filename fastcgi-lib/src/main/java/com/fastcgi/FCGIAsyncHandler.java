@@ -0,0 +1,78 @@
+/*
+ * @(#)FCGIAsyncHandler.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+/*
+ * An FCGIHandler that completes its requests later. handleAsync() starts
+ * the work and returns at once; the thread that called it goes back to
+ * the server, and the request is finished (stdout/stderr closed and
+ * FCGI_END_REQUEST sent) when the returned stage completes, on the
+ * thread that completes it. Until then the request counts as in flight
+ * for admission control.
+ *
+ *      new FCGIServer(config, (FCGIAsyncHandler) exchange ->
+ *          repository.saveAsync(...).thenAccept(r -> write(exchange, r)));
+ *
+ * The exchange's streams may be written from any thread, but only until
+ * the stage completes. A stage that completes exceptionally fails only
+ * its request, like a handler that throws. A cancelled request still
+ * ends only when its stage completes, since the application may still
+ * hold its streams; use exchange.onCancel() to complete it early.
+ */
+@FunctionalInterface
+public interface FCGIAsyncHandler extends FCGIHandler
+{
+    /*
+     * Starts processing one request. The value the stage completes with
+     * is ignored.
+     */
+    CompletionStage<?> handleAsync(FCGIExchange exchange) throws IOException;
+
+    /*
+     * Blocking form, for callers that want one: waits for the stage.
+     */
+    default void handle(FCGIExchange exchange) throws IOException {
+        CompletableFuture<?> done = handleAsync(exchange).toCompletableFuture();
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    /*
+     * The exception a failed stage stands for, as an IOException unless
+     * it is unchecked.
+     */
+    private static IOException unwrap(Throwable failure) {
+        while (failure instanceof CompletionException
+            || failure instanceof ExecutionException) {
+            if (failure.getCause() == null) {
+                break;
+            }
+            failure = failure.getCause();
+        }
+        if (failure instanceof IOException) {
+            return (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return new IOException(failure);
+    }
+}
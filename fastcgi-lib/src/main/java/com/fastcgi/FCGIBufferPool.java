@@ -0,0 +1,98 @@
+/*
+ * @(#)FCGIBufferPool.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+/*
+ * Recycles the stream buffers of connections and requests, so that a
+ * request does not allocate its 8K+8K+512 bytes of buffers anew. Buffers
+ * are kept by size class, powers of two from MIN_SIZE to MAX_SIZE, at
+ * most maxPerClass of each (FCGI_BUFFER_POOL, 0 turns pooling off).
+ * take() may return a buffer larger than asked for.
+ *
+ * A buffer must not be used any more once it is given back; the streams
+ * that own one give it back when their connection or request is done.
+ */
+class FCGIBufferPool
+{
+    static final int MIN_SIZE = 256;
+    static final int MAX_SIZE = 1 << 17;
+
+    /* one pool for the JVM, FCGIInterface and all FCGIServers */
+    static final FCGIBufferPool SHARED = new FCGIBufferPool(
+        FCGIServerConfig.intProperty(System.getProperties(), "FCGI_BUFFER_POOL", 256));
+
+    private final int maxPerClass;
+    private final byte[][][] stacks;
+    private final int[] sizes;
+
+    FCGIBufferPool(int maxPerClass) {
+        this.maxPerClass = maxPerClass;
+        int classes = Integer.numberOfTrailingZeros(MAX_SIZE)
+            - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+        stacks = new byte[classes][][];
+        sizes = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            stacks[i] = new byte[Math.max(0, maxPerClass)][];
+        }
+    }
+
+    /*
+     * Returns a buffer of at least size bytes, with undefined content.
+     */
+    byte[] take(int size) {
+        int cls = sizeClass(size);
+        if (cls < 0) {
+            return new byte[size];
+        }
+        byte[][] stack = stacks[cls];
+        synchronized (stack) {
+            int n = sizes[cls];
+            if (n > 0) {
+                byte[] buf = stack[--n];
+                stack[n] = null;
+                sizes[cls] = n;
+                return buf;
+            }
+        }
+        return new byte[MIN_SIZE << cls];
+    }
+
+    /*
+     * Gives a buffer back; null and buffers of other sizes are ignored.
+     */
+    void give(byte[] buf) {
+        if (buf == null || maxPerClass <= 0) {
+            return;
+        }
+        int cls = sizeClass(buf.length);
+        if (cls < 0 || buf.length != MIN_SIZE << cls) {
+            return;
+        }
+        byte[][] stack = stacks[cls];
+        synchronized (stack) {
+            int n = sizes[cls];
+            if (n < stack.length) {
+                stack[n] = buf;
+                sizes[cls] = n + 1;
+            }
+        }
+    }
+
+    /*
+     * Index of the smallest class that holds size bytes, -1 if pooling
+     * is off or size is over MAX_SIZE.
+     */
+    private int sizeClass(int size) {
+        if (maxPerClass <= 0 || size > MAX_SIZE) {
+            return -1;
+        }
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1)
+            - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+}
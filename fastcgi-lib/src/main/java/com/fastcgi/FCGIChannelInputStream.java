@@ -0,0 +1,76 @@
+/*
+ * @(#)FCGIChannelInputStream.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+ * Raw input of a blocking connection channel. Unlike the streams of
+ * Channels.newInputStream() it does not take the channel's blocking lock,
+ * so a request can write to the channel while another thread waits here
+ * for the next record. Works for Unix domain channels, which have no
+ * Socket to take streams from. FCGIInputStream reads direct buffers
+ * through it as a channel. Given a connection with timeouts, it marks
+ * the time it starts waiting in each read for FCGIKeepAlive.
+ */
+class FCGIChannelInputStream extends InputStream implements ReadableByteChannel
+{
+    private final ReadableByteChannel channel;
+    private final FCGIKeepAlive.Connection conn;
+    /* FCGIInputStream always reads into the same array; keep a view on it */
+    private byte[] viewArray;
+    private ByteBuffer view;
+
+    FCGIChannelInputStream(ReadableByteChannel channel) {
+        this(channel, null);
+    }
+
+    FCGIChannelInputStream(ReadableByteChannel channel,
+        FCGIKeepAlive.Connection conn) {
+        this.channel = channel;
+        this.conn = conn != null && conn.isTimed() ? conn : null;
+    }
+
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    public int read(byte b[], int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (b != viewArray) {
+            viewArray = b;
+            view = ByteBuffer.wrap(b);
+        }
+        view.limit(off + len).position(off);
+        return read(view);
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        if (conn == null) {
+            return channel.read(dst);
+        }
+        conn.waitingSince = System.nanoTime();
+        try {
+            return channel.read(dst);
+        } finally {
+            conn.waitingSince = 0;
+        }
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * @(#)FCGIChannelOutputStream.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/*
+ * Raw output of a blocking connection channel, the connOut of its
+ * requests. Like FCGINioOutput it is also their connChannel, so
+ * FCGIOutputStream can use gathering writes. Callers lock this object
+ * around each record, as with any connOut.
+ */
+class FCGIChannelOutputStream extends OutputStream implements GatheringByteChannel
+{
+    private final GatheringByteChannel channel;
+    private byte[] viewArray;
+    private ByteBuffer view;
+
+    FCGIChannelOutputStream(GatheringByteChannel channel) {
+        this.channel = channel;
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    public void write(byte b[], int off, int len) throws IOException {
+        if (b != viewArray) {
+            viewArray = b;
+            view = ByteBuffer.wrap(b);
+        }
+        view.limit(off + len).position(off);
+        while (view.hasRemaining()) {
+            channel.write(view);
+        }
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        int len = src.remaining();
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+        return len;
+    }
+
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long len = 0;
+        for (int i = offset; i < offset + length; i++) {
+            len += srcs[i].remaining();
+        }
+        for (long left = len; left > 0; ) {
+            left -= channel.write(srcs, offset, length);
+        }
+        return len;
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
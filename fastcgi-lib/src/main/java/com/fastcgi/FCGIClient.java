@@ -0,0 +1,158 @@
+/*
+ * @(#)FCGIClient.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/*
+ * Minimal web-server side of the protocol: sends a responder request
+ * over one connection and collects the FCGI_STDOUT stream and the
+ * FCGI_END_REQUEST body. Used by the tools in com.fastcgi.tools to drive
+ * a server without httpd; not meant for production traffic.
+ */
+public class FCGIClient implements AutoCloseable
+{
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(1024);
+    private final byte[] header = new byte[FCGIGlobalDefs.def_FCGIHeaderLen];
+
+    public FCGIClient(String host, int port) throws IOException {
+        this(new InetSocketAddress(host, port));
+    }
+
+    /*
+     * Connects to a TCP address or, given a UnixDomainSocketAddress, to
+     * the Unix domain socket of a server (FCGI_SOCKET_PATH).
+     */
+    public FCGIClient(SocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        if (address instanceof InetSocketAddress) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        in = new DataInputStream(new BufferedInputStream(
+            Channels.newInputStream(channel), 8192));
+        out = Channels.newOutputStream(channel);
+    }
+
+    /*
+     * Result of one request.
+     */
+    public static class Response
+    {
+        public byte[] stdout;
+        public int appStatus;
+        public int protocolStatus;
+    }
+
+    /*
+     * Sends BEGIN_REQUEST, PARAMS and STDIN in a single write and reads
+     * records until FCGI_END_REQUEST for requestID arrives.
+     */
+    public Response send(int requestID, Map<String, String> params, byte[] stdin,
+        boolean keepConn) throws IOException {
+        record.reset();
+        byte[] begin = new byte[FCGIGlobalDefs.def_FCGIBeginReqBodyLen];
+        begin[1] = (byte) FCGIGlobalDefs.def_FCGIResponder;
+        begin[2] = (byte) (keepConn ? FCGIGlobalDefs.def_FCGIKeepConn : 0);
+        writeRecord(FCGIGlobalDefs.def_FCGIBeginRequest, requestID, begin, 0, begin.length);
+
+        ByteArrayOutputStream nv = new ByteArrayOutputStream(512);
+        for (Map.Entry<String, String> e : params.entrySet()) {
+            writeNameValue(nv, e.getKey(), e.getValue());
+        }
+        writeStream(FCGIGlobalDefs.def_FCGIParams, requestID, nv.toByteArray());
+        writeStream(FCGIGlobalDefs.def_FCGIStdin, requestID,
+            stdin == null ? new byte[0] : stdin);
+        record.writeTo(out);
+        out.flush();
+        return readResponse(requestID);
+    }
+
+    private Response readResponse(int requestID) throws IOException {
+        Response response = new Response();
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream(1024);
+        byte[] content = new byte[FCGIGlobalDefs.def_FCGIMaxLen];
+        for (;;) {
+            int version = in.read();
+            if (version < 0) {
+                throw new EOFException("connection closed before FCGI_END_REQUEST");
+            }
+            int type = in.readUnsignedByte();
+            int id = in.readUnsignedShort();
+            int contentLen = in.readUnsignedShort();
+            int paddingLen = in.readUnsignedByte();
+            in.readUnsignedByte();
+            in.readFully(content, 0, contentLen);
+            in.skipNBytes(paddingLen);
+            if (id != requestID) {
+                continue;
+            }
+            if (type == FCGIGlobalDefs.def_FCGIStdout) {
+                stdout.write(content, 0, contentLen);
+            } else if (type == FCGIGlobalDefs.def_FCGIEndRequest) {
+                response.appStatus = FCGIRecordCodec.appStatus(content, 0);
+                response.protocolStatus = FCGIRecordCodec.protocolStatus(content, 0);
+                response.stdout = stdout.toByteArray();
+                return response;
+            }
+        }
+    }
+
+    /*
+     * Writes data as a stream of records followed by the empty EOF record.
+     */
+    private void writeStream(int type, int requestID, byte[] data) {
+        for (int off = 0; off < data.length; off += FCGIGlobalDefs.def_FCGIMaxLen) {
+            writeRecord(type, requestID, data, off,
+                Math.min(FCGIGlobalDefs.def_FCGIMaxLen, data.length - off));
+        }
+        writeRecord(type, requestID, data, 0, 0);
+    }
+
+    private void writeRecord(int type, int requestID, byte[] data, int off, int len) {
+        FCGIRecordCodec.encodeHeader(header, 0, type, requestID, len, 0);
+        record.write(header, 0, header.length);
+        record.write(data, off, len);
+    }
+
+    private static void writeNameValue(ByteArrayOutputStream nv, String name, String value) {
+        byte[] n = name.getBytes(StandardCharsets.UTF_8);
+        byte[] v = value.getBytes(StandardCharsets.UTF_8);
+        writeLength(nv, n.length);
+        writeLength(nv, v.length);
+        nv.writeBytes(n);
+        nv.writeBytes(v);
+    }
+
+    private static void writeLength(ByteArrayOutputStream nv, int len) {
+        if (len < 0x80) {
+            nv.write(len);
+        } else {
+            nv.write((len >> 24) | 0x80);
+            nv.write(len >> 16);
+            nv.write(len >> 8);
+            nv.write(len);
+        }
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,438 @@
+/*
+ * @(#)FCGIConnection.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/*
+ * One connection from the web server. Reads requests off the socket one
+ * after another (this is the per-connection part of
+ * FCGIInterface.FCGIAccept), hands each to the handler as an FCGIExchange
+ * and keeps going while the web server asks to keep the connection.
+ * From FCGI_BEGIN_REQUEST until the request is done the connection is
+ * receiving for FCGIKeepAlive, so the read timeout covers stdin too.
+ * While an FCGIAsyncHandler's request is pending the connection holds no
+ * thread; it goes on on a worker once the request completes.
+ */
+class FCGIConnection extends FCGIKeepAlive.Connection implements Runnable
+{
+    private final SocketChannel channel;
+    private final FCGIServerConfig config;
+    private final FCGIHandler handler;
+    private final Executor workers;
+    private final FCGIAdmission admission;
+    /* streams and their pooled buffers, kept for all requests */
+    private FCGIInputStream inStream;
+    private FCGIOutputStream outStream;
+    private FCGIOutputStream errStream;
+    private FCGIChannelOutputStream connOut;
+    /*
+     * Time the connection waited for a worker, counted as queue time of
+     * its first request; waiting for the request itself is not.
+     */
+    private final long acceptedAt = System.nanoTime();
+    private long poolWait;
+    private volatile boolean busy;
+    /* the request an FCGIAsyncHandler has not completed yet */
+    private FCGIExchange pending;
+    private CompletableFuture<Void> pendingDone;
+
+    FCGIConnection(SocketChannel channel, FCGIServerConfig config,
+        FCGIHandler handler, Executor workers, FCGIAdmission admission) {
+        this.channel = channel;
+        this.config = config;
+        this.handler = handler;
+        this.workers = workers;
+        this.admission = admission;
+    }
+
+    public void run() {
+        poolWait = System.nanoTime() - acceptedAt;
+        serve(true);
+    }
+
+    /*
+     * Serves requests while keep is true and the connection can be
+     * reused. Returns early, leaving the connection open, when a request
+     * goes on asynchronously; resume() picks up from there.
+     */
+    private void serve(boolean keep) {
+        boolean suspended = false;
+        try {
+            while (keep) {
+                keep = serveRequest();
+                if (pending != null) {
+                    FCGIExchange exchange = pending;
+                    CompletableFuture<Void> done = pendingDone;
+                    pending = null;
+                    pendingDone = null;
+                    suspended = true;
+                    done.whenComplete((r, e) -> resumeOnWorker(exchange));
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            /* connection is dropped below, nothing else to do */
+        } finally {
+            if (!suspended) {
+                close();
+            }
+        }
+    }
+
+    private void resumeOnWorker(FCGIExchange exchange) {
+        try {
+            workers.execute(() -> resume(exchange));
+        } catch (RejectedExecutionException e) {
+            /* the server is shutting down */
+            admission.finish();
+            exchange.finish();
+            busy = false;
+            requestDone();
+            close();
+        }
+    }
+
+    /*
+     * Ends the request that was pending and goes on with the connection.
+     */
+    private void resume(FCGIExchange exchange) {
+        boolean keep = false;
+        try {
+            admission.finish();
+            keep = complete(exchange);
+        } catch (IOException e) {
+            /* keep is false, the connection is closed */
+        } finally {
+            busy = false;
+            requestDone();
+        }
+        serve(keep);
+    }
+
+    private void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            /* ignore */
+        }
+        closed();
+        releaseBuffers();
+    }
+
+    private void releaseBuffers() {
+        FCGIBufferPool pool = FCGIBufferPool.SHARED;
+        if (inStream != null) {
+            pool.give(inStream.buff);
+        }
+        if (outStream != null) {
+            pool.give(outStream.buff);
+            pool.give(errStream.buff);
+        }
+        inStream = null;
+        outStream = errStream = null;
+    }
+
+    boolean isIdle() {
+        return !busy;
+    }
+
+    boolean isReceiving() {
+        return busy;
+    }
+
+    /*
+     * A reader blocked on the channel gets an AsynchronousCloseException.
+     */
+    void expire() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            /* ignore */
+        }
+    }
+
+    /*
+     * Reads and serves a single request. Returns true if the connection
+     * can be used for the next request.
+     */
+    boolean serveRequest() throws IOException {
+        FCGIRequest request = new FCGIRequest();
+        request.socket = socketOf(channel);
+        request.isBeginProcessed = false;
+        request.config = config;
+        if (connOut == null) {
+            connOut = new FCGIChannelOutputStream(channel);
+        }
+        request.connOut = connOut;
+        request.connChannel = connOut;
+        if (inStream == null) {
+            inStream = new FCGIInputStream(new FCGIChannelInputStream(channel, this),
+                FCGIBufferPool.SHARED.take(config.bufferSize), config.bufferSize,
+                0, request);
+        } else {
+            inStream.request = request;
+            inStream.setReaderType(0);
+        }
+        request.inStream = inStream;
+        inStream.fill();
+        if (!request.isBeginProcessed) {
+            return false;
+        }
+        long queuedAt = System.nanoTime() - poolWait;
+        poolWait = 0;
+        busy = true;
+        requestStarted();
+        try {
+            return serveBegun(request, queuedAt);
+        } finally {
+            if (pending == null) {
+                busy = false;
+                requestDone();
+            }
+        }
+    }
+
+    /*
+     * The rest of serveRequest(), once FCGI_BEGIN_REQUEST is in.
+     */
+    private boolean serveBegun(FCGIRequest request, long queuedAt)
+        throws IOException {
+        if (!initParams(request)) {
+            return false;
+        }
+        inStream.setReaderType(FCGIGlobalDefs.def_FCGIParams);
+        if (new FCGIMessage(inStream).readParams(request.params) < 0
+            || inStream.getFCGIError() != 0 || inStream.getException() != null) {
+            /* the connection failed before the params were complete */
+            return false;
+        }
+        if (request.aborted) {
+            /* aborted before its params were complete: never started */
+            endRequest(connOut, request.requestID,
+                FCGIGlobalDefs.def_FCGIRequestComplete);
+            return request.keepConnection;
+        }
+        inStream.setReaderType(FCGIGlobalDefs.def_FCGIStdin);
+        if (outStream == null) {
+            initOutput(request, connOut, config);
+            outStream = request.outStream;
+            errStream = request.errStream;
+        } else {
+            outStream.reset(request);
+            errStream.reset(request);
+            request.outStream = outStream;
+            request.errStream = errStream;
+            request.numWriters = 2;
+        }
+
+        FCGIExchange exchange = new FCGIExchange(request);
+        request.onAbort = () -> exchange.cancel(FCGIExchange.ABORTED);
+        if (admission.arrive() && admission.start(queuedAt)) {
+            CompletableFuture<Void> done = handleAsync(handler, exchange, config);
+            if (!done.isDone()) {
+                /* serve() lets the connection wait for it */
+                pending = exchange;
+                pendingDone = done;
+                return true;
+            }
+            admission.finish();
+        } else {
+            reject(handler, exchange);
+        }
+        return complete(exchange);
+    }
+
+    /*
+     * Ends the request; returns true if the connection can be used for
+     * the next one.
+     */
+    private boolean complete(FCGIExchange exchange) throws IOException {
+        if (!exchange.finish() || !exchange.getRequest().keepConnection) {
+            return false;
+        }
+        drainStdin();
+        return !exchange.failed();
+    }
+
+    /*
+     * Creates the params table with the ROLE entry, as FCGIInterface
+     * does. Returns false for a role this library does not know.
+     */
+    static boolean initParams(FCGIRequest request) {
+        request.params = new FCGIParams();
+        switch (request.role) {
+        case FCGIGlobalDefs.def_FCGIResponder:
+            request.params.put("ROLE", "RESPONDER");
+            break;
+        case FCGIGlobalDefs.def_FCGIAuthorizer:
+            request.params.put("ROLE", "AUTHORIZER");
+            break;
+        case FCGIGlobalDefs.def_FCGIFilter:
+            request.params.put("ROLE", "FILTER");
+            break;
+        default:
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * The channel to use for gathering writes to connOut, if it has one.
+     */
+    static GatheringByteChannel channelOf(OutputStream connOut) {
+        if (connOut instanceof GatheringByteChannel) {
+            return (GatheringByteChannel) connOut;
+        }
+        return null;
+    }
+
+    /*
+     * The Socket of a TCP channel, for FCGIRequest.socket; Unix domain
+     * channels have none.
+     */
+    static Socket socketOf(SocketChannel channel) {
+        try {
+            return channel.socket();
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Creates the output streams of a request, with buffers from the
+     * pool.
+     */
+    static void initOutput(FCGIRequest request, OutputStream connOut,
+        FCGIServerConfig config) {
+        FCGIBufferPool pool = FCGIBufferPool.SHARED;
+        request.outStream = new FCGIOutputStream(connOut,
+            pool.take(config.bufferSize), config.bufferSize,
+            FCGIGlobalDefs.def_FCGIStdout, request);
+        request.errStream = new FCGIOutputStream(connOut,
+            pool.take(config.errBufferSize), config.errBufferSize,
+            FCGIGlobalDefs.def_FCGIStderr, request);
+        request.outStream.channel = request.connChannel;
+        request.errStream.channel = request.connChannel;
+        request.numWriters = 2;
+    }
+
+    /*
+     * Runs the handler under the request's deadline. The returned future
+     * completes when the handler is done with the request: at once for a
+     * plain FCGIHandler, with the handler's stage for an
+     * FCGIAsyncHandler. It never completes exceptionally; a failing
+     * handler only fails its own request: the error is logged and
+     * reported through appStatus. Errors of a cancelled request are
+     * expected and not logged.
+     */
+    static CompletableFuture<Void> handleAsync(FCGIHandler handler,
+        FCGIExchange exchange, FCGIServerConfig config) {
+        long timeout = timeout(exchange, config);
+        if (timeout > 0) {
+            exchange.setDeadline(timeout);
+        }
+        try {
+            exchange.checkCancelled();
+            if (handler instanceof FCGIAsyncHandler) {
+                CompletionStage<?> stage
+                    = ((FCGIAsyncHandler) handler).handleAsync(exchange);
+                if (stage != null) {
+                    return stage.handle((result, failure) -> {
+                        if (failure != null) {
+                            failed(exchange, failure);
+                        }
+                        return (Void) null;
+                    }).toCompletableFuture();
+                }
+            } else {
+                handler.handle(exchange);
+            }
+        } catch (IOException | RuntimeException e) {
+            failed(exchange, e);
+        }
+        return DONE;
+    }
+
+    private static final CompletableFuture<Void> DONE
+        = CompletableFuture.completedFuture(null);
+
+    private static void failed(FCGIExchange exchange, Throwable failure) {
+        exchange.setAppStatus(1);
+        if (!exchange.isCancelled()) {
+            failure.printStackTrace();
+        }
+    }
+
+    /*
+     * The request's time limit in milliseconds: requestTimeout, or the
+     * value of the deadlineParam param if that is shorter. 0 for none.
+     */
+    static long timeout(FCGIExchange exchange, FCGIServerConfig config) {
+        long timeout = config.requestTimeout;
+        if (config.deadlineParam != null) {
+            String value = exchange.getParam(config.deadlineParam);
+            if (value != null) {
+                try {
+                    long requested = Long.parseLong(value.trim());
+                    if (requested > 0 && (timeout <= 0 || requested < timeout)) {
+                        timeout = requested;
+                    }
+                } catch (NumberFormatException e) {
+                    /* ignore a malformed value */
+                }
+            }
+        }
+        return timeout;
+    }
+
+    /*
+     * Answers a request refused by admission control: with the handler's
+     * overload reply if it has one, else with FCGI_OVERLOAD.
+     */
+    static void reject(FCGIHandler handler, FCGIExchange exchange) {
+        try {
+            if (handler.overloaded(exchange)) {
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            exchange.setAppStatus(1);
+            e.printStackTrace();
+            return;
+        }
+        exchange.refuse(FCGIGlobalDefs.def_FCGIOverload);
+    }
+
+    /*
+     * Writes a lone FCGI_END_REQUEST record to connOut.
+     */
+    static void endRequest(OutputStream connOut, int requestID,
+        int protocolStatus) throws IOException {
+        byte[] rec = new byte[FCGIGlobalDefs.def_FCGIHeaderLen
+            + FCGIGlobalDefs.def_FCGIEndReqBodyLen];
+        FCGIRecordCodec.encodeEndRequest(rec, 0, requestID, 0, protocolStatus);
+        synchronized (connOut) {
+            connOut.write(rec);
+        }
+    }
+
+    /*
+     * The web server sends the whole FCGI_STDIN stream no matter how much
+     * of it the application has read. Consume the rest so the next header
+     * read from a kept connection starts at a record boundary.
+     */
+    private void drainStdin() throws IOException {
+        inStream.skip(Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * @(#)FCGIDemultiplexer.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/*
+ * Routes the records of one connection to the requests they belong to.
+ * PARAMS and STDIN content goes into per-request FCGIRecordQueues and a
+ * request is started on the workers as soon as its params are complete.
+ * Every request then reads its own FCGIInputStream and writes through
+ * FCGIOutputStreams that lock the shared connOut, so STDOUT/STDERR and
+ * END_REQUEST records of different requests never interleave mid-record.
+ *
+ * The records are fed in by whoever reads the connection: the reader
+ * thread of FCGIMultiplexedConnection, or an event loop of the selector
+ * engine. Stream records may be fed in pieces, as long as only the last,
+ * empty record of a stream is fed with no content.
+ *
+ * A stdin queue holds at most config.maxPendingInput bytes (plus the
+ * record that crossed it) that the handler has not read yet. Readers
+ * check awaitStdinRoom() or stdinHasRoom() around STDIN records and stop
+ * reading the connection while it is full, so a request queued for
+ * admission, or one whose handler never reads its body, holds its upload
+ * back in the web server rather than in the heap.
+ */
+class FCGIDemultiplexer
+{
+    private final FCGIServerConfig config;
+    private final FCGIHandler handler;
+    private final Executor workers;
+    private final FCGIAdmission admission;
+    private final OutputStream connOut;
+    private final Socket socket;
+    private final Runnable closer;
+    private final FCGIKeepAlive.Connection conn;
+    private final Map<Integer, FCGIRequest> requests = new ConcurrentHashMap<>();
+    private final Map<Integer, FCGIParams> paramTables = new ConcurrentHashMap<>();
+    private final Map<Integer, FCGIRecordQueue> stdinQueues = new ConcurrentHashMap<>();
+    private int inFlight;
+    private boolean closeWhenIdle;
+    private boolean closed;
+
+    /*
+     * closer is called once, when the connection is to be closed and no
+     * request is in progress any more. conn is told when requests begin
+     * and end.
+     */
+    FCGIDemultiplexer(FCGIServerConfig config, FCGIHandler handler,
+        Executor workers, FCGIAdmission admission, OutputStream connOut,
+        Socket socket, Runnable closer, FCGIKeepAlive.Connection conn) {
+        this.config = config;
+        this.handler = handler;
+        this.workers = workers;
+        this.admission = admission;
+        this.connOut = connOut;
+        this.socket = socket;
+        this.closer = closer;
+        this.conn = conn;
+    }
+
+    /*
+     * No request is in progress, for FCGIKeepAlive.
+     */
+    boolean isIdle() {
+        return requests.isEmpty();
+    }
+
+    /*
+     * Some request still has params or stdin to come.
+     */
+    boolean isReceiving() {
+        return !stdinQueues.isEmpty();
+    }
+
+    /*
+     * Handles one record (or, for PARAMS and STDIN, a piece of one).
+     */
+    void record(int type, int requestID, byte[] content, int off, int len)
+        throws IOException {
+        if (requestID == FCGIGlobalDefs.def_FCGINullRequestID) {
+            management(type, content, off, len);
+            return;
+        }
+        switch (type) {
+        case FCGIGlobalDefs.def_FCGIBeginRequest:
+            begin(requestID, content, off, len);
+            break;
+        case FCGIGlobalDefs.def_FCGIParams:
+            params(requestID, content, off, len);
+            break;
+        case FCGIGlobalDefs.def_FCGIStdin:
+            stdin(requestID, content, off, len);
+            break;
+        case FCGIGlobalDefs.def_FCGIAbortRequest:
+            abort(requestID);
+            break;
+        default:
+            /* records for unknown or finished requests are dropped */
+            break;
+        }
+    }
+
+    private void begin(int requestID, byte[] body, int off, int len) throws IOException {
+        if (len != FCGIGlobalDefs.def_FCGIBeginReqBodyLen) {
+            throw new IOException("bad FCGI_BEGIN_REQUEST body");
+        }
+        conn.requestStarted();
+        FCGIRequest request = new FCGIRequest();
+        request.socket = socket;
+        request.connOut = connOut;
+        request.connChannel = FCGIConnection.channelOf(connOut);
+        request.requestID = requestID;
+        request.role = FCGIRecordCodec.role(body, off);
+        request.keepConnection
+            = (FCGIRecordCodec.flags(body, off) & FCGIGlobalDefs.def_FCGIKeepConn) != 0;
+        request.isBeginProcessed = true;
+        if (!FCGIConnection.initParams(request)) {
+            endRequest(requestID, FCGIGlobalDefs.def_FCGIUnknownRole);
+            conn.requestDone();
+            return;
+        }
+        FCGIBufferPool pool = FCGIBufferPool.SHARED;
+        FCGIRecordQueue stdin = new FCGIRecordQueue(pool.take(config.bufferSize),
+            config.maxPendingInput);
+        request.inStream = new FCGIInputStream(stdin,
+            pool.take(config.bufferSize), config.bufferSize,
+            FCGIGlobalDefs.def_FCGIStdin, request);
+        FCGIConnection.initOutput(request, connOut, config);
+        requests.put(requestID, request);
+        paramTables.put(requestID, request.params);
+        stdinQueues.put(requestID, stdin);
+    }
+
+    private void params(int requestID, byte[] content, int off, int len) throws IOException {
+        FCGIParams params = paramTables.get(requestID);
+        if (params == null) {
+            return;
+        }
+        if (len > 0) {
+            params.append(content, off, len);
+            return;
+        }
+        /*
+         * Empty record: the params are complete, start the request.
+         */
+        paramTables.remove(requestID);
+        FCGIRequest request = requests.get(requestID);
+        if (!params.isComplete()) {
+            endUnstarted(request);
+            return;
+        }
+        synchronized (this) {
+            inFlight++;
+        }
+        FCGIExchange exchange = new FCGIExchange(request);
+        request.onAbort = () -> exchange.cancel(FCGIExchange.ABORTED);
+        if (!admission.arrive()) {
+            /*
+             * Refused without taking a worker.
+             */
+            finish(exchange, () -> FCGIConnection.reject(handler, exchange));
+            return;
+        }
+        long queuedAt = System.nanoTime();
+        workers.execute(() -> serve(exchange, queuedAt));
+    }
+
+    /*
+     * FCGI_ABORT_REQUEST: a request still receiving params is ended right
+     * away; a running or queued one is cancelled and its stdin closed, it
+     * ends when its handler returns.
+     */
+    private void abort(int requestID) throws IOException {
+        FCGIRequest request = requests.get(requestID);
+        if (request == null) {
+            return;
+        }
+        if (paramTables.remove(requestID) != null) {
+            endUnstarted(request);
+            return;
+        }
+        /* cancel first, so a handler woken by the end of stdin sees it */
+        if (request.onAbort != null) {
+            request.onAbort.run();
+        }
+        FCGIRecordQueue stdin = stdinQueues.remove(requestID);
+        if (stdin != null) {
+            stdin.closeInput();
+        }
+    }
+
+    /*
+     * Ends a request that was never passed to a worker.
+     */
+    private void endUnstarted(FCGIRequest request) throws IOException {
+        requests.remove(request.requestID);
+        stdinQueues.remove(request.requestID);
+        synchronized (this) {
+            inFlight++;
+        }
+        try {
+            endRequest(request.requestID, FCGIGlobalDefs.def_FCGIRequestComplete);
+        } finally {
+            releaseBuffers(request);
+            requestDone(request.keepConnection);
+        }
+    }
+
+    /*
+     * Gives the buffers of a request that is done back to the pool. Its
+     * output streams are closed and its stdin queue takes no more
+     * records, so nothing writes to them any more.
+     */
+    private static void releaseBuffers(FCGIRequest request) {
+        FCGIBufferPool pool = FCGIBufferPool.SHARED;
+        pool.give(((FCGIRecordQueue) request.inStream.in).release());
+        pool.give(request.inStream.buff);
+        pool.give(request.outStream.buff);
+        pool.give(request.errStream.buff);
+    }
+
+    /*
+     * For a reader thread, before it feeds an FCGI_STDIN record: waits
+     * while the stdin queue of requestID is full.
+     */
+    void awaitStdinRoom(int requestID) throws IOException {
+        FCGIRecordQueue queue = stdinQueues.get(requestID);
+        if (queue != null) {
+            queue.awaitRoom();
+        }
+    }
+
+    /*
+     * For an event loop, after it fed an FCGI_STDIN record: returns false
+     * if the stdin queue of requestID is full, in which case the loop
+     * stops reading until resume runs (once, on the thread that drained
+     * or closed the queue).
+     */
+    boolean stdinHasRoom(int requestID, Runnable resume) {
+        FCGIRecordQueue queue = stdinQueues.get(requestID);
+        return queue == null || queue.hasRoom(resume);
+    }
+
+    private void stdin(int requestID, byte[] content, int off, int len) {
+        FCGIRecordQueue queue = stdinQueues.get(requestID);
+        if (queue == null) {
+            return;
+        }
+        queue.putRecord(FCGIGlobalDefs.def_FCGIStdin, requestID, content, off, len);
+        if (len == 0) {
+            stdinQueues.remove(requestID);
+            queue.closeInput();
+        }
+    }
+
+    /*
+     * Runs on a worker. The request of an FCGIAsyncHandler is ended on
+     * the thread that completes it.
+     */
+    private void serve(FCGIExchange exchange, long queuedAt) {
+        if (!admission.start(queuedAt)) {
+            finish(exchange, () -> FCGIConnection.reject(handler, exchange));
+            return;
+        }
+        CompletableFuture<Void> done;
+        try {
+            done = FCGIConnection.handleAsync(handler, exchange, config);
+        } catch (Error e) {
+            admission.finish();
+            end(exchange);
+            throw e;
+        }
+        done.whenComplete((r, e) -> {
+            admission.finish();
+            end(exchange);
+        });
+    }
+
+    /*
+     * Runs the request and ends it.
+     */
+    private void finish(FCGIExchange exchange, Runnable body) {
+        try {
+            body.run();
+        } finally {
+            end(exchange);
+        }
+    }
+
+    /*
+     * Ends a request: closes its streams (FCGI_END_REQUEST) and lets the
+     * connection go if it was the last one.
+     */
+    private void end(FCGIExchange exchange) {
+        FCGIRequest request = exchange.getRequest();
+        /*
+         * Forget the ID before END_REQUEST goes out, the web server
+         * may reuse it right after.
+         */
+        requests.remove(request.requestID);
+        FCGIRecordQueue stdin = stdinQueues.remove(request.requestID);
+        if (stdin != null) {
+            stdin.closeInput();
+        }
+        exchange.finish();
+        releaseBuffers(request);
+        requestDone(request.keepConnection);
+    }
+
+    private void requestDone(boolean keepConnection) {
+        conn.requestDone();
+        synchronized (this) {
+            inFlight--;
+            if (!keepConnection) {
+                closeWhenIdle = true;
+            }
+            if (!closeWhenIdle || inFlight > 0 || closed) {
+                return;
+            }
+            closed = true;
+        }
+        closer.run();
+    }
+
+    /*
+     * The web server closed its side of the connection, or the reader
+     * gave up on it. Requests in progress see EOF on stdin and the
+     * connection is closed once the last of them has finished.
+     */
+    void inputClosed() {
+        for (FCGIRecordQueue queue : stdinQueues.values()) {
+            queue.closeInput();
+        }
+        paramTables.clear();
+        synchronized (this) {
+            closeWhenIdle = true;
+            if (inFlight > 0 || closed) {
+                return;
+            }
+            closed = true;
+        }
+        closer.run();
+    }
+
+    /*
+     * Management records are handled like on a plain connection, by
+     * FCGIMessage, reading the record back from a queue.
+     */
+    private void management(int type, byte[] content, int off, int len) {
+        FCGIRequest request = new FCGIRequest();
+        request.connOut = connOut;
+        request.connChannel = FCGIConnection.channelOf(connOut);
+        request.config = config;
+        FCGIRecordQueue queue = new FCGIRecordQueue(len + FCGIGlobalDefs.def_FCGIHeaderLen);
+        queue.putRecord(type, FCGIGlobalDefs.def_FCGINullRequestID, content, off, len);
+        queue.closeInput();
+        try {
+            new FCGIInputStream(queue, config.bufferSize, 0, request).fill();
+        } catch (IOException e) {
+            /* nothing to reply to */
+        }
+    }
+
+    private void endRequest(int requestID, int protocolStatus) throws IOException {
+        FCGIConnection.endRequest(connOut, requestID, protocolStatus);
+    }
+}
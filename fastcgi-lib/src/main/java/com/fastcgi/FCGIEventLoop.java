@@ -0,0 +1,111 @@
+/*
+ * @(#)FCGIEventLoop.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * One selector thread of the selector engine. Channels are registered
+ * with a Handler as attachment; other threads talk to the loop only
+ * through execute(), which queues a task and wakes the selector up.
+ */
+class FCGIEventLoop implements Runnable
+{
+    /*
+     * Called on the loop thread for the ready operations of a key.
+     */
+    interface Handler
+    {
+        void ready(SelectionKey key) throws IOException;
+
+        /*
+         * The handler failed or the loop is shutting down.
+         */
+        void fail(IOException e);
+    }
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    private Thread thread;
+
+    FCGIEventLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /*
+     * Runs task on the loop thread, right away if called from it.
+     */
+    void execute(Runnable task) {
+        if (inLoop()) {
+            task.run();
+            return;
+        }
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    public void run() {
+        thread = Thread.currentThread();
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                break;
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Handler handler = (Handler) key.attachment();
+                try {
+                    if (key.isValid()) {
+                        handler.ready(key);
+                    }
+                } catch (IOException e) {
+                    handler.fail(e);
+                } catch (RuntimeException e) {
+                    /*
+                     * A bug in one connection's state machine must not end
+                     * the loop and every other channel registered on it.
+                     */
+                    e.printStackTrace();
+                    handler.fail(new IOException("connection handler failed", e));
+                }
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((Handler) key.attachment()).fail(new IOException("server closed"));
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            /* ignore */
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * @(#)FCGIExchange.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The per-request view handed to an FCGIHandler: request params and the
+ * FCGI_STDIN, FCGI_STDOUT and FCGI_STDERR streams of one request. This is
+ * what FCGIInterface exposes through System.props/in/out/err, minus the
+ * JVM-global state.
+ */
+public class FCGIExchange
+{
+    public static final String ABORTED = "request aborted";
+    public static final String DEADLINE_EXCEEDED = "deadline exceeded";
+
+    private final FCGIRequest request;
+    private boolean finished;
+    private volatile String cancelled;
+    private List<Runnable> cancelListeners;
+    private ScheduledFuture<?> deadline;
+
+    public FCGIExchange(FCGIRequest request) {
+        this.request = request;
+    }
+
+    /*
+     * Deadlines of all servers share one timer thread.
+     */
+    private static class Timer
+    {
+        static final ScheduledExecutorService INSTANCE = newTimer();
+
+        private static ScheduledExecutorService newTimer() {
+            ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+                FCGIServer.namedThreads("fcgi-deadline-"));
+            timer.setRemoveOnCancelPolicy(true);
+            return timer;
+        }
+    }
+
+    /*
+     * Returns the value of a request param (CGI environment variable),
+     * or null if the web server did not send it.
+     */
+    public String getParam(String name) {
+        return request.params.get(name);
+    }
+
+    public String getParam(String name, String defaultValue) {
+        return request.params.get(name, defaultValue);
+    }
+
+    /*
+     * All params; FCGIParams.toProperties() gives them as Properties.
+     */
+    public FCGIParams getParams() {
+        return request.params;
+    }
+
+    public int getRequestID() {
+        return request.requestID;
+    }
+
+    public int getRole() {
+        return request.role;
+    }
+
+    /*
+     * FCGI_STDIN of the request. The stream is already buffered.
+     */
+    public InputStream getInputStream() {
+        return request.inStream;
+    }
+
+    /*
+     * FCGI_STDIN as a channel. Large reads into a ByteBuffer skip the
+     * stream's buffer and get the record content straight from the
+     * connection.
+     */
+    public ReadableByteChannel getInputChannel() {
+        return request.inStream;
+    }
+
+    /*
+     * FCGI_STDOUT of the request. The stream is already buffered, content
+     * is sent in FCGI records as the buffer fills up or on flush().
+     */
+    public OutputStream getOutputStream() {
+        return request.outStream;
+    }
+
+    public OutputStream getErrorStream() {
+        return request.errStream;
+    }
+
+    /*
+     * Sets the application status reported in FCGI_END_REQUEST.
+     */
+    public void setAppStatus(int appStatus) {
+        request.appStatus = appStatus;
+    }
+
+    public FCGIRequest getRequest() {
+        return request;
+    }
+
+    /*
+     * Completes the request: closes stderr and stdout, the last one
+     * writes FCGI_END_REQUEST. Returns false if the request failed and
+     * the connection must not be reused.
+     */
+    public boolean finish() {
+        synchronized (this) {
+            if (finished) {
+                return !failed();
+            }
+            finished = true;
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+        }
+        if (request.outStream == null) {
+            return true;
+        }
+        try {
+            request.errStream.close();
+        } catch (IOException e) {
+            request.errStream.setException(e);
+        }
+        try {
+            request.outStream.close();
+        } catch (IOException e) {
+            request.outStream.setException(e);
+        }
+        return !failed();
+    }
+
+    /*
+     * Cancellation. A request is cancelled when the web server aborts it
+     * (FCGI_ABORT_REQUEST) or its deadline passes. Its output is dropped
+     * from then on, and stdin ends; the handler is not interrupted but
+     * should look at isCancelled() or call checkCancelled() between
+     * steps of long work, or register an onCancel() action.
+     */
+    public boolean isCancelled() {
+        return cancelled != null;
+    }
+
+    /*
+     * Returns why the request was cancelled (ABORTED or
+     * DEADLINE_EXCEEDED), or null.
+     */
+    public String getCancelReason() {
+        return cancelled;
+    }
+
+    public void checkCancelled() throws InterruptedIOException {
+        String reason = cancelled;
+        if (reason != null) {
+            throw new InterruptedIOException(reason);
+        }
+    }
+
+    /*
+     * Runs action when the request is cancelled, right away if it already
+     * is. Actions run on the thread that cancels and must not block.
+     */
+    public void onCancel(Runnable action) {
+        synchronized (this) {
+            if (cancelled == null) {
+                if (cancelListeners == null) {
+                    cancelListeners = new ArrayList<>();
+                }
+                cancelListeners.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    public void cancel(String reason) {
+        List<Runnable> actions;
+        synchronized (this) {
+            if (cancelled != null || finished) {
+                return;
+            }
+            cancelled = reason;
+            actions = cancelListeners;
+            cancelListeners = null;
+        }
+        /* exchanges of an FCGIRunner have no record streams */
+        if (request.outStream != null) {
+            request.outStream.discard = true;
+            request.errStream.discard = true;
+        }
+        if (actions != null) {
+            for (Runnable action : actions) {
+                action.run();
+            }
+        }
+    }
+
+    /*
+     * Cancels the request with DEADLINE_EXCEEDED once timeoutMillis have
+     * passed, unless it has finished by then.
+     */
+    public synchronized void setDeadline(long timeoutMillis) {
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+        deadline = Timer.INSTANCE.schedule(() -> cancel(DEADLINE_EXCEEDED),
+            timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Ends a refused request: only FCGI_END_REQUEST with protocolStatus
+     * is sent, without any stdout/stderr records.
+     */
+    void refuse(int protocolStatus) {
+        synchronized (this) {
+            finished = true;
+        }
+        request.outStream.isClosed = true;
+        request.errStream.isClosed = true;
+        try {
+            FCGIConnection.endRequest(request.connOut, request.requestID,
+                protocolStatus);
+        } catch (IOException e) {
+            request.outStream.setException(e);
+        }
+    }
+
+    boolean failed() {
+        if (request.outStream == null) {
+            return false;
+        }
+        return request.inStream.getFCGIError() != 0
+            || request.inStream.getException() != null
+            || request.outStream.getException() != null
+            || request.errStream.getException() != null;
+    }
+}
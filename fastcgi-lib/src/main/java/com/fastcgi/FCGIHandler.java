@@ -0,0 +1,34 @@
+/*
+ * @(#)FCGIHandler.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+
+/*
+ * Application callback used by FCGIServer. Each accepted request is
+ * handed over as its own FCGIExchange, so the handler can be called
+ * concurrently from several worker threads and must not rely on
+ * System.in/out or System properties.
+ */
+public interface FCGIHandler
+{
+    /*
+     * Processes one request. The exchange is finished (stdout/stderr
+     * closed and FCGI_END_REQUEST sent) by the server when this returns.
+     */
+    void handle(FCGIExchange exchange) throws IOException;
+
+    /*
+     * Called instead of handle() for a request that is refused because
+     * the server is overloaded (see FCGIServerConfig.maxRequests). It may
+     * write a short canned reply, such as an HTTP 503, and return true;
+     * it may run on an I/O thread and must not block. By default the
+     * request is ended with FCGI_OVERLOAD and nothing on stdout.
+     */
+    default boolean overloaded(FCGIExchange exchange) throws IOException {
+        return false;
+    }
+}
@@ -14,11 +14,16 @@
 package com.fastcgi;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * This stream manages buffered reads of FCGI messages.
+ * It can also be read as a channel; reads of record content that is not
+ * buffered yet then go straight from the connection into the caller's
+ * buffer.
  */
-public class FCGIInputStream extends InputStream
+public class FCGIInputStream extends InputStream implements ReadableByteChannel
 {
     private static final String RCSID = "$Id: FCGIInputStream.java,v 1.4 2000/03/21 12:12:25 robs Exp $";
 
@@ -46,6 +51,11 @@ public class FCGIInputStream extends InputStream
 
     public InputStream in;
 
+    /* header assembly space and the message that interprets headers,
+     * both reused for every record */
+    private final byte[] headerBuf = new byte[FCGIGlobalDefs.def_FCGIHeaderLen];
+    private final FCGIMessage message = new FCGIMessage(this);
+
 
     /**
     * Creates a new input stream to manage fcgi prototcol stuff
@@ -54,10 +64,22 @@ public class FCGIInputStream extends InputStream
     public FCGIInputStream(InputStream inStream, int bufLen,
         int streamType,
         FCGIRequest inReq) {
+        this(inStream, new byte[Math.min(bufLen,FCGIGlobalDefs.def_FCGIMaxLen)],
+            bufLen, streamType, inReq);
+    }
+
+    /**
+    * Same, using buf (from FCGIBufferPool, say) as buffer. Only the
+    * first bufLen bytes of it are used.
+    */
+    public FCGIInputStream(InputStream inStream, byte buf[], int bufLen,
+        int streamType,
+        FCGIRequest inReq) {
 
         in = inStream;
-        buffLen = Math.min(bufLen,FCGIGlobalDefs.def_FCGIMaxLen);
-        buff = new byte[buffLen];
+        buffLen = Math.min(Math.min(bufLen, buf.length),
+            FCGIGlobalDefs.def_FCGIMaxLen);
+        buff = buf;
         type = streamType;
         stop = rdNext = buffStop = 0;
         isClosed = false;
@@ -140,11 +162,107 @@ public class FCGIInputStream extends InputStream
                 off += m;
             }
             if (isClosed){
-                return bytesMoved;
+                return bytesMoved == 0 ? -1 : bytesMoved;
             }
+            /*
+            * The rest of the current record is still in the connection;
+            * if the caller wants at least a buffer full, skip the copy.
+            */
+            if (canReadDirect() && len - bytesMoved >= buffLen) {
+                m = readDirect(b, off, len - bytesMoved);
+                if (m < 0) {
+                    return bytesMoved == 0 ? -1 : bytesMoved;
+                }
+                return bytesMoved + m;
+            }
+            fill();
+
+        }
+    }
+
+    /**
+    * Reads into a ByteBuffer, for use as a ReadableByteChannel.
+    * Content that has not been buffered yet is read straight into dst,
+    * from the connection channel if dst is direct.
+    * @return  the number of bytes read, -1 at the end of the stream.
+    * @exception IOException If an I/O error has occurred.
+    */
+    public int read(ByteBuffer dst) throws IOException {
+        int len = dst.remaining();
+        if (len == 0) {
+            return 0;
+        }
+        if (rdNext == stop && !isClosed && !canReadDirect()) {
             fill();
+        }
+        if (rdNext != stop) {
+            int m = Math.min(len, stop - rdNext);
+            dst.put(buff, rdNext, m);
+            rdNext += m;
+            return m;
+        }
+        if (isClosed) {
+            return -1;
+        }
+        if (dst.hasArray()) {
+            int m = readDirect(dst.array(), dst.arrayOffset() + dst.position(), len);
+            if (m > 0) {
+                dst.position(dst.position() + m);
+            }
+            return m;
+        }
+        if (in instanceof ReadableByteChannel) {
+            int limit = dst.limit();
+            dst.limit(dst.position() + Math.min(len, contentLen));
+            int m;
+            try {
+                m = ((ReadableByteChannel) in).read(dst);
+            } catch (IOException e) {
+                setException(e);
+                return -1;
+            } finally {
+                dst.limit(limit);
+            }
+            return directRead(m);
+        }
+        fill();
+        return read(dst);
+    }
+
+    /*
+    * True if the buffer is used up and the current record has content
+    * left that can be read from the connection without going through it.
+    */
+    private boolean canReadDirect() {
+        return rdNext == stop && rdNext == buffStop && contentLen > 0
+            && !skip && !isClosed;
+    }
+
+    private int readDirect(byte b[], int off, int len) throws IOException {
+        int count;
+        try {
+            count = in.read(b, off, Math.min(len, contentLen));
+        } catch (IOException e) {
+            setException(e);
+            return -1;
+        }
+        return directRead(count);
+    }
 
+    private int directRead(int count) {
+        if (count <= 0) {
+            setFCGIError(FCGIGlobalDefs.def_FCGIProtocolError);
+            return -1;
         }
+        contentLen -= count;
+        return count;
+    }
+
+    /*
+    * Open until closed or at the end of the stream.
+    */
+    public boolean isOpen() {
+        return !isClosed || rdNext != stop;
     }
     /**
     * Reads into an array of bytes.  This method will
@@ -157,22 +275,29 @@ public class FCGIInputStream extends InputStream
     * @exception IOException If an I/O error has occurred.
     */
     public void  fill() throws IOException {
-        byte[] headerBuf = new byte[FCGIGlobalDefs.def_FCGIHeaderLen];
+        byte[] hdr;
+        int hdrOff;
         int headerLen = 0;
         int status = 0;
         int count = 0;
         for(;;) {
             /*
-            * If buffer is empty, do a read
+            * If buffer is empty, do a read - unless a recursive call has
+            * just reached the end of its record, which must not wait for
+            * the next one
             */
-            if (rdNext == buffStop) {
+            if (rdNext == buffStop
+                && !(eorStop && contentLen == 0 && paddingLen == 0)) {
                 try {
                     count = in.read(buff, 0, buffLen);
                 } catch (IOException e) {
                     setException(e);
                     return;
                 }
-                if (count == 0) {
+                if (count <= 0) {
+                    /* 0 is a protocol error, -1 is the web server closing a
+                     * kept connection; either way there is nothing to read
+                     */
                     setFCGIError(FCGIGlobalDefs.def_FCGIProtocolError);
                     return;
                 }
@@ -221,13 +346,24 @@ public class FCGIInputStream extends InputStream
             }
             /*
              * Fill header with bytes from input buffer - get the whole header.
+             * If it is all in the buffer, it is decoded where it is.
              */
-            count = Math.min(headerBuf.length - headerLen, buffStop - rdNext);
-            System.arraycopy(buff,rdNext, headerBuf, headerLen, count);
-            headerLen += count;
-            rdNext  += count;
-            if (headerLen < headerBuf.length) {
-                continue;
+            if (headerLen == 0
+                && buffStop - rdNext >= FCGIGlobalDefs.def_FCGIHeaderLen) {
+                hdr = buff;
+                hdrOff = rdNext;
+                rdNext += FCGIGlobalDefs.def_FCGIHeaderLen;
+            }
+            else {
+                count = Math.min(headerBuf.length - headerLen, buffStop - rdNext);
+                System.arraycopy(buff,rdNext, headerBuf, headerLen, count);
+                headerLen += count;
+                rdNext  += count;
+                if (headerLen < headerBuf.length) {
+                    continue;
+                }
+                hdr = headerBuf;
+                hdrOff = 0;
             }
             headerLen = 0;
             /*
@@ -237,7 +373,7 @@ public class FCGIInputStream extends InputStream
             eorStop = true;
             stop = rdNext;
             status = 0;
-            status = new FCGIMessage(this).processHeader(headerBuf);
+            status = message.processHeader(hdr, hdrOff);
             eorStop = false;
             isClosed = false;
             switch (status){
@@ -277,8 +413,20 @@ public class FCGIInputStream extends InputStream
      * @exception IOException If an I/O error has occurred.
      */
     public long skip(long n) throws IOException {
-        byte data[] = new byte[(int)n];
-        return in.read(data);
+        long skipped = 0;
+        while (skipped < n) {
+            if (rdNext == stop) {
+                if (isClosed) {
+                    break;
+                }
+                fill();
+                continue;
+            }
+            int m = (int) Math.min(n - skipped, stop - rdNext);
+            rdNext += m;
+            skipped += m;
+        }
+        return skipped;
     }
 
     /*
@@ -22,6 +22,7 @@ import java.util.Properties;
  * This is the FastCGI interface that the application calls to communicate with the
  * FastCGI web server. This version is single threaded, and handles one request at
  * a time, which is why we can have a static variable for it.
+ * For concurrent request handling use FCGIServer instead.
  */
 public class FCGIInterface
 {
@@ -35,6 +36,11 @@ public class FCGIInterface
     public static boolean isFCGI = true;
     public static Properties startupProps;
     public static ServerSocket srvSocket;
+    /* FCGI_IDLE_TIMEOUT: ms a kept connection may wait for its next request */
+    public static int idleTimeout;
+    /* System.out and System.err of the requests on the current connection */
+    private static PrintStream stdout;
+    private static PrintStream stderr;
 
     /*
     * Accepts a new request from the HTTP server and creates
@@ -86,6 +92,8 @@ public class FCGIInterface
                     return -1;
                 }
                 int portNum = Integer.parseInt(str);
+                idleTimeout = FCGIServerConfig.intProperty(
+                    System.getProperties(), "FCGI_IDLE_TIMEOUT", 0);
 
                 try {
                     srvSocket = new ServerSocket(portNum);
@@ -119,14 +127,19 @@ public class FCGIInterface
             }
 
             /*
-            * redirect stdin, stdout and stderr to fcgi socket
+            * redirect stdin, stdout and stderr to fcgi socket. The fcgi
+            * streams are buffered already; they, and the PrintStreams
+            * around them, are used again for the next request on the
+            * same connection.
             */
-            System.setIn(new BufferedInputStream(request.inStream, 8192));
-            System.setOut(new PrintStream(new BufferedOutputStream(
-                request.outStream, 8192)));
-            System.setErr(new PrintStream(new BufferedOutputStream(
-                request.errStream, 512)));
-            System.setProperties(request.params);
+            if (stdout == null) {
+                stdout = new PrintStream(request.outStream);
+                stderr = new PrintStream(request.errStream);
+            }
+            System.setIn(request.inStream);
+            System.setOut(stdout);
+            System.setErr(stderr);
+            System.setProperties(request.params.toProperties(startupProps));
         }
         return 0;
     }
@@ -147,16 +160,30 @@ public class FCGIInterface
 
         if (request != null) {
             /*
-             * Complete the previous request
+             * Complete the previous request. Only the fcgi streams are
+             * closed, the PrintStreams are kept for the next request.
              */
-            System.err.close();
-            System.out.close();
+            System.err.flush();
+            System.out.flush();
+            request.errStream.close();
+            request.outStream.close();
+            if (request.keepConnection
+                && request.inStream.getFCGIError() == 0
+                && request.inStream.getException() == null) {
+                /*
+                 * The input stream is kept too: skip the stdin the
+                 * application did not read, so the next header read
+                 * starts at a record boundary.
+                 */
+                request.inStream.skip(Long.MAX_VALUE);
+            }
             boolean prevRequestfailed = (errCloseEx || outCloseEx ||
                 request.inStream.getFCGIError() != 0 ||
                 request.inStream.getException() != null);
             if (prevRequestfailed || !request.keepConnection ) {
                 request.socket.close();
                 request.socket = null;
+                releaseStreams();
             }
             if (prevRequestfailed) {
                 request = null;
@@ -190,20 +217,30 @@ public class FCGIInterface
 
             /* Try reading from new connection. If the read fails and
              * it was an old connection the web server probably closed it;
-             * try making a new connection before giving up
+             * try making a new connection before giving up. A kept
+             * connection that stays silent past the idle timeout is
+             * given up the same way instead of blocking forever.
              */
+            request.socket.setSoTimeout(isNewConnection ? 0 : idleTimeout);
             request.isBeginProcessed = false;
-            request.inStream =
-                new FCGIInputStream(request.
-                socket.getInputStream(),
-                8192, 0, request);
+            if (request.inStream == null) {
+                request.inStream =
+                    new FCGIInputStream(request.
+                    socket.getInputStream(),
+                    FCGIBufferPool.SHARED.take(8192), 8192, 0, request);
+            }
+            else {
+                request.inStream.setReaderType(0);
+            }
             request.inStream.fill();
             if (request.isBeginProcessed) {
+                request.socket.setSoTimeout(0);
                 break;
             }
             request.socket.close();
 
                 request.socket = null;
+            releaseStreams();
             if (isNewConnection) {
                 return -1;
             }
@@ -211,7 +248,7 @@ public class FCGIInterface
         /*
         * Set up the objects for the new request
         */
-        request.params = new Properties(startupProps);
+        request.params = new FCGIParams();
         switch(request.role) {
         case FCGIGlobalDefs.def_FCGIResponder:
             request.params.put("ROLE","RESPONDER");
@@ -233,15 +270,41 @@ public class FCGIInterface
             return -1;
         }
         request.inStream.setReaderType(FCGIGlobalDefs.def_FCGIStdin);
-        request.outStream
-            =  new FCGIOutputStream(request.socket.
-            getOutputStream(), 8192,
-            FCGIGlobalDefs.def_FCGIStdout,request);
-        request.errStream
-            = new FCGIOutputStream(request.socket.
-            getOutputStream(), 512,
-            FCGIGlobalDefs.def_FCGIStderr,request);
+        if (request.outStream == null) {
+            request.outStream
+                =  new FCGIOutputStream(request.socket.
+                getOutputStream(), FCGIBufferPool.SHARED.take(8192), 8192,
+                FCGIGlobalDefs.def_FCGIStdout,request);
+            request.errStream
+                = new FCGIOutputStream(request.socket.
+                getOutputStream(), FCGIBufferPool.SHARED.take(512), 512,
+                FCGIGlobalDefs.def_FCGIStderr,request);
+        }
+        else {
+            request.outStream.reset(request);
+            request.errStream.reset(request);
+        }
         request.numWriters = 2;
         return 0;
     }
+
+    /*
+     * The connection is gone: give the buffers of its streams back to
+     * the pool, the next connection gets new streams.
+     */
+    static void releaseStreams() {
+        FCGIBufferPool pool = FCGIBufferPool.SHARED;
+        if (request.inStream != null) {
+            pool.give(request.inStream.buff);
+        }
+        if (request.outStream != null) {
+            pool.give(request.outStream.buff);
+            pool.give(request.errStream.buff);
+        }
+        request.inStream = null;
+        request.outStream = null;
+        request.errStream = null;
+        stdout = null;
+        stderr = null;
+    }
 }
@@ -0,0 +1,220 @@
+/*
+ * @(#)FCGIKeepAlive.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The open connections of an FCGIServer. Every accepted connection is
+ * registered with open() and keeps its counters here; a reaper thread
+ * closes those that wait for input too long:
+ *
+ *   idleTimeout  no request in progress, waiting for the next
+ *                FCGI_BEGIN_REQUEST (FCGI_IDLE_TIMEOUT)
+ *   readTimeout  a request has begun but not all of its params and stdin
+ *                came, and nothing arrived for that long
+ *                (FCGI_READ_TIMEOUT)
+ *
+ * Connections that run requests but expect no input are never timed out
+ * here; the request deadline is for that. With maxConnections
+ * (FCGI_MAX_CONNECTIONS) set, a new connection over the limit makes
+ * room by closing the least recently used idle one, or is closed itself
+ * if none is idle.
+ */
+class FCGIKeepAlive
+{
+    /*
+     * A connection as seen by FCGIKeepAlive. waitingSince is maintained
+     * by the connection only when timeouts are on, see isTimed().
+     */
+    abstract static class Connection
+    {
+        private FCGIKeepAlive keepAlive;
+        private boolean closed;
+        private volatile boolean expired;
+        private volatile int requests;
+        private volatile long lastUsed = System.nanoTime();
+        /* System.nanoTime() since which the connection waits for input, 0 while it does not */
+        volatile long waitingSince;
+
+        /*
+         * No request is in progress.
+         */
+        abstract boolean isIdle();
+
+        /*
+         * A request in progress still has params or stdin to come.
+         */
+        abstract boolean isReceiving();
+
+        /*
+         * Closes the connection from the reaper or accepting thread.
+         * Whoever serves it must call closed() afterwards.
+         */
+        abstract void expire();
+
+        boolean isTimed() {
+            return keepAlive != null && keepAlive.timed;
+        }
+
+        /*
+         * The connection has begun a request. Called by one thread at a
+         * time.
+         */
+        void requestStarted() {
+            int n = ++requests;
+            if (keepAlive != null) {
+                keepAlive.stats.connectionRequests.increment();
+                if (n > 1) {
+                    keepAlive.stats.reusedRequests.increment();
+                }
+            }
+        }
+
+        void requestDone() {
+            lastUsed = System.nanoTime();
+        }
+
+        /*
+         * The connection is closed; may be called more than once.
+         */
+        void closed() {
+            if (keepAlive != null) {
+                keepAlive.closed(this);
+            }
+        }
+    }
+
+    private final FCGIStats stats;
+    private final int maxConnections;
+    private final long idleTimeoutNanos;
+    private final long readTimeoutNanos;
+    private final boolean timed;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private int open;
+    private ScheduledExecutorService reaper;
+
+    FCGIKeepAlive(FCGIServerConfig config, FCGIStats stats) {
+        this.stats = stats;
+        this.maxConnections = config.maxConnections;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.idleTimeout);
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.readTimeout);
+        this.timed = idleTimeoutNanos > 0 || readTimeoutNanos > 0;
+    }
+
+    /*
+     * Starts the reaper if there are timeouts. It looks at the
+     * connections a few times per shortest timeout.
+     */
+    void start() {
+        if (!timed) {
+            return;
+        }
+        long shortest = Math.min(
+            idleTimeoutNanos > 0 ? idleTimeoutNanos : Long.MAX_VALUE,
+            readTimeoutNanos > 0 ? readTimeoutNanos : Long.MAX_VALUE);
+        long period = Math.max(TimeUnit.MILLISECONDS.toNanos(10),
+            Math.min(TimeUnit.SECONDS.toNanos(1), shortest / 4));
+        reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fcgi-keepalive");
+            t.setDaemon(true);
+            return t;
+        });
+        reaper.scheduleWithFixedDelay(this::reap, period, period,
+            TimeUnit.NANOSECONDS);
+    }
+
+    void shutdown() {
+        if (reaper != null) {
+            reaper.shutdownNow();
+        }
+    }
+
+    /*
+     * Registers an accepted connection. Returns false if it is over
+     * maxConnections and no idle one could be closed for it; the caller
+     * then closes it without serving.
+     */
+    boolean open(Connection conn) {
+        Connection victim = null;
+        synchronized (this) {
+            if (maxConnections > 0 && open >= maxConnections) {
+                victim = leastRecentlyUsed();
+                if (victim == null) {
+                    stats.connectionsRefused.increment();
+                    return false;
+                }
+                stats.connectionsEvicted.increment();
+                /* the victim no longer counts, it is on its way out */
+                victim.expired = true;
+                remove(victim);
+            }
+            conn.keepAlive = this;
+            connections.add(conn);
+            stats.openConnections = ++open;
+        }
+        stats.connectionsOpened.increment();
+        if (victim != null) {
+            victim.expire();
+        }
+        return true;
+    }
+
+    private Connection leastRecentlyUsed() {
+        Connection lru = null;
+        for (Connection conn : connections) {
+            if (!conn.expired && conn.isIdle() && !conn.isReceiving()
+                && (lru == null || conn.lastUsed - lru.lastUsed < 0)) {
+                lru = conn;
+            }
+        }
+        return lru;
+    }
+
+    private synchronized void closed(Connection conn) {
+        remove(conn);
+    }
+
+    private void remove(Connection conn) {
+        if (conn.closed) {
+            return;
+        }
+        conn.closed = true;
+        connections.remove(conn);
+        stats.openConnections = --open;
+        stats.connectionsClosed.increment();
+        stats.maxRequestsPerConnection.accumulateAndGet(conn.requests, Math::max);
+    }
+
+    private void reap() {
+        long now = System.nanoTime();
+        for (Connection conn : connections) {
+            long since = conn.waitingSince;
+            if (since == 0 || conn.expired) {
+                continue;
+            }
+            if (conn.isReceiving()) {
+                if (readTimeoutNanos > 0 && now - since > readTimeoutNanos) {
+                    stats.readTimeouts.increment();
+                    conn.expired = true;
+                    conn.expire();
+                }
+            } else if (conn.isIdle() && idleTimeoutNanos > 0) {
+                long used = conn.lastUsed;
+                long idleSince = used - since > 0 ? used : since;
+                if (now - idleSince > idleTimeoutNanos) {
+                    stats.idleTimeouts.increment();
+                    conn.expired = true;
+                    conn.expire();
+                }
+            }
+        }
+    }
+}
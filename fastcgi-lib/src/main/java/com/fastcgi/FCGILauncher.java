@@ -0,0 +1,190 @@
+/*
+ * @(#)FCGILauncher.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Runs an FCGIServer application as FCGI_PROCESSES worker JVMs that all
+ * listen on FCGI_PORT with SO_REUSEPORT, so the kernel spreads the
+ * connections over them. The web server config does not change: it
+ * still talks to one host and port. The launcher restarts a worker that
+ * exits, after FCGI_RESTART_DELAY milliseconds, doubled (up to 30
+ * seconds) while the worker keeps dying within 10 seconds of its start,
+ * and stops the workers when it is stopped itself.
+ *
+ *      java -DFCGI_PORT=9000 -DFCGI_PROCESSES=4 -cp ... com.fastcgi.FCGILauncher Main [args]
+ *
+ * or, from the application's main(), before it starts its server:
+ *
+ *      if (FCGILauncher.isSupervisor()) {
+ *          FCGILauncher.supervise(Main.class.getName(), args);
+ *          return;
+ *      }
+ *
+ * Workers get the launcher's JVM options and class path, with
+ * FCGI_REUSE_PORT=1 and their number in FCGI_WORKER_ID.
+ */
+public class FCGILauncher
+{
+    private static final long MAX_RESTART_DELAY = 30000;
+    private static final long STABLE_RUN = 10000;
+
+    private final String mainClass;
+    private final String[] args;
+    private final int processes;
+    private final long restartDelay;
+    private final Process[] workers;
+    private volatile boolean running = true;
+
+    public FCGILauncher(String mainClass, String[] args, int processes,
+        long restartDelay) {
+        this.mainClass = mainClass;
+        this.args = args;
+        this.processes = processes;
+        this.restartDelay = restartDelay;
+        this.workers = new Process[processes];
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length == 0) {
+            System.err.println("usage: FCGILauncher main-class [args...]");
+            System.exit(2);
+        }
+        supervise(args[0], Arrays.copyOfRange(args, 1, args.length));
+    }
+
+    /*
+     * True in a JVM that was asked for several processes and is not a
+     * worker itself.
+     */
+    public static boolean isSupervisor() {
+        return System.getProperty("FCGI_WORKER_ID") == null
+            && FCGIServerConfig.intProperty(System.getProperties(),
+                "FCGI_PROCESSES", 0) > 1;
+    }
+
+    /*
+     * Starts the workers and keeps them running until this JVM is
+     * stopped.
+     */
+    public static void supervise(String mainClass, String[] args)
+        throws InterruptedException {
+        int processes = FCGIServerConfig.intProperty(System.getProperties(),
+            "FCGI_PROCESSES", Runtime.getRuntime().availableProcessors());
+        long delay = FCGIServerConfig.intProperty(System.getProperties(),
+            "FCGI_RESTART_DELAY", 1000);
+        new FCGILauncher(mainClass, args, Math.max(1, processes), delay).run();
+    }
+
+    public void run() throws InterruptedException {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "fcgi-launcher-stop"));
+        Thread[] supervisors = new Thread[processes];
+        for (int i = 0; i < processes; i++) {
+            int id = i;
+            supervisors[i] = new Thread(() -> supervise(id), "fcgi-launcher-" + i);
+            supervisors[i].start();
+        }
+        for (Thread t : supervisors) {
+            t.join();
+        }
+    }
+
+    /*
+     * Runs worker id over and over until stop().
+     */
+    private void supervise(int id) {
+        long delay = restartDelay;
+        while (running) {
+            long started = System.nanoTime();
+            int exitCode;
+            try {
+                Process worker = start(id);
+                synchronized (workers) {
+                    workers[id] = worker;
+                    if (!running) {
+                        worker.destroy();
+                    }
+                }
+                exitCode = worker.waitFor();
+            } catch (IOException e) {
+                System.err.println("FCGILauncher: cannot start worker " + id + ": " + e);
+                exitCode = -1;
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!running) {
+                return;
+            }
+            long lived = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            if (lived >= STABLE_RUN) {
+                delay = restartDelay;
+            }
+            System.err.println("FCGILauncher: worker " + id + " exited with code "
+                + exitCode + ", restarting in " + delay + " ms");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+            delay = Math.min(Math.max(delay, 1) * 2, MAX_RESTART_DELAY);
+        }
+    }
+
+    private Process start(int id) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin"
+            + File.separator + "java");
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!arg.startsWith("-DFCGI_PROCESSES=")
+                && !arg.startsWith("-DFCGI_WORKER_ID=")) {
+                command.add(arg);
+            }
+        }
+        command.add("-DFCGI_REUSE_PORT=1");
+        command.add("-DFCGI_WORKER_ID=" + id);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass);
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /*
+     * Stops the workers: asks them to exit, then kills those still
+     * running after 10 seconds.
+     */
+    public void stop() {
+        running = false;
+        Process[] current;
+        synchronized (workers) {
+            current = workers.clone();
+        }
+        for (Process worker : current) {
+            if (worker != null) {
+                worker.destroy();
+            }
+        }
+        for (Process worker : current) {
+            if (worker == null) {
+                continue;
+            }
+            try {
+                if (!worker.waitFor(10, TimeUnit.SECONDS)) {
+                    worker.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                worker.destroyForcibly();
+            }
+        }
+    }
+}
@@ -15,6 +15,7 @@
 package com.fastcgi;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.Properties;
 
 /* This class handles reading and building the fastcgi messages.
@@ -52,6 +53,7 @@ public class FCGIMessage
     private int  br_flags;
 
     private FCGIInputStream in;
+    private byte[] beginReqBody;
 
     /*
      * constructor - Java would do this implicitly.
@@ -77,7 +79,16 @@ public class FCGIMessage
      * management or use FCGIInputStream.fill() which does just that.
      */
     public int processHeader(byte[] hdr) throws IOException{
-        processHeaderBytes(hdr);
+        return processHeader(hdr, 0);
+    }
+
+    /*
+     * Same, with the header at hdr[off]. The header is decoded before
+     * anything else is read from the stream, so it may sit in the
+     * stream's own buffer.
+     */
+    public int processHeader(byte[] hdr, int off) throws IOException{
+        processHeaderBytes(hdr, off);
         if (h_version != FCGIGlobalDefs.def_FCGIVersion1) {
             return(FCGIGlobalDefs.def_FCGIUnsupportedVersion);
         }
@@ -89,6 +100,19 @@ public class FCGIMessage
         if (h_requestID == FCGIGlobalDefs.def_FCGINullRequestID) {
             return processManagementRecord(h_type);
         }
+        if (h_type == FCGIGlobalDefs.def_FCGIAbortRequest
+            && h_requestID == in.request.requestID
+            && h_contentLength == 0) {
+            /*
+             * The client went away. Tell whoever runs the request and
+             * end its stdin here, as if the empty stdin record had come.
+             */
+            in.request.aborted = true;
+            if (in.request.onAbort != null) {
+                in.request.onAbort.run();
+            }
+            return(FCGIGlobalDefs.def_FCGIStreamRecord);
+        }
         if (h_requestID != in.request.requestID) {
             return(FCGIGlobalDefs.def_FCGISkip);
         }
@@ -103,19 +127,18 @@ public class FCGIMessage
      * Because Java has no unsigned byte type, we have to be careful
      * about signed numeric promotion to int.
      */
-    private void processHeaderBytes(byte[] hdrBuf){
-        h_version = hdrBuf[0] & 0xFF;
-        h_type = hdrBuf[1] & 0xFF;
-        h_requestID = ((hdrBuf[2] & 0xFF) << 8) | (hdrBuf[3] & 0xFF);
-        h_contentLength = ((hdrBuf[4] & 0xFF) << 8) | (hdrBuf[5] & 0xFF);
-        h_paddingLength = hdrBuf[6] & 0xFF;
+    private void processHeaderBytes(byte[] hdrBuf, int off){
+        h_version = FCGIRecordCodec.version(hdrBuf, off);
+        h_type = FCGIRecordCodec.type(hdrBuf, off);
+        h_requestID = FCGIRecordCodec.requestID(hdrBuf, off);
+        h_contentLength = FCGIRecordCodec.contentLength(hdrBuf, off);
+        h_paddingLength = FCGIRecordCodec.paddingLength(hdrBuf, off);
     }
 
     /*
      * Reads FCGI Begin Request Record.
      */
     public int processBeginRecord(int requestID) throws IOException {
-        byte beginReqBody[];
         byte endReqMsg[];
         if (requestID == 0 || in.contentLen
             != FCGIGlobalDefs.def_FCGIEndReqBodyLen) {
@@ -125,49 +148,39 @@ public class FCGIMessage
          * If the webserver is multiplexing the connection,
          * this library can't deal with it, so repond with
          * FCGIEndReq message with protocolStatus FCGICantMpxConn
+         * and skip the body of the refused record.
          */
         if (in.request.isBeginProcessed) {
             endReqMsg = new byte[FCGIGlobalDefs.def_FCGIHeaderLen
                 + FCGIGlobalDefs.def_FCGIEndReqBodyLen];
-            System.arraycopy(makeHeader(
-                FCGIGlobalDefs.def_FCGIEndRequest,
-                requestID,
-                FCGIGlobalDefs.def_FCGIEndReqBodyLen,
-                0), 0,  endReqMsg, 0,
-                FCGIGlobalDefs.def_FCGIHeaderLen);
-            System.arraycopy(makeEndrequestBody(0,
-                FCGIGlobalDefs.def_FCGICantMpxConn), 0,
-                endReqMsg,
-                FCGIGlobalDefs.def_FCGIHeaderLen,
-                FCGIGlobalDefs.def_FCGIEndReqBodyLen);
+            FCGIRecordCodec.encodeEndRequest(endReqMsg, 0, requestID, 0,
+                FCGIGlobalDefs.def_FCGICantMpxConn);
             /*
-             * since isBeginProcessed is first set below,this
-             * can't be out first call, so request.out is properly set
+             * This is a record of its own, not content of the current
+             * request, so it goes straight to the connection.
              */
-            try {
-                in.request.outStream.write(endReqMsg, 0,
-                    FCGIGlobalDefs.def_FCGIHeaderLen
-                    + FCGIGlobalDefs.def_FCGIEndReqBodyLen);
-            } catch (IOException e){
-                in.request.outStream.setException(e);
+            if (writeRaw(endReqMsg, endReqMsg.length) < 0) {
                 return -1;
             }
+            return FCGIGlobalDefs.def_FCGISkip;
         }
         /*
          * Accept this  new request. Read the record body
          */
         in.request.requestID = requestID;
-        beginReqBody =
-            new byte[FCGIGlobalDefs.def_FCGIBeginReqBodyLen];
+        if (beginReqBody == null) {
+            beginReqBody =
+                new byte[FCGIGlobalDefs.def_FCGIBeginReqBodyLen];
+        }
         if (in.read(beginReqBody, 0,
             FCGIGlobalDefs.def_FCGIBeginReqBodyLen) !=
             FCGIGlobalDefs.def_FCGIBeginReqBodyLen) {
             return FCGIGlobalDefs.def_FCGIProtocolError;
         }
-        br_flags = beginReqBody[2] & 0xFF;
+        br_flags = FCGIRecordCodec.flags(beginReqBody, 0);
         in.request.keepConnection
             = (br_flags & FCGIGlobalDefs.def_FCGIKeepConn) != 0;
-        br_role = ((beginReqBody[0] & 0xFF) << 8) | (beginReqBody[1] & 0xFF);
+        br_role = FCGIRecordCodec.role(beginReqBody, 0);
         in.request.role = br_role;
         in.request.isBeginProcessed = true;
         return FCGIGlobalDefs.def_FCGIBeginRecord;
@@ -177,118 +190,131 @@ public class FCGIMessage
      * Reads and Responds to a Management Message. The only type of
      * management message this library understands is FCGIGetValues.
      * The only variables that this library's FCGIGetValues understands
-     * are def_FCGIMaxConns, def_FCGIMaxReqs, and def_FCGIMpxsConns.
+     * are def_FCGIMaxConns, def_FCGIMaxReqs, and def_FCGIMpxsConns; all
+     * of those asked for are answered in one FCGIGetValuesResult, with
+     * the limits of the FCGIServer (request.config) or, for
+     * FCGIInterface, which serves one request at a time, 1, 1 and 0.
      * Ignore the other management variables, and repsond to other
      * management messages with FCGIUnknownType.
      */
     public int processManagementRecord(int type) throws IOException {
 
-        byte[] response = new byte[64];
-        int wrndx = response[FCGIGlobalDefs.def_FCGIHeaderLen];
-        int value, len, plen;
+        byte[] response;
+        int wrndx = FCGIGlobalDefs.def_FCGIHeaderLen;
+        int len, plen;
         if (type == FCGIGlobalDefs.def_FCGIGetValues) {
-            Properties tmpProps = new Properties();
-            readParams(tmpProps);
+            FCGIParams vars = new FCGIParams();
+            readParams(vars);
 
             if (in.getFCGIError() != 0 || in.contentLen != 0) {
                 return FCGIGlobalDefs.def_FCGIProtocolError;
             }
-            if (tmpProps.containsKey(
-                FCGIGlobalDefs.def_FCGIMaxConns)) {
-                makeNameVal(
-                    FCGIGlobalDefs.def_FCGIMaxConns, "1",
-                    response, wrndx);
-            }
-            else {
-                if (tmpProps.containsKey(
-                    FCGIGlobalDefs.def_FCGIMaxReqs)) {
-                    makeNameVal(
-                        FCGIGlobalDefs.def_FCGIMaxReqs, "1",
+            /*
+             * Only the three variables above are ever answered, so the
+             * reply is small; size it for them with room to spare.
+             */
+            response = new byte[256];
+            String[] known = {
+                FCGIGlobalDefs.def_FCGIMaxConns,
+                FCGIGlobalDefs.def_FCGIMaxReqs,
+                FCGIGlobalDefs.def_FCGIMpxsConns
+            };
+            for (int k = 0; k < known.length; k++) {
+                if (vars.get(known[k]) != null) {
+                    wrndx = makeNameVal(known[k], getValue(known[k]),
                         response, wrndx);
                 }
-                else {
-                    if (tmpProps.containsKey(
-                        FCGIGlobalDefs.def_FCGIMaxConns)) {
-                        makeNameVal(
-                            FCGIGlobalDefs.def_FCGIMpxsConns, "0",
-                            response, wrndx);
-                    }
-                }
             }
-            plen = 64 - wrndx;
             len = wrndx - FCGIGlobalDefs.def_FCGIHeaderLen;
-            System.arraycopy(makeHeader(
+            plen = (8 - (len & 7)) & 7;
+            FCGIRecordCodec.encodeHeader(response, 0,
                 FCGIGlobalDefs.def_FCGIGetValuesResult,
                 FCGIGlobalDefs.def_FCGINullRequestID,
-                len, plen), 0,
-                response, 0,
-                FCGIGlobalDefs.def_FCGIHeaderLen);
+                len, plen);
+            len += plen;
         }
         else {
-            plen = len =
-                FCGIGlobalDefs.def_FCGIUnknownBodyTypeBodyLen;
-            System.arraycopy(makeHeader(
+            response = new byte[FCGIGlobalDefs.def_FCGIHeaderLen
+                + FCGIGlobalDefs.def_FCGIUnknownBodyTypeBodyLen];
+            len = FCGIGlobalDefs.def_FCGIUnknownBodyTypeBodyLen;
+            FCGIRecordCodec.encodeHeader(response, 0,
                 FCGIGlobalDefs.def_FCGIUnknownType,
                 FCGIGlobalDefs.def_FCGINullRequestID,
-                len, 0), 0,
-                response, 0,
-                FCGIGlobalDefs.def_FCGIHeaderLen);
-            System.arraycopy(makeUnknownTypeBodyBody(h_type), 0,
-                response,
-                FCGIGlobalDefs.def_FCGIHeaderLen,
-                FCGIGlobalDefs.def_FCGIUnknownBodyTypeBodyLen);
+                len, 0);
+            response[FCGIGlobalDefs.def_FCGIHeaderLen] = (byte)type;
         }
         /*
          * No guarantee that we have a request yet, so
          * dont use fcgi output stream to reference socket, instead
-         * use the FileInputStream that refrences it. Also
+         * use the stream that refrences it. Also
          * nowhere to save exception, since this is not FCGI stream.
          */
-
-        try {
-            in.request.socket.getOutputStream().write(response, 0,
-                FCGIGlobalDefs.def_FCGIHeaderLen +
-                FCGIGlobalDefs.def_FCGIUnknownBodyTypeBodyLen);
-
-        } catch (IOException e){
+        if (writeRaw(response, FCGIGlobalDefs.def_FCGIHeaderLen + len) < 0) {
             return -1;
         }
         return FCGIGlobalDefs.def_FCGIMgmtRecord;
     }
 
     /*
-     * Makes a name/value with name = string of some length, and
-     * value a 1 byte integer. Pretty specific to what we are doing
-     * above.
+     * The value this library reports for an FCGIGetValues variable.
      */
-    void makeNameVal(String name, String value, byte[] dest, int pos) {
-        int nameLen = name.length();
-        if (nameLen < 0x80) {
-            dest[pos++] = (byte)nameLen;
-        }else {
-            dest[pos++] = (byte)(((nameLen >> 24) | 0x80) & 0xff);
-            dest[pos++] = (byte)((nameLen >> 16) & 0xff);
-            dest[pos++] = (byte)((nameLen >> 8) & 0xff);
-            dest[pos++] = (byte)nameLen;
-        }
-        int valLen = value.length();
-        if (valLen < 0x80) {
-            dest[pos++] =  (byte)valLen;
-        }else {
-            dest[pos++] = (byte)(((valLen >> 24) | 0x80) & 0xff);
-            dest[pos++] = (byte)((valLen >> 16) & 0xff);
-            dest[pos++] = (byte)((valLen >> 8) & 0xff);
-            dest[pos++] = (byte)valLen;
+    private String getValue(String name) {
+        FCGIServerConfig config = in.request.config;
+        if (config != null) {
+            return config.getValue(name);
         }
+        return FCGIGlobalDefs.def_FCGIMpxsConns.equals(name) ? "0" : "1";
+    }
 
+    /*
+     * Writes complete records straight to the connection. The stream
+     * is locked like in FCGIOutputStream.empty(), so the records are not
+     * interleaved with output of other requests on a multiplexed
+     * connection.
+     */
+    private int writeRaw(byte[] records, int len) {
         try {
-            System.arraycopy(name.getBytes("UTF-8"), 0, dest, pos, nameLen);
-            pos += nameLen;
+            OutputStream out = in.request.connOut != null
+                ? in.request.connOut : in.request.socket.getOutputStream();
+            synchronized (out) {
+                out.write(records, 0, len);
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return 0;
+    }
+
+    /*
+     * Makes a name/value with name = string of some length and value
+     * = string of some length at pos in dest. Returns the position
+     * after it.
+     */
+    int makeNameVal(String name, String value, byte[] dest, int pos) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] valBytes = value.getBytes(StandardCharsets.UTF_8);
+        pos = putLength(nameBytes.length, dest, pos);
+        pos = putLength(valBytes.length, dest, pos);
+        System.arraycopy(nameBytes, 0, dest, pos, nameBytes.length);
+        pos += nameBytes.length;
+        System.arraycopy(valBytes, 0, dest, pos, valBytes.length);
+        pos += valBytes.length;
+        return pos;
+    }
 
-            System.arraycopy(value.getBytes("UTF-8"), 0, dest, pos, valLen);
-            pos += valLen;
+    /*
+     * Name-value pair lengths take one byte below 0x80, four otherwise.
+     */
+    private static int putLength(int len, byte[] dest, int pos) {
+        if (len < 0x80) {
+            dest[pos++] = (byte)len;
+        }else {
+            dest[pos++] = (byte)(((len >> 24) | 0x80) & 0xff);
+            dest[pos++] = (byte)((len >> 16) & 0xff);
+            dest[pos++] = (byte)((len >> 8) & 0xff);
+            dest[pos++] = (byte)len;
         }
-        catch (UnsupportedEncodingException x) {}
+        return pos;
     }
 
     /*
@@ -296,66 +322,27 @@ public class FCGIMessage
      * into a Properties object, storing both as strings.
      */
     public int readParams(Properties props) throws IOException{
-        int nameLen, valueLen;
-        byte lenBuff[] = new byte[3];
-        int i = 1;
-
-        while ((nameLen = in.read()) != -1) {
-            i++;
-            if ((nameLen & 0x80) != 0) {
-                if ((in.read( lenBuff, 0, 3)) != 3) {
-                    in.setFCGIError(
-                        FCGIGlobalDefs.def_FCGIParamsError);
-                    return -1;
-                }
-                nameLen = ((nameLen & 0x7f) << 24)
-                    | ((lenBuff[0] & 0xFF) << 16)
-                    | ((lenBuff[1] & 0xFF) << 8)
-                    | (lenBuff[2] & 0xFF);
-            }
-
-            if ((valueLen = in.read()) == -1) {
-                in.setFCGIError(
-                    FCGIGlobalDefs.def_FCGIParamsError);
-                return -1;
-            }
-            if ((valueLen & 0x80) != 0) {
-                if ((in.read( lenBuff, 0, 3)) != 3) {
-                    in.setFCGIError(
-                        FCGIGlobalDefs.def_FCGIParamsError);
-                    return -1;
-                }
-                valueLen = ((valueLen & 0x7f) << 24)
-                    | ((lenBuff[0] & 0xFF) << 16)
-                    | ((lenBuff[1] & 0xFF) << 8)
-                    | (lenBuff[2] & 0xFF);
-            }
-
-            /*
-             * nameLen and valueLen are now valid; read the name
-             * and the value from the stream and construct a standard
-             * environmental entity
-             */
-            byte[] name  = new byte[nameLen];
-            byte[] value = new byte[valueLen];
-            if (in.read(name ,0,  nameLen) != nameLen) {
-                in.setFCGIError(
-                    FCGIGlobalDefs.def_FCGIParamsError);
-                return -1;
-            }
-
-            if(in.read(value, 0, valueLen) != valueLen) {
-                in.setFCGIError(
-                    FCGIGlobalDefs.def_FCGIParamsError);
-                return -1;
-            }
-            String strName  = new String(name);
-            String strValue = new String(value);
-            props.put(strName, strValue);
+        FCGIParams params = new FCGIParams();
+        if (readParams(params) < 0) {
+            return -1;
+        }
+        for (int i = 0; i < params.size(); i++) {
+            props.put(params.name(i), params.value(i));
         }
         return 0;
+    }
 
-
+    /*
+     * Same, keeping the raw bytes in an FCGIParams; values are only
+     * decoded when asked for.
+     */
+    public int readParams(FCGIParams params) throws IOException{
+        if (params.read(in) < 0) {
+            in.setFCGIError(
+                FCGIGlobalDefs.def_FCGIParamsError);
+            return -1;
+        }
+        return 0;
     }
     /*
      * Message Building Methods
@@ -369,14 +356,8 @@ public class FCGIMessage
         int contentLength,
         int paddingLength) {
         byte[] header = new byte[FCGIGlobalDefs.def_FCGIHeaderLen];
-        header[0]   = (byte)FCGIGlobalDefs.def_FCGIVersion1;
-        header[1]   = (byte)type;
-        header[2]   = (byte)((requestId      >> 8) & 0xff);
-        header[3]   = (byte)((requestId          ) & 0xff);
-        header[4]   = (byte)((contentLength  >> 8) & 0xff);
-        header[5]   = (byte)((contentLength      ) & 0xff);
-        header[6]   = (byte)paddingLength;
-        header[7]   =  0;  //reserved byte
+        FCGIRecordCodec.encodeHeader(header, 0, type, requestId,
+            contentLength, paddingLength);
         return header;
     }
     /*
@@ -384,14 +365,8 @@ public class FCGIMessage
      */
     public byte[] makeEndrequestBody(int appStatus,int protocolStatus){
         byte body[] = new byte[FCGIGlobalDefs.def_FCGIEndReqBodyLen];
-        body[0] = (byte)((appStatus >> 24) & 0xff);
-        body[1] = (byte)((appStatus >> 16) & 0xff);
-        body[2] = (byte)((appStatus >>  8) & 0xff);
-        body[3] = (byte)((appStatus      ) & 0xff);
-        body[4] = (byte)protocolStatus;
-        for (int i = 5; i < 8; i++) {
-            body[i] = 0;
-        }
+        FCGIRecordCodec.encodeEndRequestBody(body, 0, appStatus,
+            protocolStatus);
         return body;
     }
     /*
@@ -0,0 +1,115 @@
+/*
+ * @(#)FCGIMultiplexedConnection.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+/*
+ * A connection on which the web server may interleave several requests
+ * (FCGI_MPXS_CONNS=1). The thread running this object only reads records
+ * and passes them to an FCGIDemultiplexer, which runs the requests on the
+ * workers.
+ */
+class FCGIMultiplexedConnection extends FCGIKeepAlive.Connection
+    implements Runnable
+{
+    private final SocketChannel channel;
+    private final FCGIServerConfig config;
+    private final FCGIHandler handler;
+    private final Executor workers;
+    private final FCGIAdmission admission;
+    private volatile FCGIDemultiplexer demux;
+
+    FCGIMultiplexedConnection(SocketChannel channel, FCGIServerConfig config,
+        FCGIHandler handler, Executor workers, FCGIAdmission admission) {
+        this.channel = channel;
+        this.config = config;
+        this.handler = handler;
+        this.workers = workers;
+        this.admission = admission;
+    }
+
+    public void run() {
+        FCGIDemultiplexer demux = null;
+        byte[] content = null;
+        try {
+            demux = new FCGIDemultiplexer(config, handler, workers, admission,
+                new FCGIChannelOutputStream(channel),
+                FCGIConnection.socketOf(channel), this::closeSocket, this);
+            this.demux = demux;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FCGIChannelInputStream(channel, this), config.bufferSize));
+            byte[] header = new byte[FCGIGlobalDefs.def_FCGIHeaderLen];
+            content = FCGIBufferPool.SHARED.take(FCGIGlobalDefs.def_FCGIMaxLen);
+            for (;;) {
+                try {
+                    in.readFully(header);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (FCGIRecordCodec.version(header, 0) != FCGIGlobalDefs.def_FCGIVersion1) {
+                    break;
+                }
+                int type = FCGIRecordCodec.type(header, 0);
+                int requestID = FCGIRecordCodec.requestID(header, 0);
+                int contentLen = FCGIRecordCodec.contentLength(header, 0);
+                int paddingLen = FCGIRecordCodec.paddingLength(header, 0);
+                if (type == FCGIGlobalDefs.def_FCGIStdin && contentLen > 0) {
+                    /* leave the rest in the socket until the handler reads */
+                    demux.awaitStdinRoom(requestID);
+                }
+                in.readFully(content, 0, contentLen);
+                in.skipNBytes(paddingLen);
+                demux.record(type, requestID, content, 0, contentLen);
+            }
+        } catch (IOException e) {
+            /* connection is dropped below */
+        } finally {
+            FCGIBufferPool.SHARED.give(content);
+            if (demux != null) {
+                demux.inputClosed();
+            } else {
+                closeSocket();
+            }
+        }
+    }
+
+    boolean isIdle() {
+        FCGIDemultiplexer demux = this.demux;
+        return demux == null || demux.isIdle();
+    }
+
+    boolean isReceiving() {
+        FCGIDemultiplexer demux = this.demux;
+        return demux != null && demux.isReceiving();
+    }
+
+    /*
+     * The reader fails on the closed channel and lets the demultiplexer
+     * finish what is running.
+     */
+    void expire() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            /* ignore */
+        }
+    }
+
+    private void closeSocket() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            /* ignore */
+        }
+        closed();
+    }
+}
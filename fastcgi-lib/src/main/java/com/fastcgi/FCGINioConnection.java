@@ -0,0 +1,284 @@
+/*
+ * @(#)FCGINioConnection.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+/*
+ * A connection driven by an FCGIEventLoop. Bytes are parsed as they
+ * arrive by a small record state machine (header, content, padding);
+ * PARAMS and STDIN content is passed on to the FCGIDemultiplexer in
+ * whatever pieces the reads deliver, other record bodies are collected
+ * first. Output written by the requests is queued in an FCGINioOutput
+ * and flushed when the channel is writable. While the stdin queue of a
+ * request is full, OP_READ is off and the rest of the read buffer waits
+ * for resume().
+ */
+class FCGINioConnection extends FCGIKeepAlive.Connection
+    implements FCGIEventLoop.Handler
+{
+    private static final int HEADER = 0;
+    private static final int CONTENT = 1;
+    private static final int PADDING = 2;
+
+    private final SocketChannel channel;
+    private final FCGIEventLoop loop;
+    private final FCGINioOutput out;
+    private final FCGIDemultiplexer demux;
+    /* from the buffer pool, given back on close */
+    private ByteBuffer readBuf;
+    private final byte[] header = new byte[FCGIGlobalDefs.def_FCGIHeaderLen];
+    private byte[] body = new byte[FCGIGlobalDefs.def_FCGIBeginReqBodyLen];
+    private SelectionKey key;
+
+    /* record state */
+    private int state = HEADER;
+    private int headerLen;
+    private int type;
+    private int requestID;
+    private int contentLen;
+    private int paddingLen;
+    private int bodyLen;
+
+    private boolean closing;
+    private boolean paused;
+    private final Runnable resumer;
+
+    FCGINioConnection(SocketChannel channel, FCGIEventLoop loop,
+        FCGIServerConfig config, FCGIHandler handler, Executor workers,
+        FCGIAdmission admission) {
+        this.channel = channel;
+        this.loop = loop;
+        this.readBuf = ByteBuffer.wrap(FCGIBufferPool.SHARED.take(config.bufferSize));
+        this.out = new FCGINioOutput(loop, () -> loop.execute(this::flush),
+            config.maxPendingOutput);
+        this.demux = new FCGIDemultiplexer(config, handler, workers, admission,
+            out, null,
+            () -> loop.execute(this::closeWhenFlushed), this);
+        this.resumer = () -> loop.execute(this::resume);
+    }
+
+    /*
+     * Called on the loop thread.
+     */
+    void register() throws IOException {
+        key = channel.register(loop.selector(), SelectionKey.OP_READ, this);
+        if (isTimed()) {
+            waitingSince = System.nanoTime();
+        }
+    }
+
+    boolean isIdle() {
+        return demux.isIdle();
+    }
+
+    boolean isReceiving() {
+        return demux.isReceiving();
+    }
+
+    void expire() {
+        loop.execute(() -> fail(new IOException("connection timed out")));
+    }
+
+    public void ready(SelectionKey key) throws IOException {
+        if (key.isWritable()) {
+            flush();
+        }
+        if (key.isValid() && key.isReadable()) {
+            read();
+        }
+    }
+
+    private void read() throws IOException {
+        if (paused) {
+            return;
+        }
+        int count = channel.read(readBuf);
+        if (count < 0) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            waitingSince = 0;
+            demux.inputClosed();
+            return;
+        }
+        if (count > 0 && isTimed()) {
+            /* a selector connection is always waiting, since its last input */
+            waitingSince = System.nanoTime();
+        }
+        readBuf.flip();
+        parse(readBuf);
+        readBuf.compact();
+    }
+
+    /*
+     * Consumes as much of buf as makes progress in the record state
+     * machine.
+     */
+    private void parse(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining() && !paused) {
+            switch (state) {
+            case HEADER:
+                int n = Math.min(header.length - headerLen, buf.remaining());
+                buf.get(header, headerLen, n);
+                headerLen += n;
+                if (headerLen < header.length) {
+                    return;
+                }
+                headerLen = 0;
+                if (FCGIRecordCodec.version(header, 0) != FCGIGlobalDefs.def_FCGIVersion1) {
+                    throw new IOException("unsupported FastCGI version");
+                }
+                type = FCGIRecordCodec.type(header, 0);
+                requestID = FCGIRecordCodec.requestID(header, 0);
+                contentLen = FCGIRecordCodec.contentLength(header, 0);
+                paddingLen = FCGIRecordCodec.paddingLength(header, 0);
+                bodyLen = 0;
+                if (contentLen == 0) {
+                    demux.record(type, requestID, body, 0, 0);
+                    state = paddingLen > 0 ? PADDING : HEADER;
+                } else {
+                    state = CONTENT;
+                }
+                break;
+            case CONTENT:
+                n = Math.min(contentLen, buf.remaining());
+                if (isStream(type)) {
+                    /*
+                     * Stream content can be passed on in pieces, straight
+                     * from the read buffer.
+                     */
+                    demux.record(type, requestID, buf.array(),
+                        buf.arrayOffset() + buf.position(), n);
+                    buf.position(buf.position() + n);
+                    contentLen -= n;
+                    if (type == FCGIGlobalDefs.def_FCGIStdin
+                        && !demux.stdinHasRoom(requestID, resumer)) {
+                        pause();
+                    }
+                } else {
+                    if (body.length < bodyLen + contentLen) {
+                        byte[] grown = new byte[bodyLen + contentLen];
+                        System.arraycopy(body, 0, grown, 0, bodyLen);
+                        body = grown;
+                    }
+                    buf.get(body, bodyLen, n);
+                    bodyLen += n;
+                    contentLen -= n;
+                    if (contentLen == 0) {
+                        demux.record(type, requestID, body, 0, bodyLen);
+                    }
+                }
+                if (contentLen == 0) {
+                    state = paddingLen > 0 ? PADDING : HEADER;
+                }
+                break;
+            default:
+                n = Math.min(paddingLen, buf.remaining());
+                buf.position(buf.position() + n);
+                paddingLen -= n;
+                if (paddingLen == 0) {
+                    state = HEADER;
+                }
+                break;
+            }
+        }
+    }
+
+    private void pause() {
+        paused = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        /* waiting for our own handler, not for the peer */
+        waitingSince = 0;
+    }
+
+    /*
+     * The stdin queue that paused the connection has room again: parse
+     * what is left of the read buffer, then read on.
+     */
+    private void resume() {
+        if (!paused || !key.isValid()) {
+            return;
+        }
+        paused = false;
+        readBuf.flip();
+        try {
+            parse(readBuf);
+        } catch (IOException e) {
+            readBuf.compact();
+            fail(e);
+            return;
+        }
+        readBuf.compact();
+        if (!paused) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            if (isTimed()) {
+                waitingSince = System.nanoTime();
+            }
+        }
+    }
+
+    private static boolean isStream(int type) {
+        return type == FCGIGlobalDefs.def_FCGIParams
+            || type == FCGIGlobalDefs.def_FCGIStdin;
+    }
+
+    /*
+     * Writes queued output; keeps OP_WRITE set while some is left.
+     */
+    private void flush() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        try {
+            if (out.writeTo(channel)) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                if (closing) {
+                    close();
+                }
+            } else {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void closeWhenFlushed() {
+        closing = true;
+        if (out.isEmpty()) {
+            close();
+        } else {
+            flush();
+        }
+    }
+
+    public void fail(IOException e) {
+        out.fail(e);
+        /* closing the stdin queues below must not resume parsing */
+        paused = false;
+        demux.inputClosed();
+        close();
+    }
+
+    private void close() {
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            /* ignore */
+        }
+        closed();
+        if (readBuf != null) {
+            FCGIBufferPool.SHARED.give(readBuf.array());
+            readBuf = null;
+        }
+    }
+}
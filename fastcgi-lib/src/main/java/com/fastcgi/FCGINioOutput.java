@@ -0,0 +1,148 @@
+/*
+ * @(#)FCGINioOutput.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+
+/*
+ * The connOut of a selector-engine connection. Request threads write
+ * complete records into it (FCGIOutputStream locks this object around
+ * each record); the bytes are queued and the event loop writes them out
+ * as the socket becomes writable. A writer blocks once more than
+ * maxPending bytes are queued, so a slow peer slows down its own
+ * requests instead of filling the heap.
+ * It is also the connChannel of the requests: a gathering write is
+ * queued as one buffer and reaches the socket in one write.
+ */
+class FCGINioOutput extends OutputStream implements GatheringByteChannel
+{
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private final FCGIEventLoop loop;
+    private final Runnable wakeup;
+    private final int maxPending;
+    private int pending;
+    private boolean flushScheduled;
+    private IOException failure;
+
+    /*
+     * wakeup is called, outside of any write, when the queue goes from
+     * empty to non-empty; it should get the event loop to call
+     * writeTo() on the channel. The loop itself never blocks in write().
+     */
+    FCGINioOutput(FCGIEventLoop loop, Runnable wakeup, int maxPending) {
+        this.loop = loop;
+        this.wakeup = wakeup;
+        this.maxPending = maxPending;
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    public void write(byte b[], int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        write(new ByteBuffer[] {ByteBuffer.wrap(b, off, len)}, 0, 1);
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[] {src}, 0, 1);
+    }
+
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long len = 0;
+        for (int i = offset; i < offset + length; i++) {
+            len += srcs[i].remaining();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        boolean schedule;
+        synchronized (this) {
+            while (pending > maxPending && failure == null && !loop.inLoop()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            ByteBuffer copy = ByteBuffer.allocate((int) len);
+            for (int i = offset; i < offset + length; i++) {
+                copy.put(srcs[i]);
+            }
+            queue.add(copy.flip());
+            pending += len;
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (schedule) {
+            wakeup.run();
+        }
+        return len;
+    }
+
+    public synchronized boolean isOpen() {
+        return failure == null;
+    }
+
+    /*
+     * The socket is closed by the connection, not by the requests.
+     */
+    public void close() {
+    }
+
+    /*
+     * Called on the event loop. Writes queued bytes until the channel
+     * would block. Returns true if everything has been written.
+     */
+    synchronized boolean writeTo(WritableByteChannel ch) throws IOException {
+        try {
+            while (!queue.isEmpty()) {
+                ByteBuffer head = queue.peek();
+                pending -= ch.write(head);
+                if (head.hasRemaining()) {
+                    return false;
+                }
+                queue.poll();
+            }
+        } finally {
+            notifyAll();
+        }
+        flushScheduled = false;
+        return true;
+    }
+
+    synchronized boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /*
+     * The connection is gone; writers get e from now on.
+     */
+    synchronized void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        queue.clear();
+        pending = 0;
+        notifyAll();
+    }
+}
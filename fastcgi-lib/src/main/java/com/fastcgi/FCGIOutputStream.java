@@ -13,6 +13,8 @@
 package com.fastcgi;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 
 /**
  * This stream understands FCGI prototcol.
@@ -41,26 +43,72 @@ public class FCGIOutputStream
     public int type;
     public boolean isAnythingWritten;
     public boolean rawWrite;
+    /* the request was cancelled: buffered data is dropped instead of sent */
+    public volatile boolean discard;
     public FCGIRequest request;
 
     public OutputStream out;
+    /*
+     * Optional channel view of out. When set, writes larger than the
+     * buffer go out as records of up to def_FCGIMaxLen bytes without
+     * being copied, and the last data, the EOF record and END_REQUEST
+     * are sent with a single gathering write.
+     */
+    public GatheringByteChannel channel;
+
+    /* close records and the views used for gathering writes */
+    private final byte[] trailer = new byte[2 * FCGIGlobalDefs.def_FCGIHeaderLen
+        + FCGIGlobalDefs.def_FCGIEndReqBodyLen];
+    private int trailerLen;
+    private byte[] recHeader;
+    private ByteBuffer[] gather;
+    /*
+     * View of the last caller array written through writeRecords();
+     * handlers usually write from the same reused buffer every time.
+     */
+    private ByteBuffer dataView;
 
     /**
     * Creates a new output stream to manage fcgi prototcol stuff
     * @param outStream the output stream  buflen  length of buffer streamType
     */
     public FCGIOutputStream(OutputStream outStream,
+        int bufLen, int streamType,
+        FCGIRequest inreq) {
+        this(outStream, new byte[Math.min(bufLen,
+            FCGIGlobalDefs.def_FCGIHeaderLen + FCGIGlobalDefs.def_FCGIMaxLen)],
+            bufLen, streamType, inreq);
+    }
+
+    /**
+    * Same, using buf (from FCGIBufferPool, say) as buffer. Only the
+    * first bufLen bytes of it are used.
+    */
+    public FCGIOutputStream(OutputStream outStream, byte buf[],
         int bufLen, int streamType,
         FCGIRequest inreq) {
         out = outStream;
-        buffLen = Math.min(bufLen, FCGIGlobalDefs.def_FCGIMaxLen);
-        buff = new byte[buffLen];
+        buffLen = Math.min(Math.min(bufLen, buf.length),
+            FCGIGlobalDefs.def_FCGIHeaderLen + FCGIGlobalDefs.def_FCGIMaxLen);
+        buff = buf;
         type = streamType;
+        reset(inreq);
+    }
+
+    /**
+    * Makes the stream ready for the next request on the same
+    * connection, keeping its buffer.
+    */
+    public void reset(FCGIRequest inreq) {
         stop = buffStop = buffLen;
         isAnythingWritten = false;
         rawWrite = false;
+        discard = false;
         wrNext = FCGIGlobalDefs.def_FCGIHeaderLen;
+        trailerLen = 0;
         isClosed = false;
+        errno = 0;
+        errex = null;
         request = inreq;
     }
 
@@ -111,6 +159,22 @@ public class FCGIOutputStream
             return;
         }
         /*
+        * Output of a cancelled request goes nowhere.
+        */
+        if(discard && !rawWrite) {
+            return;
+        }
+        /*
+        * Large write on a channel: frame it in place.
+        */
+        if(channel != null && !rawWrite && !isClosed
+            && len >= buffLen - FCGIGlobalDefs.def_FCGIHeaderLen) {
+            synchronized (out) {
+                writeRecords(b, off, len);
+            }
+            return;
+        }
+        /*
         * General case: stream is closed or buffer empty procedure
         * needs to be called
         */
@@ -137,19 +201,29 @@ public class FCGIOutputStream
     * Encapsulates any buffered stream content in a FastCGI
     * record.  If !doClose, writes the data, making the buffer
     * empty.
+    * Several requests may share the connection (FCGI_MPXS_CONNS), so
+    * records, and the whole close sequence, are written while holding
+    * the lock of the underlying stream.
     */
     public void empty(boolean doClose) throws IOException {
+        synchronized (out) {
+            emptyBuffer(doClose);
+        }
+    }
+
+    private void emptyBuffer(boolean doClose) throws IOException {
         int cLen;
+        if (discard && !rawWrite) {
+            wrNext = FCGIGlobalDefs.def_FCGIHeaderLen;
+        }
         /*
         * Alignment padding omitted in Java
         */
         if (!rawWrite) {
             cLen = wrNext - FCGIGlobalDefs.def_FCGIHeaderLen;
             if(cLen > 0) {
-                System.arraycopy(new FCGIMessage().makeHeader(type,
-                    request.requestID, cLen, 0),
-                    0, buff, 0,
-                    FCGIGlobalDefs.def_FCGIHeaderLen);
+                FCGIRecordCodec.encodeHeader(buff, 0, type,
+                    request.requestID, cLen, 0);
             }
             else {
                 wrNext = 0;
@@ -158,6 +232,24 @@ public class FCGIOutputStream
         if (doClose) {
             writeCloseRecords();
         }
+        if (trailerLen != 0) {
+            /*
+            * Buffered data and close records in one write.
+            */
+            isAnythingWritten |= wrNext != 0;
+            ByteBuffer[] bufs = gatherViews();
+            bufs[0].limit(wrNext).position(0);
+            bufs[1].limit(0);
+            bufs[2].limit(trailerLen).position(0);
+            try {
+                writeFully(bufs);
+            } catch (IOException e) {
+                setException(e);
+                return;
+            }
+            wrNext = 0;
+            trailerLen = 0;
+        }
         if (wrNext != 0) {
             isAnythingWritten = true;
             try {
@@ -283,53 +375,111 @@ public class FCGIOutputStream
     * Writes an EOF record for the stream content if necessary.
     * If this is the last writer to close, writes an FCGI_END_REQUEST
     * record.
+    * With a channel the records are left in trailer, for emptyBuffer()
+    * to send together with the buffered data.
     */
     public void writeCloseRecords() throws IOException {
-        FCGIMessage msg = new FCGIMessage();
         /*
         * Enter rawWrite mode so final records won't be
         * encapsulated as
         * stream data.
         */
         rawWrite = true;
+        trailerLen = 0;
         /*
         * Generate EOF for stream content if needed.
         */
         if(!(type == FCGIGlobalDefs.def_FCGIStderr
             && wrNext == 0
             && !isAnythingWritten)) {
-            byte hdr[] =
-                new byte[FCGIGlobalDefs.def_FCGIHeaderLen];
-            System.arraycopy(msg.makeHeader(type,
-                request.requestID,
-                0, 0),
-                0, hdr,0,
-                FCGIGlobalDefs.def_FCGIHeaderLen);
-            write(hdr, 0, hdr.length);
+            FCGIRecordCodec.encodeHeader(trailer, trailerLen, type,
+                request.requestID, 0, 0);
+            trailerLen += FCGIGlobalDefs.def_FCGIHeaderLen;
         }
         /*
         * Generate FCGI_END_REQUEST record if needed.
         */
         if(request.numWriters == 1) {
-            byte endReq[] =
-                new byte[FCGIGlobalDefs.def_FCGIHeaderLen
-                + FCGIGlobalDefs.def_FCGIEndReqBodyLen];
-            System.arraycopy(msg.makeHeader(
-                FCGIGlobalDefs.def_FCGIEndRequest,
-                request.requestID,
-                FCGIGlobalDefs.def_FCGIEndReqBodyLen,0),
-                0, endReq, 0,
-                FCGIGlobalDefs.def_FCGIHeaderLen);
-            System.arraycopy(msg.makeEndrequestBody(
-                request.appStatus,
-                FCGIGlobalDefs.def_FCGIRequestComplete),
-                0,endReq,
-                FCGIGlobalDefs.def_FCGIHeaderLen,
-                FCGIGlobalDefs.def_FCGIEndReqBodyLen);
-            write(endReq,0, FCGIGlobalDefs.def_FCGIHeaderLen
-                + FCGIGlobalDefs.def_FCGIEndReqBodyLen);
+            FCGIRecordCodec.encodeEndRequest(trailer, trailerLen,
+                request.requestID, request.appStatus,
+                FCGIGlobalDefs.def_FCGIRequestComplete);
+            trailerLen += FCGIGlobalDefs.def_FCGIHeaderLen
+                + FCGIGlobalDefs.def_FCGIEndReqBodyLen;
         }
         request.numWriters--;
+        if (channel == null) {
+            int len = trailerLen;
+            trailerLen = 0;
+            write(trailer, 0, len);
+        }
+    }
+
+    /*
+    * Sends b[off..off+len) as STDOUT/STDERR records of up to
+    * def_FCGIMaxLen bytes, each in one gathering write with the
+    * header and, for the first one, whatever was buffered before.
+    * Called with out locked.
+    */
+    private void writeRecords(byte b[], int off, int len) throws IOException {
+        ByteBuffer[] bufs = gatherViews();
+        if (dataView == null || dataView.array() != b) {
+            dataView = ByteBuffer.wrap(b);
+        }
+        ByteBuffer data = dataView;
+        data.limit(off + len).position(off);
+        int cLen = wrNext - FCGIGlobalDefs.def_FCGIHeaderLen;
+        if (cLen > 0) {
+            FCGIRecordCodec.encodeHeader(buff, 0, type,
+                request.requestID, cLen, 0);
+            bufs[0].limit(wrNext).position(0);
+        }
+        else {
+            bufs[0].limit(0);
+        }
+        bufs[3] = data;
+        isAnythingWritten = true;
+        try {
+            while (data.hasRemaining()) {
+                int n = Math.min(FCGIGlobalDefs.def_FCGIMaxLen, data.remaining());
+                FCGIRecordCodec.encodeHeader(recHeader, 0, type,
+                    request.requestID, n, 0);
+                bufs[1].limit(FCGIGlobalDefs.def_FCGIHeaderLen).position(0);
+                bufs[2].limit(0);
+                data.limit(data.position() + n);
+                writeFully(bufs);
+                bufs[0].limit(0);
+                data.limit(off + len);
+            }
+        } catch (IOException e) {
+            setException(e);
+        } finally {
+            bufs[3] = null;
+        }
+        wrNext = FCGIGlobalDefs.def_FCGIHeaderLen;
     }
-}
 
+    /*
+    * Views for a gathering write: buffer, record header, trailer, and
+    * a slot for caller data.
+    */
+    private ByteBuffer[] gatherViews() {
+        if (gather == null) {
+            recHeader = new byte[FCGIGlobalDefs.def_FCGIHeaderLen];
+            gather = new ByteBuffer[] {
+                ByteBuffer.wrap(buff), ByteBuffer.wrap(recHeader),
+                ByteBuffer.wrap(trailer), null};
+        }
+        return gather;
+    }
+
+    private void writeFully(ByteBuffer[] bufs) throws IOException {
+        int n = bufs[3] == null ? 3 : 4;
+        long left = 0;
+        for (int i = 0; i < n; i++) {
+            left += bufs[i].remaining();
+        }
+        while (left > 0) {
+            left -= channel.write(bufs, 0, n);
+        }
+    }
+}
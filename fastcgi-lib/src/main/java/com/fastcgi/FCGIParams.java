@@ -0,0 +1,244 @@
+/*
+ * @(#)FCGIParams.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/*
+ * The params (CGI environment) of one request. The raw FCGI_PARAMS
+ * bytes are kept as they came, with an index of where each name and
+ * value starts; a value is turned into a String only when it is asked
+ * for, and then cached. The web server typically sends a few dozen
+ * params of which the application reads a handful.
+ *
+ * Names and values are decoded as UTF-8. When a name occurs more than
+ * once the last value wins, as it did with Properties.
+ */
+public class FCGIParams
+{
+    private static final int NAME_OFF = 0;
+    private static final int NAME_LEN = 1;
+    private static final int VALUE_OFF = 2;
+    private static final int VALUE_LEN = 3;
+    private static final int FIELDS = 4;
+
+    private byte[] data;
+    private int length;
+    private int parsed;
+
+    /* NAME_OFF, NAME_LEN, VALUE_OFF, VALUE_LEN per entry; offsets of -1
+     * mean the entry was put() and only exists as strings */
+    private int[] index = new int[32 * FIELDS];
+    private String[] names = new String[32];
+    private String[] values = new String[32];
+    private int count;
+
+    public FCGIParams() {
+        this(1024);
+    }
+
+    public FCGIParams(int capacity) {
+        data = new byte[capacity];
+    }
+
+    /*
+     * Appends FCGI_PARAMS content. Entries may be split anywhere between
+     * calls; complete ones are indexed right away.
+     */
+    public void append(byte[] b, int off, int len) {
+        if (length + len > data.length) {
+            byte[] grown = new byte[Math.max(data.length * 2, length + len)];
+            System.arraycopy(data, 0, grown, 0, length);
+            data = grown;
+        }
+        System.arraycopy(b, off, data, length, len);
+        length += len;
+        while (indexNext()) {
+            /* keep going */
+        }
+    }
+
+    /*
+     * Reads FCGI_PARAMS content from in until EOF. Returns -1 if the
+     * stream ended inside an entry.
+     */
+    public int read(InputStream in) throws IOException {
+        int n;
+        for (;;) {
+            if (length == data.length) {
+                byte[] grown = new byte[data.length * 2];
+                System.arraycopy(data, 0, grown, 0, length);
+                data = grown;
+            }
+            n = in.read(data, length, data.length - length);
+            if (n < 0) {
+                break;
+            }
+            length += n;
+            while (indexNext()) {
+                /* keep going */
+            }
+        }
+        return isComplete() ? 0 : -1;
+    }
+
+    /*
+     * True if no partial entry is left over.
+     */
+    public boolean isComplete() {
+        return parsed == length;
+    }
+
+    /*
+     * Indexes the entry at parsed if it is all there.
+     */
+    private boolean indexNext() {
+        int pos = parsed;
+        if (length - pos < 2) {
+            return false;
+        }
+        int nameLen = data[pos] & 0xFF;
+        if ((nameLen & 0x80) != 0) {
+            if (length - pos < 5) {
+                return false;
+            }
+            nameLen = readLength(pos);
+            pos += 4;
+        } else {
+            pos++;
+        }
+        int valueLen = data[pos] & 0xFF;
+        if ((valueLen & 0x80) != 0) {
+            if (length - pos < 4) {
+                return false;
+            }
+            valueLen = readLength(pos);
+            pos += 4;
+        } else {
+            pos++;
+        }
+        if (length - pos < (long) nameLen + valueLen) {
+            return false;
+        }
+        int i = add(null, null);
+        index[i * FIELDS + NAME_OFF] = pos;
+        index[i * FIELDS + NAME_LEN] = nameLen;
+        index[i * FIELDS + VALUE_OFF] = pos + nameLen;
+        index[i * FIELDS + VALUE_LEN] = valueLen;
+        parsed = pos + nameLen + valueLen;
+        return true;
+    }
+
+    private int readLength(int pos) {
+        return ((data[pos] & 0x7f) << 24)
+            | ((data[pos + 1] & 0xFF) << 16)
+            | ((data[pos + 2] & 0xFF) << 8)
+            | (data[pos + 3] & 0xFF);
+    }
+
+    private int add(String name, String value) {
+        if (count == names.length) {
+            int[] grownIndex = new int[index.length * 2];
+            System.arraycopy(index, 0, grownIndex, 0, index.length);
+            index = grownIndex;
+            String[] grownNames = new String[names.length * 2];
+            System.arraycopy(names, 0, grownNames, 0, count);
+            names = grownNames;
+            String[] grownValues = new String[values.length * 2];
+            System.arraycopy(values, 0, grownValues, 0, count);
+            values = grownValues;
+        }
+        names[count] = name;
+        values[count] = value;
+        if (name != null) {
+            index[count * FIELDS + NAME_OFF] = -1;
+            index[count * FIELDS + VALUE_OFF] = -1;
+        }
+        return count++;
+    }
+
+    /*
+     * Adds a param that did not come from the web server (ROLE).
+     */
+    public void put(String name, String value) {
+        add(name, value);
+    }
+
+    /*
+     * Returns the value of name, or null.
+     */
+    public String get(String name) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (nameEquals(i, name)) {
+                return value(i);
+            }
+        }
+        return null;
+    }
+
+    public String get(String name, String defaultValue) {
+        String value = get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String name(int i) {
+        if (names[i] == null) {
+            names[i] = new String(data, index[i * FIELDS + NAME_OFF],
+                index[i * FIELDS + NAME_LEN], StandardCharsets.UTF_8);
+        }
+        return names[i];
+    }
+
+    public String value(int i) {
+        if (values[i] == null) {
+            values[i] = new String(data, index[i * FIELDS + VALUE_OFF],
+                index[i * FIELDS + VALUE_LEN], StandardCharsets.UTF_8);
+        }
+        return values[i];
+    }
+
+    /*
+     * Compares the name of entry i with name without decoding it, as long
+     * as name is ASCII, which CGI variable names are.
+     */
+    private boolean nameEquals(int i, String name) {
+        if (names[i] != null) {
+            return names[i].equals(name);
+        }
+        int off = index[i * FIELDS + NAME_OFF];
+        int len = index[i * FIELDS + NAME_LEN];
+        int n = name.length();
+        for (int k = 0; k < n; k++) {
+            char c = name.charAt(k);
+            if (c >= 0x80) {
+                return name.equals(name(i));
+            }
+            if (k >= len || data[off + k] != (byte) c) {
+                return false;
+            }
+        }
+        return n == len;
+    }
+
+    /*
+     * All params as Properties, for code that wants the old form
+     * (FCGIInterface puts them in System.props).
+     */
+    public Properties toProperties(Properties defaults) {
+        Properties props = new Properties(defaults);
+        for (int i = 0; i < count; i++) {
+            props.put(name(i), value(i));
+        }
+        return props;
+    }
+}
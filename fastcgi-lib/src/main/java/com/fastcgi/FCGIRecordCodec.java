@@ -0,0 +1,113 @@
+/*
+ * @(#)FCGIRecordCodec.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+/*
+ * Encodes and decodes the fixed-size parts of FCGI records in place, in
+ * a buffer the caller already has: the 8-byte header, the BEGIN_REQUEST
+ * body and the END_REQUEST body. Nothing is allocated, so the stream
+ * classes can frame every record without creating garbage.
+ * FCGIMessage.makeHeader() and friends are kept for callers that want
+ * a fresh array.
+ */
+public final class FCGIRecordCodec
+{
+    private FCGIRecordCodec() {
+    }
+
+    /*
+     * Header: version, type, requestId (2 bytes), contentLength
+     * (2 bytes), paddingLength, reserved.
+     */
+    public static void encodeHeader(byte[] buf, int off, int type,
+        int requestID, int contentLength, int paddingLength) {
+        buf[off]     = (byte)FCGIGlobalDefs.def_FCGIVersion1;
+        buf[off + 1] = (byte)type;
+        buf[off + 2] = (byte)((requestID      >> 8) & 0xff);
+        buf[off + 3] = (byte)((requestID          ) & 0xff);
+        buf[off + 4] = (byte)((contentLength  >> 8) & 0xff);
+        buf[off + 5] = (byte)((contentLength      ) & 0xff);
+        buf[off + 6] = (byte)paddingLength;
+        buf[off + 7] = 0;  //reserved byte
+    }
+
+    public static int version(byte[] buf, int off) {
+        return buf[off] & 0xFF;
+    }
+
+    public static int type(byte[] buf, int off) {
+        return buf[off + 1] & 0xFF;
+    }
+
+    public static int requestID(byte[] buf, int off) {
+        return ((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF);
+    }
+
+    public static int contentLength(byte[] buf, int off) {
+        return ((buf[off + 4] & 0xFF) << 8) | (buf[off + 5] & 0xFF);
+    }
+
+    public static int paddingLength(byte[] buf, int off) {
+        return buf[off + 6] & 0xFF;
+    }
+
+    /*
+     * BEGIN_REQUEST body: role (2 bytes), flags, 5 reserved bytes.
+     */
+    public static void encodeBeginRequestBody(byte[] buf, int off,
+        int role, int flags) {
+        buf[off]     = (byte)((role >> 8) & 0xff);
+        buf[off + 1] = (byte)(role & 0xff);
+        buf[off + 2] = (byte)flags;
+        for (int i = 3; i < FCGIGlobalDefs.def_FCGIBeginReqBodyLen; i++) {
+            buf[off + i] = 0;
+        }
+    }
+
+    public static int role(byte[] buf, int off) {
+        return ((buf[off] & 0xFF) << 8) | (buf[off + 1] & 0xFF);
+    }
+
+    public static int flags(byte[] buf, int off) {
+        return buf[off + 2] & 0xFF;
+    }
+
+    /*
+     * END_REQUEST body: appStatus (4 bytes), protocolStatus,
+     * 3 reserved bytes.
+     */
+    public static void encodeEndRequestBody(byte[] buf, int off,
+        int appStatus, int protocolStatus) {
+        buf[off]     = (byte)((appStatus >> 24) & 0xff);
+        buf[off + 1] = (byte)((appStatus >> 16) & 0xff);
+        buf[off + 2] = (byte)((appStatus >>  8) & 0xff);
+        buf[off + 3] = (byte)((appStatus      ) & 0xff);
+        buf[off + 4] = (byte)protocolStatus;
+        buf[off + 5] = 0;
+        buf[off + 6] = 0;
+        buf[off + 7] = 0;
+    }
+
+    public static int appStatus(byte[] buf, int off) {
+        return ((buf[off] & 0xFF) << 24) | ((buf[off + 1] & 0xFF) << 16)
+            | ((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF);
+    }
+
+    public static int protocolStatus(byte[] buf, int off) {
+        return buf[off + 4] & 0xFF;
+    }
+
+    /*
+     * Encodes a complete END_REQUEST record (header and body, 16 bytes).
+     */
+    public static void encodeEndRequest(byte[] buf, int off, int requestID,
+        int appStatus, int protocolStatus) {
+        encodeHeader(buf, off, FCGIGlobalDefs.def_FCGIEndRequest, requestID,
+            FCGIGlobalDefs.def_FCGIEndReqBodyLen, 0);
+        encodeEndRequestBody(buf, off + FCGIGlobalDefs.def_FCGIHeaderLen,
+            appStatus, protocolStatus);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * @(#)FCGIRecordQueue.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/*
+ * Blocking byte queue between a thread that demultiplexes a connection
+ * and the FCGIInputStream of one request. The producer puts whole FCGI
+ * records (header and content) for that request only, so the consumer
+ * side is an ordinary FCGIInputStream that neither knows nor cares that
+ * other requests share the socket.
+ *
+ * The producer may stop at limit queued bytes until the consumer catches
+ * up, see awaitRoom() and hasRoom(). A record is always taken whole, so
+ * the queue holds at most limit bytes plus one record.
+ */
+class FCGIRecordQueue extends InputStream
+{
+    private static final byte[] RELEASED = new byte[0];
+
+    private byte[] buf;
+    private int head;
+    private int tail;
+    private boolean closed;
+    private final int limit;
+    private boolean producerWaiting;
+    private Runnable onRoom;
+
+    FCGIRecordQueue(int initialSize) {
+        this(new byte[Math.max(initialSize, FCGIGlobalDefs.def_FCGIHeaderLen)],
+            Integer.MAX_VALUE);
+    }
+
+    FCGIRecordQueue(byte[] buf, int limit) {
+        this.buf = buf;
+        this.limit = limit;
+    }
+
+    /*
+     * Appends one record: an 8-byte header without padding followed by
+     * len bytes of content.
+     */
+    synchronized void putRecord(int type, int requestID,
+        byte[] content, int off, int len) {
+        if (closed) {
+            return;
+        }
+        ensureRoom(FCGIGlobalDefs.def_FCGIHeaderLen + len);
+        FCGIRecordCodec.encodeHeader(buf, tail, type, requestID, len, 0);
+        tail += FCGIGlobalDefs.def_FCGIHeaderLen;
+        System.arraycopy(content, off, buf, tail, len);
+        tail += len;
+        notifyAll();
+    }
+
+    /*
+     * Blocks the producer while limit bytes or more are queued and the
+     * queue is open.
+     */
+    synchronized void awaitRoom() throws IOException {
+        while (tail - head >= limit && !closed) {
+            producerWaiting = true;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /*
+     * For a producer that must not block: returns true if fewer than
+     * limit bytes are queued or the queue is closed; otherwise false, and
+     * whenRoom runs once, under the queue's lock, as soon as that changes.
+     */
+    synchronized boolean hasRoom(Runnable whenRoom) {
+        if (tail - head < limit || closed) {
+            return true;
+        }
+        onRoom = whenRoom;
+        return false;
+    }
+
+    /*
+     * No more records will be put; readers get EOF once the queue drains.
+     */
+    synchronized void closeInput() {
+        closed = true;
+        notifyAll();
+        roomMade();
+    }
+
+    /*
+     * Closes the queue and returns its buffer, which nothing will touch
+     * any more: producers see the queue closed, and the consumer must be
+     * done with it.
+     */
+    synchronized byte[] release() {
+        closed = true;
+        head = tail = 0;
+        byte[] released = buf;
+        buf = RELEASED;
+        notifyAll();
+        roomMade();
+        return released;
+    }
+
+    /*
+     * Called by the consumer after it took bytes, and on close.
+     */
+    private void roomMade() {
+        if (tail - head >= limit && !closed) {
+            return;
+        }
+        if (producerWaiting) {
+            producerWaiting = false;
+            notifyAll();
+        }
+        Runnable r = onRoom;
+        if (r != null) {
+            onRoom = null;
+            r.run();
+        }
+    }
+
+    private void ensureRoom(int len) {
+        if (buf.length - tail >= len) {
+            return;
+        }
+        int used = tail - head;
+        if (buf.length - used < len) {
+            byte[] grown = new byte[Math.max(buf.length * 2, used + len)];
+            System.arraycopy(buf, head, grown, 0, used);
+            buf = grown;
+        } else {
+            System.arraycopy(buf, head, buf, 0, used);
+        }
+        head = 0;
+        tail = used;
+    }
+
+    private void await() throws IOException {
+        while (head == tail && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    public synchronized int read() throws IOException {
+        await();
+        if (head == tail) {
+            return -1;
+        }
+        int b = buf[head++] & 0xff;
+        roomMade();
+        return b;
+    }
+
+    public synchronized int read(byte b[], int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        await();
+        if (head == tail) {
+            return -1;
+        }
+        int n = Math.min(len, tail - head);
+        System.arraycopy(buf, head, b, off, n);
+        head += n;
+        roomMade();
+        return n;
+    }
+
+    public synchronized int available() {
+        return tail - head;
+    }
+
+    public void close() {
+        closeInput();
+    }
+}
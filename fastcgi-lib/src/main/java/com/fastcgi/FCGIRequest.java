@@ -14,7 +14,8 @@ package com.fastcgi;
 
 import java.net.*;
 import java.io.FileDescriptor;
-import java.util.Properties;
+import java.io.OutputStream;
+import java.nio.channels.GatheringByteChannel;
 
 public class FCGIRequest 
 {
@@ -38,6 +39,10 @@ public class FCGIRequest
      * instance variables
      */
     public Socket       socket;
+    /* raw output of the connection, shared by all requests on it */
+    public OutputStream connOut;
+    /* the same output as a channel, when there is one (FCGIServer) */
+    public GatheringByteChannel connChannel;
     public boolean      isBeginProcessed;
     public int      requestID;
     public boolean      keepConnection;
@@ -47,7 +52,13 @@ public class FCGIRequest
     public FCGIInputStream  inStream;
     public FCGIOutputStream outStream;
     public FCGIOutputStream errStream;
-    public Properties   params;
+    public FCGIParams   params;
+    /* FCGI_ABORT_REQUEST has arrived for this request */
+    public boolean      aborted;
+    /* called when it does (FCGIServer) */
+    public Runnable     onAbort;
+    /* settings of the serving FCGIServer, for FCGI_GET_VALUES replies */
+    public FCGIServerConfig config;
 }
 
 
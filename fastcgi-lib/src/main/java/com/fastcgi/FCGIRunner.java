@@ -0,0 +1,96 @@
+/*
+ * @(#)FCGIRunner.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Runs an FCGIHandler on exchanges that did not come in over a FastCGI
+ * connection, e.g. from a front end of the application's own, under the
+ * rules an FCGIServer with the same config applies: admission by
+ * maxRequests, maxQueue and maxQueueWait, the requestTimeout and
+ * deadlineParam deadline, and the completion of an FCGIAsyncHandler.
+ *
+ *      FCGIRequest request = FCGIRunner.newRequest(config);
+ *      request.params.put("REQUEST_METHOD", "GET");
+ *      ...
+ *      FCGIExchange exchange = new MyExchange(request, ...);
+ *      if (!runner.run(exchange) && !handler.overloaded(exchange)) {
+ *          ... answer 503 ...
+ *      }
+ *      exchange.finish();
+ *
+ * The exchange supplies its own streams by overriding getInputStream(),
+ * getOutputStream() and friends; it has no FCGI records.
+ */
+public class FCGIRunner
+{
+    private final FCGIServerConfig config;
+    private final FCGIHandler handler;
+    private final FCGIStats stats = new FCGIStats();
+    private final FCGIAdmission admission;
+
+    public FCGIRunner(FCGIServerConfig config, FCGIHandler handler) {
+        this.config = config;
+        this.handler = handler;
+        this.admission = new FCGIAdmission(config, stats);
+    }
+
+    /*
+     * A responder request with the ROLE param set, for a new exchange.
+     */
+    public static FCGIRequest newRequest(FCGIServerConfig config) {
+        FCGIRequest request = new FCGIRequest();
+        request.role = FCGIGlobalDefs.def_FCGIResponder;
+        request.config = config;
+        FCGIConnection.initParams(request);
+        return request;
+    }
+
+    /*
+     * Waits for admission and runs the handler on the exchange, until it
+     * is done with it. Returns false, without running the handler, if the
+     * request was rejected; the caller may then try handler.overloaded().
+     * A failing handler is reported through the request's appStatus, a
+     * request past its deadline through isCancelled(). The caller
+     * finishes the exchange.
+     */
+    public boolean run(FCGIExchange exchange) {
+        if (!admission.arrive() || !admission.start(System.nanoTime())) {
+            return false;
+        }
+        try {
+            FCGIConnection.handleAsync(handler, exchange, config).join();
+        } finally {
+            admission.finish();
+        }
+        return true;
+    }
+
+    /*
+     * Admission counters; the connection counters stay 0.
+     */
+    public FCGIStats getStats() {
+        return stats;
+    }
+
+    /*
+     * Threads for the connections of a front end: a virtual thread per
+     * task in THREADS_VIRTUAL mode when the JVM has them, otherwise a
+     * cached pool of daemon threads. Names start with prefix.
+     */
+    public static ExecutorService newConnectionExecutor(FCGIServerConfig config,
+        String prefix) {
+        if (FCGIServerConfig.THREADS_VIRTUAL.equalsIgnoreCase(config.threads)) {
+            ExecutorService virtual = FCGIServer.newVirtualThreadExecutor("v" + prefix);
+            if (virtual != null) {
+                return virtual;
+            }
+        }
+        return Executors.newCachedThreadPool(FCGIServer.namedThreads(prefix));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * @(#)FCGISelectorEngine.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Non-blocking engine of FCGIServer: a few FCGIEventLoop threads drive
+ * all connections, the first one also accepts. With several listening
+ * channels (FCGI_LISTENERS) channel i is accepted on loop i modulo the
+ * number of loops. Connections are spread over the loops round-robin. Handlers still run on the workers and see
+ * the same FCGIExchange as with the blocking engine.
+ */
+class FCGISelectorEngine
+{
+    private final FCGIServerConfig config;
+    private final FCGITransport transport;
+    private final FCGIHandler handler;
+    private final Executor workers;
+    private final FCGIAdmission admission;
+    private final FCGIKeepAlive keepAlive;
+    private final FCGIEventLoop[] loops;
+    private ServerSocketChannel[] srvChannels;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    FCGISelectorEngine(FCGIServerConfig config, FCGITransport transport,
+        FCGIHandler handler, Executor workers, FCGIAdmission admission,
+        FCGIKeepAlive keepAlive) throws IOException {
+        this.config = config;
+        this.transport = transport;
+        this.handler = handler;
+        this.workers = workers;
+        this.admission = admission;
+        this.keepAlive = keepAlive;
+        loops = new FCGIEventLoop[Math.max(1, config.eventLoops)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new FCGIEventLoop();
+        }
+    }
+
+    /*
+     * Takes over the listening channels and starts all loops but the
+     * first, which is run by serve().
+     */
+    void start(ServerSocketChannel[] srvChannels) throws IOException {
+        this.srvChannels = srvChannels;
+        for (int i = 0; i < srvChannels.length; i++) {
+            ServerSocketChannel srvChannel = srvChannels[i];
+            FCGIEventLoop loop = loops[i % loops.length];
+            srvChannel.configureBlocking(false);
+            srvChannel.register(loop.selector(), SelectionKey.OP_ACCEPT,
+                new FCGIEventLoop.Handler() {
+                    public void ready(SelectionKey key) throws IOException {
+                        accept(srvChannel);
+                    }
+
+                    public void fail(IOException e) {
+                        srvChannel.keyFor(loop.selector()).cancel();
+                    }
+                });
+        }
+        for (int i = 1; i < loops.length; i++) {
+            Thread t = new Thread(loops[i], "fcgi-loop-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /*
+     * Runs the accepting loop on the calling thread until shutdown().
+     */
+    void serve() {
+        loops[0].run();
+    }
+
+    private void accept(ServerSocketChannel srvChannel) throws IOException {
+        SocketChannel channel;
+        while ((channel = srvChannel.accept()) != null) {
+            try {
+                transport.accepted(channel);
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                channel.close();
+                continue;
+            }
+            FCGIEventLoop loop = loops[
+                Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+            FCGINioConnection conn = new FCGINioConnection(channel, loop,
+                config, handler, workers, admission);
+            if (!keepAlive.open(conn)) {
+                channel.close();
+                continue;
+            }
+            SocketChannel ch = channel;
+            loop.execute(() -> {
+                try {
+                    conn.register();
+                } catch (IOException e) {
+                    try {
+                        ch.close();
+                    } catch (IOException ignored) {
+                        /* ignore */
+                    }
+                    conn.closed();
+                }
+            });
+        }
+    }
+
+    void shutdown() throws IOException {
+        for (FCGIEventLoop loop : loops) {
+            loop.shutdown();
+        }
+        if (srvChannels != null) {
+            for (ServerSocketChannel srvChannel : srvChannels) {
+                srvChannel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * @(#)FCGIServer.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Multi-threaded FastCGI server. Unlike FCGIInterface, which keeps the
+ * current request in a static variable and swaps System.in/out/err, every
+ * accepted connection is served by a worker thread of its own and every
+ * request gets its own FCGIExchange, so requests do not share any global
+ * state and slow connections do not hold up the others.
+ *
+ *      new FCGIServer(FCGIServerConfig.fromProperties(System.getProperties()),
+ *          exchange -> { ... }).serve();
+ */
+public class FCGIServer
+{
+    private final FCGIServerConfig config;
+    private final FCGIHandler handler;
+    private ExecutorService workers;
+    private ExecutorService readers;
+    private final FCGIStats stats = new FCGIStats();
+    private FCGIAdmission admission;
+    private FCGIKeepAlive keepAlive;
+    private FCGISelectorEngine engine;
+    private FCGITransport transport;
+    private ServerSocketChannel srvChannel;
+    private ServerSocketChannel[] srvChannels;
+    private volatile boolean running;
+
+    public FCGIServer(FCGIServerConfig config, FCGIHandler handler) {
+        this.config = config;
+        this.handler = handler;
+    }
+
+    /*
+     * Binds the listening socket and starts the worker pool (and, with
+     * the selector engine, the event loops).
+     */
+    public void start() throws IOException {
+        /*
+         * Connections are accepted as channels with both engines, so
+         * FCGIOutputStream can use gathering writes and any FCGITransport
+         * can be served.
+         */
+        transport = FCGITransport.forConfig(config);
+        /*
+         * Several listeners only make sense on a port of our own, each
+         * bound with SO_REUSEPORT so the kernel spreads the connections.
+         */
+        int listeners = transport.getKind() == FCGITransport.TCP
+            ? Math.max(1, config.listeners) : 1;
+        srvChannels = new ServerSocketChannel[listeners];
+        try {
+            for (int i = 0; i < listeners; i++) {
+                srvChannels[i] = transport.open();
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+        srvChannel = srvChannels[0];
+        workers = newExecutor(config);
+        admission = new FCGIAdmission(config, stats);
+        keepAlive = new FCGIKeepAlive(config, stats);
+        keepAlive.start();
+        if (FCGIServerConfig.ENGINE_NIO.equalsIgnoreCase(config.engine)) {
+            engine = new FCGISelectorEngine(config, transport, handler, workers,
+                admission, keepAlive);
+            engine.start(srvChannels);
+            running = true;
+            return;
+        }
+        if (config.multiplex) {
+            /*
+             * Readers block on their socket for the connection's whole
+             * life; they must not take workers away from the requests.
+             */
+            if (FCGIServerConfig.THREADS_VIRTUAL.equalsIgnoreCase(config.threads)) {
+                readers = newVirtualThreadExecutor("fcgi-vreader-");
+            }
+            if (readers == null) {
+                readers = Executors.newCachedThreadPool(namedThreads("fcgi-reader-"));
+            }
+        }
+        running = true;
+    }
+
+    /*
+     * Accepts connections until close() is called. Calls start() first
+     * if that has not been done yet.
+     */
+    public void serve() throws IOException {
+        if (!running) {
+            start();
+        }
+        if (engine != null) {
+            engine.serve();
+            return;
+        }
+        for (int i = 1; i < srvChannels.length; i++) {
+            ServerSocketChannel listener = srvChannels[i];
+            Thread t = new Thread(() -> {
+                try {
+                    acceptLoop(listener);
+                } catch (IOException e) {
+                    System.err.println("FCGIServer: listener failed: " + e);
+                }
+            }, "fcgi-accept-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        acceptLoop(srvChannel);
+    }
+
+    private void acceptLoop(ServerSocketChannel listener) throws IOException {
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = listener.accept();
+            } catch (IOException e) {
+                if (!running) {
+                    break;
+                }
+                throw e;
+            }
+            try {
+                transport.accepted(channel);
+            } catch (IOException e) {
+                channel.close();
+                continue;
+            }
+            if (config.multiplex) {
+                FCGIMultiplexedConnection conn = new FCGIMultiplexedConnection(
+                    channel, config, handler, workers, admission);
+                if (keepAlive.open(conn)) {
+                    readers.execute(conn);
+                    continue;
+                }
+            } else {
+                FCGIConnection conn = new FCGIConnection(channel, config,
+                    handler, workers, admission);
+                if (keepAlive.open(conn)) {
+                    workers.execute(conn);
+                    continue;
+                }
+            }
+            /* over maxConnections with none idle to close */
+            channel.close();
+        }
+    }
+
+    /*
+     * Stops accepting connections and waits a little for the requests
+     * in progress.
+     */
+    public void close() throws IOException {
+        running = false;
+        if (engine != null) {
+            engine.shutdown();
+        }
+        if (srvChannel != null) {
+            closeChannels();
+            transport.closed();
+        }
+        if (readers != null) {
+            readers.shutdown();
+        }
+        if (keepAlive != null) {
+            keepAlive.shutdown();
+        }
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void closeChannels() throws IOException {
+        for (ServerSocketChannel ch : srvChannels) {
+            if (ch != null) {
+                ch.close();
+            }
+        }
+    }
+
+    /*
+     * The TCP port listened on, -1 before start() or for a Unix domain
+     * socket.
+     */
+    public int getLocalPort() {
+        try {
+            SocketAddress address = getLocalAddress();
+            return address instanceof InetSocketAddress
+                ? ((InetSocketAddress) address).getPort() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    public SocketAddress getLocalAddress() throws IOException {
+        return srvChannel == null ? null : srvChannel.getLocalAddress();
+    }
+
+    /*
+     * Admission and connection counters, see FCGIStats.
+     */
+    public FCGIStats getStats() {
+        return stats;
+    }
+
+    public FCGIServerConfig getConfig() {
+        return config;
+    }
+
+    /*
+     * Fixed pool of platform threads, or one virtual thread per connection
+     * in THREADS_VIRTUAL mode. The blocking FCGIInputStream.fill() and
+     * FCGIOutputStream.empty() only park the virtual thread, so idle
+     * keep-alive connections cost a small heap object instead of a
+     * platform thread stack.
+     */
+    static ExecutorService newExecutor(FCGIServerConfig config) {
+        if (FCGIServerConfig.THREADS_VIRTUAL.equalsIgnoreCase(config.threads)) {
+            ExecutorService virtual = newVirtualThreadExecutor("fcgi-vthread-");
+            if (virtual != null) {
+                return virtual;
+            }
+            System.err.println("FCGIServer: virtual threads are not available in this JVM, "
+                + "using a pool of " + config.workers + " workers");
+        }
+        return Executors.newFixedThreadPool(config.workers,
+            namedThreads("fcgi-worker-"));
+    }
+
+    /*
+     * Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 1).factory()),
+     * looked up reflectively so the library still builds and runs on JDK 17.
+     * Returns null if the running JVM has no virtual threads.
+     */
+    static ExecutorService newVirtualThreadExecutor(String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Class<?> ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = ofVirtualClass.getMethod("name", String.class, long.class)
+                .invoke(builder, prefix, 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class
+                .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                .invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * @(#)FCGIServerConfig.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.util.Properties;
+
+/*
+ * Settings of an FCGIServer. Like FCGIInterface, the values are normally
+ * taken from system properties (-DFCGI_PORT=9000 -DFCGI_WORKERS=16 ...),
+ * see fromProperties().
+ */
+public class FCGIServerConfig
+{
+    public static final String THREADS_POOL = "pool";
+    public static final String THREADS_VIRTUAL = "virtual";
+    public static final String ENGINE_BLOCKING = "blocking";
+    public static final String ENGINE_NIO = "nio";
+
+    /*
+     * TCP port to listen on (FCGI_PORT).
+     */
+    public int port;
+    /*
+     * Listen on this Unix domain socket instead (FCGI_SOCKET_PATH), or
+     * on a socket inherited from the parent process (FCGI_INHERIT_SOCKET),
+     * see FCGITransport. A transport set here overrides all three.
+     */
+    public String socketPath;
+    public boolean inheritSocket;
+    public FCGITransport transport;
+    /*
+     * Listen backlog (FCGI_BACKLOG) and socket options (FCGI_TCP_NODELAY,
+     * FCGI_SO_RCVBUF, FCGI_SO_SNDBUF); a buffer size of 0 keeps the system
+     * default.
+     */
+    public int backlog = 1024;
+    public boolean tcpNoDelay = true;
+    public int receiveBufferSize;
+    public int sendBufferSize;
+    /*
+     * Bind the TCP port with SO_REUSEPORT (FCGI_REUSE_PORT), so several
+     * JVMs can listen on it, see FCGILauncher; and the number of
+     * listening sockets this server opens on it (FCGI_LISTENERS), each
+     * with an accepting thread of its own. More than one listener
+     * implies SO_REUSEPORT; other transports always have one.
+     */
+    public boolean reusePort;
+    public int listeners = 1;
+    /*
+     * Number of worker threads serving connections (FCGI_WORKERS).
+     */
+    public int workers = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    /*
+     * How connections are run (FCGI_THREADS): THREADS_POOL serves them on
+     * the fixed pool of workers, THREADS_VIRTUAL starts a virtual thread
+     * per connection (needs a JDK with virtual threads, falls back to the
+     * pool otherwise).
+     */
+    public String threads = THREADS_POOL;
+    /*
+     * Accept several concurrent requests on one connection
+     * (FCGI_MPXS_CONNS=1). Each connection then gets a reader thread that
+     * routes records by request ID, and requests run on the workers.
+     */
+    public boolean multiplex;
+    /*
+     * I/O engine (FCGI_ENGINE): ENGINE_BLOCKING reads and writes each
+     * connection on a thread of its own, ENGINE_NIO drives all
+     * connections from eventLoops selector threads (FCGI_EVENT_LOOPS) and
+     * only runs the handlers on the workers.
+     */
+    public String engine = ENGINE_BLOCKING;
+    public int eventLoops = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    /*
+     * Selector engine only: output bytes a connection may queue before
+     * the writing request has to wait for the peer.
+     */
+    public int maxPendingOutput = 256 * 1024;
+    /*
+     * Multiplexed connections and the selector engine: FCGI_STDIN bytes a
+     * request may have queued before its handler reads them. The
+     * connection is not read further until the handler catches up.
+     */
+    public int maxPendingInput = 64 * 1024;
+    /*
+     * Admission control, see FCGIAdmission: at most maxRequests handlers
+     * run at once (FCGI_MAX_REQUESTS), at most maxQueue requests wait for
+     * one (FCGI_MAX_QUEUE), and none waits more than maxQueueWait
+     * milliseconds (FCGI_MAX_QUEUE_WAIT). Requests over the limits get
+     * FCGI_OVERLOAD. 0 turns a limit off.
+     */
+    public int maxRequests;
+    public int maxQueue;
+    public int maxQueueWait;
+    /*
+     * Requests running longer than requestTimeout milliseconds
+     * (FCGI_REQUEST_TIMEOUT) are cancelled, see FCGIExchange.isCancelled().
+     * deadlineParam (FCGI_DEADLINE_PARAM) names a param in which the web
+     * server may ask for a shorter limit, e.g. HTTP_X_REQUEST_TIMEOUT.
+     */
+    public int requestTimeout;
+    public String deadlineParam;
+    /*
+     * Keep-alive, see FCGIKeepAlive: connections waiting idleTimeout
+     * milliseconds for the next request (FCGI_IDLE_TIMEOUT), or
+     * readTimeout milliseconds for more input of a begun one
+     * (FCGI_READ_TIMEOUT), are closed; at most maxConnections are open
+     * at once (FCGI_MAX_CONNECTIONS). 0 turns a limit off.
+     */
+    public int idleTimeout;
+    public int readTimeout;
+    public int maxConnections;
+    /*
+     * Size of the FCGI_STDIN/FCGI_STDOUT buffers, and of FCGI_STDERR.
+     */
+    public int bufferSize = 8192;
+    public int errBufferSize = 512;
+
+    /*
+     * What FCGI_GET_VALUES replies report for a limit that is off: the
+     * most request IDs a connection can carry.
+     */
+    public static final int UNLIMITED = 0xffff;
+
+    /*
+     * The value of an FCGI_GET_VALUES variable for a server with these
+     * settings, or null for a variable this library does not know.
+     *
+     *   FCGI_MAX_CONNS   maxConnections; a sequential blocking connection
+     *                    also holds a pool worker while it is open, so
+     *                    there are at most workers of them
+     *   FCGI_MAX_REQS    maxRequests, or the number of pool workers
+     *   FCGI_MPXS_CONNS  1 for multiplexing setups, which the selector
+     *                    engine always is
+     */
+    public String getValue(String name) {
+        boolean pool = !THREADS_VIRTUAL.equalsIgnoreCase(threads);
+        boolean mpxs = multiplex || ENGINE_NIO.equalsIgnoreCase(engine);
+        if (FCGIGlobalDefs.def_FCGIMaxConns.equals(name)) {
+            int conns = !mpxs && pool ? workers : UNLIMITED;
+            if (maxConnections > 0 && maxConnections < conns) {
+                conns = maxConnections;
+            }
+            return Integer.toString(conns);
+        }
+        if (FCGIGlobalDefs.def_FCGIMaxReqs.equals(name)) {
+            int reqs = pool ? workers : UNLIMITED;
+            if (maxRequests > 0 && maxRequests < reqs) {
+                reqs = maxRequests;
+            }
+            return Integer.toString(reqs);
+        }
+        if (FCGIGlobalDefs.def_FCGIMpxsConns.equals(name)) {
+            return mpxs ? "1" : "0";
+        }
+        return null;
+    }
+
+    public static FCGIServerConfig fromProperties(Properties props) {
+        FCGIServerConfig config = new FCGIServerConfig();
+        config.port = intProperty(props, "FCGI_PORT", config.port);
+        config.socketPath = props.getProperty("FCGI_SOCKET_PATH", config.socketPath);
+        config.inheritSocket = booleanProperty(props, "FCGI_INHERIT_SOCKET", config.inheritSocket);
+        config.backlog = intProperty(props, "FCGI_BACKLOG", config.backlog);
+        config.tcpNoDelay = booleanProperty(props, "FCGI_TCP_NODELAY", config.tcpNoDelay);
+        config.receiveBufferSize = intProperty(props, "FCGI_SO_RCVBUF", config.receiveBufferSize);
+        config.sendBufferSize = intProperty(props, "FCGI_SO_SNDBUF", config.sendBufferSize);
+        config.reusePort = booleanProperty(props, "FCGI_REUSE_PORT", config.reusePort);
+        config.listeners = intProperty(props, "FCGI_LISTENERS", config.listeners);
+        config.workers = intProperty(props, "FCGI_WORKERS", config.workers);
+        config.threads = props.getProperty("FCGI_THREADS", config.threads);
+        config.multiplex = booleanProperty(props, "FCGI_MPXS_CONNS", config.multiplex);
+        config.engine = props.getProperty("FCGI_ENGINE", config.engine);
+        config.eventLoops = intProperty(props, "FCGI_EVENT_LOOPS", config.eventLoops);
+        config.maxRequests = intProperty(props, "FCGI_MAX_REQUESTS", config.maxRequests);
+        config.maxQueue = intProperty(props, "FCGI_MAX_QUEUE", config.maxQueue);
+        config.maxQueueWait = intProperty(props, "FCGI_MAX_QUEUE_WAIT", config.maxQueueWait);
+        config.requestTimeout = intProperty(props, "FCGI_REQUEST_TIMEOUT", config.requestTimeout);
+        config.deadlineParam = props.getProperty("FCGI_DEADLINE_PARAM", config.deadlineParam);
+        config.idleTimeout = intProperty(props, "FCGI_IDLE_TIMEOUT", config.idleTimeout);
+        config.readTimeout = intProperty(props, "FCGI_READ_TIMEOUT", config.readTimeout);
+        config.maxConnections = intProperty(props, "FCGI_MAX_CONNECTIONS", config.maxConnections);
+        return config;
+    }
+
+    static boolean booleanProperty(Properties props, String name, boolean defaultValue) {
+        String str = props.getProperty(name);
+        if (str == null || str.isBlank()) {
+            return defaultValue;
+        }
+        str = str.trim();
+        return str.equals("1") || str.equalsIgnoreCase("true");
+    }
+
+    static int intProperty(Properties props, String name, int defaultValue) {
+        String str = props.getProperty(name);
+        if (str == null || str.isBlank()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(str.trim());
+    }
+}
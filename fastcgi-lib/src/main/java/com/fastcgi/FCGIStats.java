@@ -0,0 +1,155 @@
+/*
+ * @(#)FCGIStats.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Counters of an FCGIServer, see FCGIServer.getStats(). All values are
+ * totals since start except the in-flight and queued gauges.
+ */
+public class FCGIStats
+{
+    final LongAdder admitted = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final LongAdder queueTimeNanos = new LongAdder();
+    final AtomicLong maxQueueTimeNanos = new AtomicLong();
+    volatile int inFlight;
+    volatile int queued;
+    /* connections, see FCGIKeepAlive */
+    final LongAdder connectionsOpened = new LongAdder();
+    final LongAdder connectionsClosed = new LongAdder();
+    final LongAdder connectionsRefused = new LongAdder();
+    final LongAdder connectionsEvicted = new LongAdder();
+    final LongAdder idleTimeouts = new LongAdder();
+    final LongAdder readTimeouts = new LongAdder();
+    final LongAdder connectionRequests = new LongAdder();
+    final LongAdder reusedRequests = new LongAdder();
+    final AtomicLong maxRequestsPerConnection = new AtomicLong();
+    volatile int openConnections;
+
+    /*
+     * Requests that were passed to the handler.
+     */
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    /*
+     * Requests answered with FCGI_OVERLOAD (or the handler's overload
+     * reply) because the queue was full or they waited too long.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /*
+     * Total and longest time admitted requests waited for a worker.
+     */
+    public long getQueueTimeNanos() {
+        return queueTimeNanos.sum();
+    }
+
+    public long getMaxQueueTimeNanos() {
+        return maxQueueTimeNanos.get();
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public int getQueued() {
+        return queued;
+    }
+
+    /*
+     * Connection churn: connections accepted and closed, for any reason,
+     * and the ones currently open.
+     */
+    public long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    public long getConnectionsClosed() {
+        return connectionsClosed.sum();
+    }
+
+    public int getOpenConnections() {
+        return openConnections;
+    }
+
+    /*
+     * Connections closed right after accept because maxConnections were
+     * open and none was idle, and idle ones closed to make room.
+     */
+    public long getConnectionsRefused() {
+        return connectionsRefused.sum();
+    }
+
+    public long getConnectionsEvicted() {
+        return connectionsEvicted.sum();
+    }
+
+    /*
+     * Connections closed by the idle and read timeouts.
+     */
+    public long getIdleTimeouts() {
+        return idleTimeouts.sum();
+    }
+
+    public long getReadTimeouts() {
+        return readTimeouts.sum();
+    }
+
+    /*
+     * Requests begun on all connections, on average per connection and
+     * at most on one closed connection.
+     */
+    public long getConnectionRequests() {
+        return connectionRequests.sum();
+    }
+
+    public double getRequestsPerConnection() {
+        long opened = getConnectionsOpened();
+        return opened == 0 ? 0 : (double) getConnectionRequests() / opened;
+    }
+
+    public long getMaxRequestsPerConnection() {
+        return maxRequestsPerConnection.get();
+    }
+
+    /*
+     * Share of requests that came on a connection which had served one
+     * before, i.e. did not pay for a connection setup.
+     */
+    public double getReuseRatio() {
+        long requests = getConnectionRequests();
+        return requests == 0 ? 0 : (double) reusedRequests.sum() / requests;
+    }
+
+    void queueTime(long nanos) {
+        queueTimeNanos.add(nanos);
+        maxQueueTimeNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public String toString() {
+        return "admitted=" + getAdmitted() + " rejected=" + getRejected()
+            + " inFlight=" + inFlight + " queued=" + queued
+            + " queueTimeMs=" + getQueueTimeNanos() / 1000000
+            + " maxQueueTimeMs=" + getMaxQueueTimeNanos() / 1000000
+            + " connections=" + openConnections
+            + " opened=" + getConnectionsOpened()
+            + " closed=" + getConnectionsClosed()
+            + " refused=" + getConnectionsRefused()
+            + " evicted=" + getConnectionsEvicted()
+            + " idleTimeouts=" + getIdleTimeouts()
+            + " readTimeouts=" + getReadTimeouts()
+            + " requestsPerConnection="
+            + String.format("%.2f", getRequestsPerConnection())
+            + " reuseRatio=" + String.format("%.3f", getReuseRatio());
+    }
+}
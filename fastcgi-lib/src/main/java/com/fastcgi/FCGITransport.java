@@ -0,0 +1,143 @@
+/*
+ * @(#)FCGITransport.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * Where FCGIServer takes its connections from:
+ *
+ *   TCP        a port of its own (FCGI_PORT), with the backlog, TCP_NODELAY,
+ *              SO_REUSEPORT and socket buffer sizes of the config
+ *   UNIX       a Unix domain socket (FCGI_SOCKET_PATH), saving the loopback
+ *              TCP round trip when the web server runs on the same host
+ *   INHERITED  a listening socket opened by whoever started the JVM
+ *              (System.inheritedChannel(), FCGI_INHERIT_SOCKET=1), the way
+ *              mod_fcgid and spawn-fcgi hand one over on stdin
+ *
+ * Subclasses can listen elsewhere by overriding open().
+ */
+public class FCGITransport
+{
+    public static final int TCP = 0;
+    public static final int UNIX = 1;
+    public static final int INHERITED = 2;
+
+    protected final FCGIServerConfig config;
+    protected final int kind;
+    private Path socketPath;
+
+    public FCGITransport(FCGIServerConfig config, int kind) {
+        this.config = config;
+        this.kind = kind;
+    }
+
+    /*
+     * Picks the transport the config asks for: an inherited socket, then
+     * a socket path, then the TCP port.
+     */
+    public static FCGITransport forConfig(FCGIServerConfig config) {
+        if (config.transport != null) {
+            return config.transport;
+        }
+        if (config.inheritSocket) {
+            return new FCGITransport(config, INHERITED);
+        }
+        if (config.socketPath != null && !config.socketPath.isEmpty()) {
+            return new FCGITransport(config, UNIX);
+        }
+        return new FCGITransport(config, TCP);
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    /*
+     * Returns the bound listening channel, in blocking mode.
+     */
+    public ServerSocketChannel open() throws IOException {
+        ServerSocketChannel srvChannel;
+        switch (kind) {
+        case UNIX:
+            socketPath = Path.of(config.socketPath);
+            /*
+             * A socket file left behind by an earlier run would make
+             * bind() fail.
+             */
+            Files.deleteIfExists(socketPath);
+            srvChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            setOption(srvChannel, StandardSocketOptions.SO_RCVBUF, config.receiveBufferSize);
+            srvChannel.bind(UnixDomainSocketAddress.of(socketPath), config.backlog);
+            return srvChannel;
+        case INHERITED:
+            Channel inherited = System.inheritedChannel();
+            if (!(inherited instanceof ServerSocketChannel)) {
+                throw new IOException("no listening socket was inherited");
+            }
+            srvChannel = (ServerSocketChannel) inherited;
+            srvChannel.configureBlocking(true);
+            return srvChannel;
+        default:
+            if (config.port <= 0) {
+                throw new IOException("FCGI_PORT is not set");
+            }
+            srvChannel = ServerSocketChannel.open();
+            srvChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (config.reusePort || config.listeners > 1) {
+                if (!srvChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    srvChannel.close();
+                    throw new IOException("SO_REUSEPORT is not supported on this platform");
+                }
+                srvChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            /*
+             * Set before bind so a large window can be negotiated.
+             */
+            setOption(srvChannel, StandardSocketOptions.SO_RCVBUF, config.receiveBufferSize);
+            srvChannel.bind(new InetSocketAddress(config.port), config.backlog);
+            return srvChannel;
+        }
+    }
+
+    /*
+     * Applies the per-connection options to an accepted channel.
+     */
+    public void accepted(SocketChannel channel) throws IOException {
+        if (config.tcpNoDelay
+            && channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        setOption(channel, StandardSocketOptions.SO_SNDBUF, config.sendBufferSize);
+    }
+
+    /*
+     * Called after the listening channel is closed.
+     */
+    public void closed() throws IOException {
+        if (socketPath != null) {
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+    private static void setOption(NetworkChannel channel,
+        SocketOption<Integer> option, int value) throws IOException {
+        if (value > 0 && channel.supportedOptions().contains(option)) {
+            channel.setOption(option, value);
+        }
+    }
+}
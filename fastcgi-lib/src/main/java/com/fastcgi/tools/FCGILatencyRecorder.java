@@ -0,0 +1,140 @@
+/*
+ * @(#)FCGILatencyRecorder.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi.tools;
+
+import java.util.Arrays;
+
+/*
+ * Histogram of latencies in nanoseconds, log-linear like HdrHistogram:
+ * exact below 512 ns, above that 256 buckets per power of two, so a
+ * recorded value is off by less than 0.4%, up to about 18 minutes
+ * (2^40 ns; longer ones count as that). Recording takes no lock and
+ * allocates nothing; every load thread keeps its own recorder and they
+ * are added up at the end.
+ */
+class FCGILatencyRecorder
+{
+    private static final int SUB_BITS = 9;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF = SUB_COUNT / 2;
+    private static final int MAX_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private static final int BUCKETS = SUB_COUNT + (MAX_BITS - SUB_BITS) * HALF;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+    private long max;
+    private double sum;
+
+    void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    void record(long nanos, long count) {
+        nanos = Math.max(0, Math.min(MAX_VALUE, nanos));
+        counts[index(nanos)] += count;
+        total += count;
+        sum += (double) nanos * count;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    void add(FCGILatencyRecorder other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    long count() {
+        return total;
+    }
+
+    long max() {
+        return max;
+    }
+
+    double mean() {
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /*
+     * The value below which a fraction p of the recorded values lie,
+     * reported as the top of its bucket.
+     */
+    long percentile(double p) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValue(i));
+            }
+        }
+        return max;
+    }
+
+    /*
+     * Corrects for coordinated omission the way HdrHistogram's
+     * copyCorrectedForCoordinatedOmission does. A client that sends its
+     * next request only after the last answer stops sending while the
+     * server stalls, so a stall of length v shows up once instead of
+     * once for every request that should have been sent meanwhile. For
+     * each value v above expectedInterval the missing requests are added
+     * back with latencies v - expectedInterval, v - 2 * expectedInterval
+     * and so on.
+     */
+    FCGILatencyRecorder corrected(long expectedInterval) {
+        FCGILatencyRecorder copy = new FCGILatencyRecorder();
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts[i];
+            if (count == 0) {
+                continue;
+            }
+            long value = Math.min(max, highestValue(i));
+            copy.record(value, count);
+            if (expectedInterval <= 0) {
+                continue;
+            }
+            for (long missing = value - expectedInterval; missing >= expectedInterval;
+                missing -= expectedInterval) {
+                copy.record(missing, count);
+            }
+        }
+        copy.max = max;
+        return copy;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return SUB_COUNT + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    private static long highestValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_COUNT) / HALF + 1;
+        long sub = (index - SUB_COUNT) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * @(#)FCGILoadGenerator.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi.tools;
+
+import com.fastcgi.FCGIClient;
+import com.fastcgi.FCGIGlobalDefs;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Load generator that stands in for the web tier: speaks FastCGI
+ * straight to a running application, over TCP or its Unix domain
+ * socket, with keep-alive connections, and reports throughput and
+ * latency percentiles. Requests are a mix of the area check as a form
+ * POST, as a GET with a query string, and invalid ones, with the params
+ * mod_fastcgi would send.
+ *
+ *      java -cp fastcgi-lib.jar com.fastcgi.tools.FCGILoadGenerator \
+ *          [host=127.0.0.1] [port=9000 | socket=/path] [connections=16] \
+ *          [mode=closed | mode=open rate=1000] [duration=30] [warmup=5] \
+ *          [post=80] [get=20] [bad=0] [script=/fcgi-bin/server.jar] \
+ *          [interval=<ms>]
+ *
+ * closed  every connection sends its next request as soon as the last
+ *         one is answered. Latency is measured per request and also
+ *         reported corrected for coordinated omission, with interval
+ *         (default: the measured median) as the expected time between
+ *         requests of a connection.
+ * open    requests are due at a constant total rate, spread evenly over
+ *         the connections, whether or not earlier ones were answered.
+ *         Response time counts from when a request was due, so a stall
+ *         delays the requests behind it and shows in the percentiles
+ *         (no coordinated omission); service time counts from when it
+ *         was actually sent.
+ *
+ * post, get and bad are weights. Nothing is recorded during warmup.
+ */
+public class FCGILoadGenerator
+{
+    private static final float[] VALID_X = {-2f, -1.5f, -1f, -0.5f, 0f, 0.5f, 1f, 1.5f, 2f};
+    private static final int VARIANTS = 64;
+
+    private final SocketAddress address;
+    private final int connections;
+    private final boolean open;
+    private final double rate;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final int[] weights;
+    private final String script;
+    private long measureFrom;
+
+    FCGILoadGenerator(Map<String, String> opts) {
+        String socket = opts.get("socket");
+        address = socket != null ? UnixDomainSocketAddress.of(socket)
+            : new InetSocketAddress(opts.getOrDefault("host", "127.0.0.1"),
+                Integer.parseInt(opts.getOrDefault("port", "9000")));
+        connections = Integer.parseInt(opts.getOrDefault("connections", "16"));
+        open = "open".equals(opts.getOrDefault("mode", "closed"));
+        rate = Double.parseDouble(opts.getOrDefault("rate", "1000"));
+        warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(opts.getOrDefault("warmup", "5")));
+        durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(opts.getOrDefault("duration", "30")));
+        weights = new int[] {
+            Integer.parseInt(opts.getOrDefault("post", "80")),
+            Integer.parseInt(opts.getOrDefault("get", "20")),
+            Integer.parseInt(opts.getOrDefault("bad", "0"))
+        };
+        script = opts.getOrDefault("script", "/fcgi-bin/server.jar");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                System.err.println("arguments are name=value, see the class comment");
+                System.exit(2);
+            }
+            opts.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        FCGILoadGenerator generator = new FCGILoadGenerator(opts);
+        Result result = generator.run();
+        String interval = opts.get("interval");
+        long expected = interval != null
+            ? (long) (Double.parseDouble(interval) * 1e6)
+            : result.service.percentile(0.50);
+        generator.report(result, expected);
+    }
+
+    /*
+     * One request as it goes on the wire.
+     */
+    private static class Variant
+    {
+        final Map<String, String> params;
+        final byte[] stdin;
+
+        Variant(Map<String, String> params, byte[] stdin) {
+            this.params = params;
+            this.stdin = stdin;
+        }
+    }
+
+    /*
+     * Counters of one connection, added up at the end.
+     */
+    private static class Result
+    {
+        final FCGILatencyRecorder response = new FCGILatencyRecorder();
+        final FCGILatencyRecorder service = new FCGILatencyRecorder();
+        /* by HTTP status class: 1xx .. 5xx, [0] for no status */
+        final long[] statuses = new long[6];
+        long overloaded;
+        long errors;
+        /* System.nanoTime() of the last measured answer */
+        long lastDone;
+
+        void add(Result other) {
+            response.add(other.response);
+            service.add(other.service);
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] += other.statuses[i];
+            }
+            overloaded += other.overloaded;
+            errors += other.errors;
+            if (lastDone == 0 || other.lastDone - lastDone > 0) {
+                lastDone = other.lastDone;
+            }
+        }
+    }
+
+    Result run() throws InterruptedException {
+        List<List<Variant>> mix = new ArrayList<>();
+        SplittableRandom random = new SplittableRandom(1);
+        mix.add(variants(random, "POST", false));
+        mix.add(variants(random, "GET", false));
+        mix.add(variants(random, "POST", true));
+
+        Result[] results = new Result[connections];
+        Thread[] threads = new Thread[connections];
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureFrom = start + warmupNanos;
+        this.measureFrom = measureFrom;
+        long end = measureFrom + durationNanos;
+        /* each connection's share of the rate */
+        long interval = (long) (connections * 1e9 / Math.max(rate, 1e-3));
+        for (int c = 0; c < connections; c++) {
+            Result result = new Result();
+            results[c] = result;
+            SplittableRandom connRandom = random.split();
+            long first = start + interval * c / connections;
+            threads[c] = new Thread(() -> drive(result, connRandom, mix,
+                first, interval, measureFrom, end), "fcgi-load-" + c);
+            threads[c].setDaemon(true);
+            threads[c].start();
+        }
+        Result total = new Result();
+        for (int c = 0; c < connections; c++) {
+            threads[c].join();
+            total.add(results[c]);
+        }
+        return total;
+    }
+
+    private void drive(Result result, SplittableRandom random,
+        List<List<Variant>> mix, long first, long interval, long measureFrom,
+        long end) {
+        FCGIClient client = null;
+        long due = first;
+        int weightSum = weights[0] + weights[1] + weights[2];
+        while (true) {
+            long now = System.nanoTime();
+            if (open) {
+                if (due - end >= 0) {
+                    break;
+                }
+                while ((now = System.nanoTime()) - due < 0) {
+                    LockSupport.parkNanos(due - now);
+                }
+            } else {
+                if (now - end >= 0) {
+                    break;
+                }
+                if (now - first < 0) {
+                    LockSupport.parkNanos(first - now);
+                    continue;
+                }
+                due = now;
+            }
+            boolean measured = due - measureFrom >= 0;
+            Variant variant = pick(random, mix, weightSum);
+            try {
+                if (client == null) {
+                    client = new FCGIClient(address);
+                }
+                long sent = System.nanoTime();
+                FCGIClient.Response response = client.send(1, variant.params,
+                    variant.stdin, true);
+                long done = System.nanoTime();
+                if (measured) {
+                    result.response.record(done - due);
+                    result.service.record(done - sent);
+                    result.lastDone = done;
+                    count(result, response);
+                }
+            } catch (IOException e) {
+                if (measured) {
+                    result.errors++;
+                }
+                client = close(client);
+                /* do not spin on a server that is down */
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+            due += interval;
+        }
+        close(client);
+    }
+
+    private static FCGIClient close(FCGIClient client) {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                /* ignore */
+            }
+        }
+        return null;
+    }
+
+    private Variant pick(SplittableRandom random, List<List<Variant>> mix, int weightSum) {
+        int r = random.nextInt(Math.max(1, weightSum));
+        int kind = 0;
+        while (kind < weights.length - 1 && r >= weights[kind]) {
+            r -= weights[kind];
+            kind++;
+        }
+        List<Variant> variants = mix.get(kind);
+        return variants.get(random.nextInt(variants.size()));
+    }
+
+    /*
+     * FCGI_OVERLOAD, or the class of the HTTP status the application
+     * answered with: an NPH status line or a CGI Status header, else 200.
+     */
+    private static void count(Result result, FCGIClient.Response response) {
+        if (response.protocolStatus == FCGIGlobalDefs.def_FCGIOverload) {
+            result.overloaded++;
+            return;
+        }
+        byte[] out = response.stdout;
+        int status = 0;
+        if (startsWith(out, "HTTP/")) {
+            int sp = indexOf(out, (byte) ' ', 0);
+            status = sp < 0 ? 0 : digits(out, sp + 1);
+        } else if (startsWith(out, "Status:")) {
+            status = digits(out, "Status: ".length());
+        } else if (out.length > 0) {
+            status = 200;
+        }
+        int cls = status / 100;
+        result.statuses[cls >= 1 && cls <= 5 ? cls : 0]++;
+    }
+
+    private static boolean startsWith(byte[] b, String prefix) {
+        if (b.length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (b[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] b, byte c, int from) {
+        for (int i = from; i < b.length; i++) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int digits(byte[] b, int off) {
+        int n = 0;
+        for (int i = off; i < Math.min(b.length, off + 3); i++) {
+            if (b[i] < '0' || b[i] > '9') {
+                return 0;
+            }
+            n = n * 10 + (b[i] - '0');
+        }
+        return n;
+    }
+
+    /*
+     * VARIANTS requests of one kind with random points: valid ones, or
+     * with bad set, ones the validator rejects.
+     */
+    private List<Variant> variants(SplittableRandom random, String method, boolean bad) {
+        List<Variant> variants = new ArrayList<>();
+        for (int i = 0; i < VARIANTS; i++) {
+            String query;
+            if (bad) {
+                query = i % 2 == 0
+                    ? String.format(Locale.ROOT, "x=%.1f&y=%.2f&r=%.1f", 7.0,
+                        random.nextDouble(-3, 5), 2.0)
+                    : "x=abc&y=1&r=2";
+            } else {
+                query = String.format(Locale.ROOT, "x=%.1f&y=%.2f&r=%.1f",
+                    VALID_X[random.nextInt(VALID_X.length)],
+                    random.nextDouble(-3, 5), 1 + random.nextInt(7) * 0.5);
+            }
+            byte[] body = "POST".equals(method)
+                ? query.getBytes(StandardCharsets.US_ASCII) : new byte[0];
+            variants.add(new Variant(params(method, "POST".equals(method) ? "" : query,
+                body.length), body));
+        }
+        return variants;
+    }
+
+    private Map<String, String> params(String method, String query, int contentLength) {
+        Map<String, String> params = new LinkedHashMap<>();
+        if (contentLength > 0) {
+            params.put("CONTENT_TYPE", "application/x-www-form-urlencoded");
+            params.put("CONTENT_LENGTH", Integer.toString(contentLength));
+        }
+        params.put("HTTP_HOST", "localhost:8080");
+        params.put("HTTP_ACCEPT", "application/json, text/javascript, */*; q=0.01");
+        params.put("HTTP_X_REQUESTED_WITH", "XMLHttpRequest");
+        params.put("SERVER_SOFTWARE", "Apache/2.4");
+        params.put("SERVER_NAME", "localhost");
+        params.put("SERVER_PORT", "8080");
+        params.put("REMOTE_ADDR", "127.0.0.1");
+        params.put("GATEWAY_INTERFACE", "CGI/1.1");
+        params.put("SERVER_PROTOCOL", "HTTP/1.1");
+        params.put("REQUEST_METHOD", method);
+        params.put("QUERY_STRING", query);
+        params.put("REQUEST_URI", query.isEmpty() ? script : script + "?" + query);
+        params.put("SCRIPT_NAME", script);
+        return params;
+    }
+
+    void report(Result result, long expectedInterval) {
+        double seconds = durationNanos / 1e9;
+        System.out.printf(Locale.ROOT, "%s loop, %d connections to %s%s, %.0f s after %.0f s warmup%n",
+            open ? "open" : "closed", connections, address,
+            open ? String.format(Locale.ROOT, ", %.0f req/s target", rate) : "",
+            seconds, warmupNanos / 1e9);
+        System.out.printf(Locale.ROOT, "mix: post %d, get %d, bad %d%n",
+            weights[0], weights[1], weights[2]);
+        long n = result.service.count();
+        /*
+         * Requests due in the window are answered after it when the
+         * server falls behind; the rate is over the time they took.
+         */
+        double elapsed = Math.max(seconds, (result.lastDone - measureFrom) / 1e9);
+        System.out.printf(Locale.ROOT,
+            "requests %d (%.1f req/s), 2xx %d, 4xx %d, 5xx %d, other %d, overloaded %d, errors %d%n",
+            n, n / elapsed, result.statuses[2], result.statuses[4], result.statuses[5],
+            result.statuses[0] + result.statuses[1] + result.statuses[3],
+            result.overloaded, result.errors);
+        System.out.printf("%-22s %9s %9s %9s %9s %9s %9s%n", "latency ms",
+            "p50", "p90", "p99", "p99.9", "max", "mean");
+        if (open) {
+            row("response (from due)", result.response);
+            row("service (from sent)", result.service);
+            if (n / elapsed < 0.95 * rate) {
+                System.out.printf(Locale.ROOT,
+                    "only %.0f%% of the target rate was served: the server, or this"
+                        + " generator, could not keep up%n", 100 * n / elapsed / rate);
+            }
+        } else {
+            row("measured", result.service);
+            row(String.format(Locale.ROOT, "corrected (%.2f ms)", expectedInterval / 1e6),
+                result.service.corrected(expectedInterval));
+        }
+    }
+
+    private static void row(String name, FCGILatencyRecorder latencies) {
+        System.out.printf(Locale.ROOT, "%-22s %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n", name,
+            latencies.percentile(0.50) / 1e6, latencies.percentile(0.90) / 1e6,
+            latencies.percentile(0.99) / 1e6, latencies.percentile(0.999) / 1e6,
+            latencies.max() / 1e6, latencies.mean() / 1e6);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * @(#)FCGIModeComparison.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi.tools;
+
+import com.fastcgi.FCGIClient;
+import com.fastcgi.FCGIHandler;
+import com.fastcgi.FCGIServer;
+import com.fastcgi.FCGIServerConfig;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Side-by-side throughput/latency comparison of the FCGIServer serving
+ * modes: a fixed pool of platform threads versus a virtual thread per
+ * connection. Runs the server in-process on a free port with a handler
+ * that blocks for a while (standing in for I/O the application waits on)
+ * and drives it with keep-alive connections, each sending its requests
+ * back to back.
+ *
+ *      java -cp fastcgi-lib.jar com.fastcgi.tools.FCGIModeComparison \
+ *          [connections=200] [requests=50] [workMs=5] [workers=16]
+ *
+ * Virtual threads need JDK 21+; on older JVMs that row is skipped.
+ */
+public class FCGIModeComparison
+{
+    private static final byte[] BODY =
+        "Content-Type: text/plain\r\n\r\nok\n".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int workMs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int workers = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+
+        System.out.printf("%d connections x %d requests, %d ms per request, %d pool workers%n",
+            connections, requests, workMs, workers);
+        System.out.printf("%-8s %12s %10s %10s %10s%n", "mode", "req/s", "p50 ms", "p99 ms", "max ms");
+        for (String mode : new String[] {FCGIServerConfig.THREADS_POOL, FCGIServerConfig.THREADS_VIRTUAL}) {
+            if (FCGIServerConfig.THREADS_VIRTUAL.equals(mode) && !hasVirtualThreads()) {
+                System.out.printf("%-8s %12s%n", mode, "n/a (needs JDK 21+)");
+                continue;
+            }
+            run(mode, connections, requests, workMs, workers);
+        }
+    }
+
+    static void run(String mode, int connections, int requests, int workMs, int workers)
+        throws Exception {
+        FCGIServerConfig config = new FCGIServerConfig();
+        config.port = freePort();
+        config.workers = workers;
+        config.threads = mode;
+        FCGIHandler handler = exchange -> {
+            try {
+                Thread.sleep(workMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.getOutputStream().write(BODY);
+        };
+        FCGIServer server = new FCGIServer(config, handler);
+        server.start();
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                /* closed */
+            }
+        }, "fcgi-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        long[] latencies = new long[connections * requests];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(connections);
+        Map<String, String> params = Map.of("REQUEST_METHOD", "GET", "QUERY_STRING", "");
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            Thread client = new Thread(() -> {
+                try (FCGIClient fcgi = new FCGIClient("127.0.0.1", config.port)) {
+                    for (int i = 0; i < requests; i++) {
+                        long t0 = System.nanoTime();
+                        fcgi.send(1, params, null, true);
+                        latencies[next.getAndIncrement()] = System.nanoTime() - t0;
+                    }
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+            client.setDaemon(true);
+            client.start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        server.close();
+
+        int n = next.get();
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        System.out.printf("%-8s %12.0f %10.2f %10.2f %10.2f%s%n", mode,
+            n * 1e9 / elapsed, percentile(sorted, 0.50) / 1e6,
+            percentile(sorted, 0.99) / 1e6, n == 0 ? 0 : sorted[n - 1] / 1e6,
+            failures.get() == 0 ? "" : "  (" + failures.get() + " connections failed)");
+    }
+
+    static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    static boolean hasVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
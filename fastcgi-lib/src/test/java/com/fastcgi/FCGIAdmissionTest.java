@@ -0,0 +1,145 @@
+/*
+ * @(#)FCGIAdmissionTest.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * FCGIAdmission with maxRequests=1 and several waiters that have a
+ * maxQueueWait deadline.
+ */
+class FCGIAdmissionTest
+{
+    private final FCGIStats stats = new FCGIStats();
+
+    private FCGIAdmission admission(int maxRequests, int maxQueue, int maxQueueWait) {
+        FCGIServerConfig config = new FCGIServerConfig();
+        config.maxRequests = maxRequests;
+        config.maxQueue = maxQueue;
+        config.maxQueueWait = maxQueueWait;
+        return new FCGIAdmission(config, stats);
+    }
+
+    @Test
+    void waitersTakeTurnsOnOneSlot() throws InterruptedException {
+        FCGIAdmission admission = admission(1, 0, 10_000);
+        AtomicInteger running = new AtomicInteger();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread(() -> {
+                assertTrue(admission.arrive());
+                if (admission.start(System.nanoTime())) {
+                    if (running.incrementAndGet() > 1) {
+                        overlapped.set(true);
+                    }
+                    sleep(20);
+                    running.decrementAndGet();
+                    admission.finish();
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertFalse(overlapped.get());
+        assertEquals(8, stats.getAdmitted());
+        assertEquals(0, stats.getRejected());
+        assertEquals(0, stats.queued);
+        assertEquals(0, stats.inFlight);
+    }
+
+    /*
+     * The slot is freed while the first waiter still waits, but that
+     * waiter only gets the monitor back after its deadline and rejects
+     * itself. The wakeup must reach the second waiter, which has most of
+     * its maxQueueWait left, rather than leave it to time out.
+     */
+    @Test
+    void expiredWaiterPassesTheSlotOn() throws InterruptedException {
+        int maxQueueWait = 2_000;
+        FCGIAdmission admission = admission(1, 0, maxQueueWait);
+        assertTrue(admission.arrive());
+        assertTrue(admission.start(System.nanoTime()));
+
+        long almostExpired = System.nanoTime()
+            - TimeUnit.MILLISECONDS.toNanos(maxQueueWait - 300);
+        AtomicBoolean firstAdmitted = new AtomicBoolean();
+        AtomicBoolean secondAdmitted = new AtomicBoolean();
+        AtomicInteger secondWaited = new AtomicInteger();
+        Thread first = waiter(admission, almostExpired, firstAdmitted, null);
+        awaitWaiting(first);
+        Thread second = waiter(admission, System.nanoTime(), secondAdmitted, secondWaited);
+        awaitWaiting(second);
+
+        synchronized (admission) {
+            admission.finish();
+            /* keep the woken waiter off the monitor past its deadline */
+            sleep(600);
+        }
+        first.join();
+        second.join();
+
+        assertFalse(firstAdmitted.get());
+        assertTrue(secondAdmitted.get());
+        assertTrue(secondWaited.get() < maxQueueWait / 2,
+            "second waiter got the slot after " + secondWaited.get() + " ms");
+        assertEquals(2, stats.getAdmitted());
+        assertEquals(1, stats.getRejected());
+    }
+
+    @Test
+    void fullQueueIsRejectedOnArrival() {
+        FCGIAdmission admission = admission(1, 2, 0);
+        assertTrue(admission.arrive());
+        assertTrue(admission.arrive());
+        assertFalse(admission.arrive());
+        assertEquals(1, stats.getRejected());
+    }
+
+    private Thread waiter(FCGIAdmission admission, long queuedAt,
+                          AtomicBoolean admitted, AtomicInteger waitedMillis) {
+        Thread t = new Thread(() -> {
+            assertTrue(admission.arrive());
+            long start = System.nanoTime();
+            if (admission.start(queuedAt)) {
+                admitted.set(true);
+                if (waitedMillis != null) {
+                    waitedMillis.set((int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+                admission.finish();
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    private static void awaitWaiting(Thread t) throws InterruptedException {
+        while (t.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
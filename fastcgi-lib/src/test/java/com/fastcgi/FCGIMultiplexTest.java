@@ -0,0 +1,303 @@
+/*
+ * @(#)FCGIMultiplexTest.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Multiplexed connections (FCGI_MPXS_CONNS=1) with both engines: two
+ * requests whose PARAMS and STDIN records are interleaved on one socket,
+ * and a handler that does not read its body holding the upload back in
+ * the peer instead of the server's heap. The handler echoes a param, the
+ * body length and a checksum of the body.
+ */
+class FCGIMultiplexTest
+{
+    private static final int TIMEOUT = 10_000;
+    private static final int UPLOAD = 16 * 1024 * 1024;
+
+    private FCGIServer server;
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    @AfterEach
+    void stop() throws IOException {
+        gate.countDown();
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    void interleavedRequestsBlocking() throws Exception {
+        interleavedRequests(FCGIServerConfig.ENGINE_BLOCKING);
+    }
+
+    @Test
+    void interleavedRequestsSelector() throws Exception {
+        interleavedRequests(FCGIServerConfig.ENGINE_NIO);
+    }
+
+    @Test
+    void unreadBodyIsNotBufferedBlocking() throws Exception {
+        unreadBodyIsNotBuffered(FCGIServerConfig.ENGINE_BLOCKING);
+    }
+
+    @Test
+    void unreadBodyIsNotBufferedSelector() throws Exception {
+        unreadBodyIsNotBuffered(FCGIServerConfig.ENGINE_NIO);
+    }
+
+    private void interleavedRequests(String engine) throws Exception {
+        start(engine);
+        byte[] params1 = params("NAME", "first", "PAD", "x".repeat(300));
+        byte[] params2 = params("NAME", "second");
+        byte[] body1 = body(100_000, 1);
+        byte[] body2 = body(70_000, 2);
+        try (Socket socket = connect()) {
+            Records out = new Records();
+            out.begin(1);
+            out.begin(2);
+            /* request 1's params split in the middle of a name-value pair */
+            out.add(FCGIGlobalDefs.def_FCGIParams, 1, params1, 0, 7);
+            out.add(FCGIGlobalDefs.def_FCGIParams, 2, params2, 0, params2.length);
+            out.add(FCGIGlobalDefs.def_FCGIParams, 1, params1, 7, params1.length - 7);
+            out.add(FCGIGlobalDefs.def_FCGIParams, 2, params2, 0, 0);
+            out.add(FCGIGlobalDefs.def_FCGIParams, 1, params1, 0, 0);
+            int off1 = 0;
+            int off2 = 0;
+            while (off1 < body1.length || off2 < body2.length) {
+                int n1 = Math.min(5000, body1.length - off1);
+                int n2 = Math.min(3000, body2.length - off2);
+                if (n2 > 0) {
+                    out.add(FCGIGlobalDefs.def_FCGIStdin, 2, body2, off2, n2);
+                    off2 += n2;
+                }
+                if (n1 > 0) {
+                    out.add(FCGIGlobalDefs.def_FCGIStdin, 1, body1, off1, n1);
+                    off1 += n1;
+                }
+            }
+            out.add(FCGIGlobalDefs.def_FCGIStdin, 1, body1, 0, 0);
+            out.add(FCGIGlobalDefs.def_FCGIStdin, 2, body2, 0, 0);
+            out.writeTo(socket.getOutputStream());
+
+            Map<Integer, String> replies = readReplies(socket, 2);
+            assertEquals(echo("first", body1), replies.get(1));
+            assertEquals(echo("second", body2), replies.get(2));
+        }
+    }
+
+    /*
+     * The handler of request 1 waits before reading its body while the
+     * client streams UPLOAD bytes to it. The server may take in about
+     * maxPendingInput plus the socket buffers, not the whole upload;
+     * once the handler reads, the upload completes and request 2 on the
+     * same connection is served as usual.
+     */
+    private void unreadBodyIsNotBuffered(String engine) throws Exception {
+        gate = new CountDownLatch(1);
+        start(engine);
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            Records head = new Records();
+            head.begin(1);
+            byte[] params1 = params("NAME", "slow", "WAIT", "1");
+            head.add(FCGIGlobalDefs.def_FCGIParams, 1, params1, 0, params1.length);
+            head.add(FCGIGlobalDefs.def_FCGIParams, 1, params1, 0, 0);
+            head.writeTo(out);
+
+            byte[] body = body(UPLOAD, 3);
+            AtomicLong sent = new AtomicLong();
+            Thread writer = new Thread(() -> {
+                try {
+                    int chunk = FCGIGlobalDefs.def_FCGIMaxLen;
+                    for (int off = 0; off < body.length; off += chunk) {
+                        int len = Math.min(chunk, body.length - off);
+                        Records r = new Records();
+                        r.add(FCGIGlobalDefs.def_FCGIStdin, 1, body, off, len);
+                        r.writeTo(out);
+                        sent.addAndGet(len);
+                    }
+                    Records r = new Records();
+                    r.add(FCGIGlobalDefs.def_FCGIStdin, 1, body, 0, 0);
+                    byte[] params2 = params("NAME", "next");
+                    r.begin(2);
+                    r.add(FCGIGlobalDefs.def_FCGIParams, 2, params2, 0, params2.length);
+                    r.add(FCGIGlobalDefs.def_FCGIParams, 2, params2, 0, 0);
+                    r.add(FCGIGlobalDefs.def_FCGIStdin, 2, params2, 0, 0);
+                    r.writeTo(out);
+                } catch (IOException e) {
+                    /* the assertions below fail */
+                }
+            });
+            writer.start();
+
+            Thread.sleep(1500);
+            long stalled = sent.get();
+            assertTrue(stalled < UPLOAD / 4,
+                "server took " + stalled + " of " + UPLOAD + " unread bytes");
+            Thread.sleep(300);
+            assertEquals(stalled, sent.get(), "upload went on while the handler did not read");
+
+            gate.countDown();
+            Map<Integer, String> replies = readReplies(socket, 2);
+            writer.join(TIMEOUT);
+            assertEquals(echo("slow", body), replies.get(1));
+            assertEquals(echo("next", new byte[0]), replies.get(2));
+        }
+    }
+
+    private void start(String engine) throws Exception {
+        FCGIServerConfig config = new FCGIServerConfig();
+        try (ServerSocket probe = new ServerSocket(0)) {
+            config.port = probe.getLocalPort();
+        }
+        config.multiplex = true;
+        config.engine = engine;
+        config.eventLoops = 1;
+        config.receiveBufferSize = 64 * 1024;
+        server = new FCGIServer(config, exchange -> {
+            if (exchange.getParam("WAIT", null) != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] body = exchange.getInputStream().readAllBytes();
+            exchange.getOutputStream().write(echo(exchange.getParam("NAME", ""), body)
+                .getBytes(StandardCharsets.US_ASCII));
+        });
+        server.start();
+        Thread t = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                /* closed */
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        socket.setSendBufferSize(64 * 1024);
+        socket.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()), TIMEOUT);
+        socket.setSoTimeout(TIMEOUT);
+        return socket;
+    }
+
+    private static String echo(String name, byte[] body) {
+        long sum = 0;
+        for (byte b : body) {
+            sum = sum * 31 + b;
+        }
+        return name + " " + body.length + " " + Long.toHexString(sum);
+    }
+
+    private static byte[] body(int len, int seed) {
+        byte[] body = new byte[len];
+        for (int i = 0; i < len; i++) {
+            body[i] = (byte) (i * seed + i / 251);
+        }
+        return body;
+    }
+
+    private static byte[] params(String... nameValues) {
+        ByteArrayOutputStream nv = new ByteArrayOutputStream();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            byte[] n = nameValues[i].getBytes(StandardCharsets.US_ASCII);
+            byte[] v = nameValues[i + 1].getBytes(StandardCharsets.US_ASCII);
+            length(nv, n.length);
+            length(nv, v.length);
+            nv.writeBytes(n);
+            nv.writeBytes(v);
+        }
+        return nv.toByteArray();
+    }
+
+    private static void length(ByteArrayOutputStream nv, int len) {
+        if (len < 0x80) {
+            nv.write(len);
+        } else {
+            nv.write((len >> 24) | 0x80);
+            nv.write(len >> 16);
+            nv.write(len >> 8);
+            nv.write(len);
+        }
+    }
+
+    /*
+     * Reads records until count requests have ended; returns the stdout
+     * of each by request ID.
+     */
+    private static Map<Integer, String> readReplies(Socket socket, int count) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        Map<Integer, ByteArrayOutputStream> stdout = new HashMap<>();
+        Map<Integer, String> replies = new HashMap<>();
+        byte[] header = new byte[FCGIGlobalDefs.def_FCGIHeaderLen];
+        byte[] content = new byte[FCGIGlobalDefs.def_FCGIMaxLen];
+        while (replies.size() < count) {
+            in.readFully(header);
+            int type = FCGIRecordCodec.type(header, 0);
+            int id = FCGIRecordCodec.requestID(header, 0);
+            int len = FCGIRecordCodec.contentLength(header, 0);
+            in.readFully(content, 0, len);
+            in.skipNBytes(FCGIRecordCodec.paddingLength(header, 0));
+            if (type == FCGIGlobalDefs.def_FCGIStdout) {
+                stdout.computeIfAbsent(id, k -> new ByteArrayOutputStream()).write(content, 0, len);
+            } else if (type == FCGIGlobalDefs.def_FCGIEndRequest) {
+                assertEquals(FCGIGlobalDefs.def_FCGIRequestComplete,
+                    FCGIRecordCodec.protocolStatus(content, 0));
+                ByteArrayOutputStream out = stdout.get(id);
+                replies.put(id, out == null ? "" : out.toString(StandardCharsets.US_ASCII));
+            }
+        }
+        return replies;
+    }
+
+    private static final class Records
+    {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final byte[] header = new byte[FCGIGlobalDefs.def_FCGIHeaderLen];
+
+        void begin(int requestID) {
+            byte[] body = new byte[FCGIGlobalDefs.def_FCGIBeginReqBodyLen];
+            body[1] = (byte) FCGIGlobalDefs.def_FCGIResponder;
+            body[2] = (byte) FCGIGlobalDefs.def_FCGIKeepConn;
+            add(FCGIGlobalDefs.def_FCGIBeginRequest, requestID, body, 0, body.length);
+        }
+
+        void add(int type, int requestID, byte[] data, int off, int len) {
+            FCGIRecordCodec.encodeHeader(header, 0, type, requestID, len, 0);
+            bytes.write(header, 0, header.length);
+            bytes.write(data, off, len);
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            bytes.writeTo(out);
+            out.flush();
+        }
+    }
+}
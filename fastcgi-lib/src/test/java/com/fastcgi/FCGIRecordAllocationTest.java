@@ -0,0 +1,169 @@
+/*
+ * @(#)FCGIRecordAllocationTest.java
+ *
+ *      FastCGi compatibility package Interface
+ */
+package com.fastcgi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * The steady-state record path allocates nothing: reading records with
+ * FCGIInputStream.fill(), writing them with empty(), and close() with
+ * its EOF and END_REQUEST records. Each check warms the cycle up first,
+ * so one-time buffers and class loading are not counted, then measures
+ * the bytes the test thread allocates over many more cycles.
+ */
+class FCGIRecordAllocationTest
+{
+    private static final int WARMUP = 20_000;
+    private static final int CYCLES = 20_000;
+
+    private final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    interface Cycle
+    {
+        void run() throws IOException;
+    }
+
+    @Test
+    void fillAllocatesNothing() throws IOException {
+        byte[] body = new byte[20_000];
+        ByteArrayInputStream wire = new ByteArrayInputStream(
+            stdinRecords(1, body, 8192));
+        FCGIRequest request = new FCGIRequest();
+        request.requestID = 1;
+        request.isBeginProcessed = true;
+        FCGIInputStream in = new FCGIInputStream(wire, 8192,
+            FCGIGlobalDefs.def_FCGIStdin, request);
+
+        assertNoAllocation("fill", () -> {
+            wire.reset();
+            in.rdNext = in.stop = in.buffStop = 0;
+            in.setReaderType(FCGIGlobalDefs.def_FCGIStdin);
+            do {
+                in.rdNext = in.stop;
+                in.fill();
+            } while (in.rdNext != in.stop);
+        });
+    }
+
+    @Test
+    void emptyAllocatesNothing() throws IOException {
+        emptyAllocatesNothing(false);
+    }
+
+    @Test
+    void emptyThroughChannelAllocatesNothing() throws IOException {
+        emptyAllocatesNothing(true);
+    }
+
+    private void emptyAllocatesNothing(boolean gathering) throws IOException {
+        byte[] payload = new byte[20_000];
+        FCGIRequest request = new FCGIRequest();
+        request.requestID = 1;
+        Sink sink = new Sink();
+        FCGIOutputStream out = new FCGIOutputStream(sink, 8192,
+            FCGIGlobalDefs.def_FCGIStdout, request);
+        if (gathering) {
+            out.channel = sink;
+        }
+
+        assertNoAllocation("empty", () -> {
+            out.reset(request);
+            out.write(payload);
+            out.empty(false);
+        });
+        assertNoAllocation("close", () -> {
+            out.reset(request);
+            request.numWriters = 1;
+            out.write(payload);
+            out.close();
+        });
+    }
+
+    private void assertNoAllocation(String what, Cycle cycle)
+        throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            cycle.run();
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < CYCLES; i++) {
+            cycle.run();
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertEquals(0, allocated, what + " allocated " + allocated
+            + " bytes over " + CYCLES + " cycles");
+    }
+
+    /*
+     * FCGI_STDIN records carrying body, then the empty end-of-stream
+     * record, as a web server sends them.
+     */
+    private static byte[] stdinRecords(int requestID, byte[] body,
+        int recordLen) {
+        int records = (body.length + recordLen - 1) / recordLen + 1;
+        byte[] wire = new byte[body.length
+            + records * FCGIGlobalDefs.def_FCGIHeaderLen];
+        int p = 0;
+        for (int off = 0; off < body.length; off += recordLen) {
+            int len = Math.min(recordLen, body.length - off);
+            FCGIRecordCodec.encodeHeader(wire, p,
+                FCGIGlobalDefs.def_FCGIStdin, requestID, len, 0);
+            System.arraycopy(body, off, wire,
+                p + FCGIGlobalDefs.def_FCGIHeaderLen, len);
+            p += FCGIGlobalDefs.def_FCGIHeaderLen + len;
+        }
+        FCGIRecordCodec.encodeHeader(wire, p,
+            FCGIGlobalDefs.def_FCGIStdin, requestID, 0, 0);
+        return wire;
+    }
+
+    /*
+     * A connection that drops everything written to it.
+     */
+    private static class Sink extends OutputStream
+        implements GatheringByteChannel
+    {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long n = 0;
+            for (int i = offset; i < offset + length; i++) {
+                n += write(srcs[i]);
+            }
+            return n;
+        }
+
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+}